@@ -16,6 +16,7 @@
 
 package android.database;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import android.content.Context;
@@ -45,6 +46,8 @@ public class CursorWindowPerfTest {
 
     private static final String DB_NAME = CursorWindowPerfTest.class.toString();
 
+    private static final int SCAN_ROWS = 50000;
+
     private static SQLiteDatabase sDatabase;
 
     @BeforeClass
@@ -60,6 +63,18 @@ public class CursorWindowPerfTest {
             sDatabase.execSQL(insert, helper.createItem(0));
         }
 
+        // Spans several windows when read through a bulk cursor.
+        sDatabase.execSQL("CREATE TABLE `Scan` (`a` INTEGER PRIMARY KEY, `b` TEXT)");
+        sDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < SCAN_ROWS; i++) {
+                sDatabase.execSQL("INSERT INTO `Scan`(`a`, `b`) VALUES (?, ?)",
+                        new Object[] { i, "row " + i + " of the scan table" });
+            }
+            sDatabase.setTransactionSuccessful();
+        } finally {
+            sDatabase.endTransaction();
+        }
     }
 
     @AfterClass
@@ -87,6 +102,67 @@ public class CursorWindowPerfTest {
         loadRowFromCursorWindow(TableHelper.USER, false);
     }
 
+    /**
+     * Iterates every row of a large query through the adaptors used to return cursors from
+     * content providers, which hand out one window per round trip.
+     */
+    @Test
+    public void scanBulkCursor() {
+        BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final Cursor cursor = sDatabase.rawQuery("SELECT * FROM `Scan`", new String[0]);
+            final BulkCursorToCursorAdaptor client = new BulkCursorToCursorAdaptor();
+            final CursorToBulkCursorAdaptor adaptor =
+                    new CursorToBulkCursorAdaptor(cursor, client.getObserver(), DB_NAME);
+            client.initialize(adaptor.getBulkCursorDescriptor());
+            try {
+                int rows = 0;
+                while (client.moveToNext()) {
+                    client.getLong(0);
+                    client.getString(1);
+                    rows++;
+                }
+                assertEquals(SCAN_ROWS, rows);
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void readLongColumn_perCell() {
+        readLongColumn(false);
+    }
+
+    @Test
+    public void readLongColumn_batch() {
+        readLongColumn(true);
+    }
+
+    private void readLongColumn(boolean batch) {
+        try (Cursor cursor = sDatabase.rawQuery("SELECT `a` FROM `Scan`", new String[0])) {
+            SQLiteCursor sqLiteCursor = (SQLiteCursor) cursor;
+            sqLiteCursor.getCount(); // load one window
+            CursorWindow window = sqLiteCursor.getWindow();
+            final int start = window.getStartPosition();
+            final int rows = window.getNumRows();
+            final long[] values = new long[rows];
+
+            BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            if (batch) {
+                while (state.keepRunning()) {
+                    window.getLongColumn(start, 0, values, 0, rows);
+                }
+            } else {
+                while (state.keepRunning()) {
+                    for (int i = 0; i < rows; i++) {
+                        values[i] = window.getLong(start + i, 0);
+                    }
+                }
+            }
+        }
+    }
+
     private void loadRowFromCursorWindow(TableHelper helper, boolean doubleRef) {
         try (Cursor cursor = sDatabase.rawQuery(helper.readSql(), new String[0])) {
             TableHelper.CursorReader reader = helper.createReader(cursor);
@@ -91,6 +91,34 @@ public class SQLiteDatabasePerfTest {
         }
     }
 
+    /**
+     * Cycles through more distinct queries than the default prepared statement cache holds,
+     * so that a fixed-size cache would re-prepare every statement.
+     */
+    @Test
+    public void testSelectCacheThrashing() {
+        insertT1TestDataSet();
+
+        final int queryCount = 40;
+        final String[] queries = new String[queryCount];
+        for (int i = 0; i < queryCount; i++) {
+            queries[i] = "SELECT _ID, COL_A, COL_B, COL_C FROM T1 WHERE _ID=? AND " + i + "=" + i;
+        }
+
+        BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+
+        Random rnd = new Random(0);
+        int i = 0;
+        while (state.keepRunning()) {
+            int index = rnd.nextInt(DEFAULT_DATASET_SIZE);
+            try (Cursor cursor = mDatabase.rawQuery(queries[i++ % queryCount],
+                    new String[]{String.valueOf(index)})) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(index, cursor.getInt(0));
+            }
+        }
+    }
+
     @Test
     public void testSelectMultipleRows() {
         insertT1TestDataSet();
@@ -76,6 +76,35 @@ public class TypefaceCreatePerfTest {
     @Test
     public void testCreate_fromFile() {
         BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final File outFile = copyTestFontToCache();
+
+        while (state.keepRunning()) {
+            Typeface face = Typeface.createFromFile(outFile);
+        }
+
+        outFile.delete();
+    }
+
+    @Test
+    public void testCreate_fromFile_modified() {
+        BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final File outFile = copyTestFontToCache();
+        long lastModified = outFile.lastModified();
+
+        while (state.keepRunning()) {
+            // A modified file can't be served from the typeface cache.
+            state.pauseTiming();
+            lastModified += 1000;
+            outFile.setLastModified(lastModified);
+            state.resumeTiming();
+
+            Typeface face = Typeface.createFromFile(outFile);
+        }
+
+        outFile.delete();
+    }
+
+    private static File copyTestFontToCache() {
         final Context context = InstrumentationRegistry.getContext();
         final AssetManager am = context.getAssets();
 
@@ -96,11 +125,6 @@ public class TypefaceCreatePerfTest {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-
-        while (state.keepRunning()) {
-            Typeface face = Typeface.createFromFile(outFile);
-        }
-
-        outFile.delete();
+        return outFile;
     }
 }
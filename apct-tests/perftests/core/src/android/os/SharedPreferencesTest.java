@@ -24,6 +24,7 @@ import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.LargeTest;
 import android.support.test.runner.AndroidJUnit4;
 
+import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -31,9 +32,21 @@ import org.junit.runner.RunWith;
 @RunWith(AndroidJUnit4.class)
 @LargeTest
 public class SharedPreferencesTest {
+    private static final String LARGE_PREFS = "SharedPreferencesTest_large";
+    private static final String LARGE_JOURNALED_PREFS = "SharedPreferencesTest_largeJournaled";
+    private static final int LARGE_MAP_SIZE = 2000;
+
     @Rule
     public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
 
+    @After
+    public void tearDown() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        for (String name : new String[] { LARGE_PREFS, LARGE_JOURNALED_PREFS }) {
+            context.getSharedPreferences(name, Context.MODE_PRIVATE).edit().clear().commit();
+        }
+    }
+
     @Test
     public void timeCachedGetSharedPreferences() {
         final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
@@ -44,4 +57,49 @@ public class SharedPreferencesTest {
             prefs = context.getSharedPreferences("test", Context.MODE_PRIVATE);
         }
     }
+
+    @Test
+    public void timeCommitLargeMap() {
+        timeWriteLargeMap(LARGE_PREFS, Context.MODE_PRIVATE, true);
+    }
+
+    @Test
+    public void timeApplyLargeMap() {
+        timeWriteLargeMap(LARGE_PREFS, Context.MODE_PRIVATE, false);
+    }
+
+    @Test
+    public void timeCommitLargeMapJournaled() {
+        timeWriteLargeMap(LARGE_JOURNALED_PREFS, Context.MODE_JOURNALED_PREFERENCES, true);
+    }
+
+    @Test
+    public void timeApplyLargeMapJournaled() {
+        timeWriteLargeMap(LARGE_JOURNALED_PREFS, Context.MODE_JOURNALED_PREFERENCES, false);
+    }
+
+    /**
+     * Changes one key of a map with {@link #LARGE_MAP_SIZE} entries per iteration, measuring
+     * the latency seen by the caller of commit() or apply().
+     */
+    private void timeWriteLargeMap(String name, int mode, boolean commit) {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final SharedPreferences prefs = context.getSharedPreferences(name, mode);
+        final SharedPreferences.Editor editor = prefs.edit();
+        for (int i = 0; i < LARGE_MAP_SIZE; i++) {
+            editor.putString("key" + i, "a moderately long value for entry " + i);
+        }
+        editor.commit();
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            final SharedPreferences.Editor e = prefs.edit().putInt("counter", i++);
+            if (commit) {
+                e.commit();
+            } else {
+                e.apply();
+            }
+        }
+    }
 }
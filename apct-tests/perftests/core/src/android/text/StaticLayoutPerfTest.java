@@ -75,6 +75,30 @@ public class StaticLayoutPerfTest {
         return PrecomputedText.create(text, param);
     }
 
+    private CharSequence makeMultiParagraphText(int paragraphs) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < paragraphs; i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(mTextUtil.nextRandomParagraph(WORD_LENGTH, NO_STYLE_TEXT));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testCreate_FixedLongText_32Paragraphs_NoStyle_Balanced_NoHyphenation() {
+        // Long enough for the paragraphs to be measured in parallel.
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final CharSequence text = makeMultiParagraphText(32);
+        while (state.keepRunning()) {
+            StaticLayout.Builder.obtain(text, 0, text.length(), PAINT, TEXT_WIDTH)
+                    .setHyphenationFrequency(Layout.HYPHENATION_FREQUENCY_NONE)
+                    .setBreakStrategy(Layout.BREAK_STRATEGY_BALANCED)
+                    .build();
+        }
+    }
+
     @Test
     public void testCreate_FixedText_NoStyle_Greedy_NoHyphenation() {
         final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
@@ -24,6 +24,7 @@ import android.perftests.utils.StubActivity;
 import android.support.test.annotation.UiThreadTest;
 import android.support.test.filters.LargeTest;
 import android.support.test.rule.ActivityTestRule;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
@@ -55,6 +56,7 @@ public class LayoutPerfTest {
                 { "linear", R.layout.test_linear_layout, R.id.linear_layout_root },
                 { "linear_weighted", R.layout.test_linear_layout_weighted,
                         R.id.linear_layout_weighted_root },
+                { "list_item", R.layout.test_list_item, R.id.list_item_root },
         });
     }
 
@@ -105,4 +107,19 @@ public class LayoutPerfTest {
             }
         });
     }
+
+    @Test
+    public void testInflatePerf() throws Throwable {
+        mActivityRule.runOnUiThread(() -> {
+            final Activity activity = mActivityRule.getActivity();
+            final LayoutInflater inflater = activity.getLayoutInflater();
+            final ViewGroup parent = new FrameLayout(activity);
+
+            BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            while (state.keepRunning()) {
+                // Like an adapter creating a row: inflate against the parent, don't attach.
+                inflater.inflate(mLayoutId, parent, false);
+            }
+        });
+    }
 }
@@ -47,6 +47,8 @@ import android.view.accessibility.AccessibilityWindowInfo;
 import com.android.internal.os.HandlerCaller;
 import com.android.internal.os.SomeArgs;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.List;
@@ -439,6 +441,16 @@ public abstract class AccessibilityService extends Service {
      */
     public abstract void onInterrupt();
 
+    /**
+     * Dumps the state of the node cache this service's queries go through.
+     *
+     * @hide
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        AccessibilityInteractionClient.dumpCache(pw, "");
+    }
+
     /**
      * Dispatches service connection to internal components first, then the
      * client code.
@@ -22,11 +22,15 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.Process;
 import android.os.StrictMode;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.ArrayMap;
 import android.util.Log;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.util.ExponentiallyBucketedHistogram;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 
 /**
@@ -44,6 +48,10 @@ import java.util.LinkedList;
  *
  * The queued asynchronous work is performed on a separate, dedicated thread.
  *
+ * If a {@link #setWaitDeadline wait deadline} is set, {@link #waitToFinish} only waits that long
+ * for the work to be processed on that thread instead of processing it on the calling thread,
+ * and work still in flight at the deadline completes in the background.
+ *
  * @hide
  */
 public class QueuedWork {
@@ -56,6 +64,9 @@ public class QueuedWork {
     /** If a {@link #waitToFinish()} takes more than {@value #MAX_WAIT_TIME_MILLIS} ms, warn */
     private static final long MAX_WAIT_TIME_MILLIS = 512;
 
+    /** Writer attributed to work {@link #queue queued} without one */
+    private static final String UNKNOWN_WRITER = "<unknown>";
+
     /** Lock for this class */
     private static final Object sLock = new Object();
 
@@ -78,12 +89,29 @@ public class QueuedWork {
 
     /** Work queued via {@link #queue} */
     @GuardedBy("sLock")
-    private static final LinkedList<Runnable> sWork = new LinkedList<>();
+    private static final LinkedList<NamedWork> sWork = new LinkedList<>();
 
     /** If new work can be delayed or not */
     @GuardedBy("sLock")
     private static boolean sCanDelay = true;
 
+    /** Writers of the work queued and not yet processed, with their number of work items */
+    @GuardedBy("sLock")
+    private static final ArrayMap<String, Integer> sPendingWriters = new ArrayMap<>();
+
+    /** Maximum time {@link #waitToFinish} blocks for, or 0 to process all work synchronously */
+    @GuardedBy("sLock")
+    private static long sWaitDeadlineMillis =
+            SystemProperties.getLong("debug.queuedwork.wait_deadline_ms", 0);
+
+    /** Number of waits that returned at the deadline with work still in flight */
+    @GuardedBy("sLock")
+    private static int sNumDeadlineMisses = 0;
+
+    /** Per writer: number of waits on its work and total time blocked in them, in ms */
+    @GuardedBy("sLock")
+    private static final ArrayMap<String, long[]> sBlockedTimes = new ArrayMap<>();
+
     /** Time (and number of instances) waited for work to get processed */
     @GuardedBy("sLock")
     private final static ExponentiallyBucketedHistogram
@@ -152,13 +180,24 @@ public class QueuedWork {
 
         Handler handler = getHandler();
 
+        final String[] writers;
+        final long deadline;
+        synchronized (sLock) {
+            writers = sPendingWriters.keySet().toArray(new String[sPendingWriters.size()]);
+            deadline = sWaitDeadlineMillis;
+        }
+        if (deadline > 0) {
+            waitForWork(handler, deadline, writers);
+            return;
+        }
+
         synchronized (sLock) {
             if (handler.hasMessages(QueuedWorkHandler.MSG_RUN)) {
                 // Delayed work will be processed at processPendingWork() below
                 handler.removeMessages(QueuedWorkHandler.MSG_RUN);
 
+                hadMessages = true;
                 if (DEBUG) {
-                    hadMessages = true;
                     Log.d(LOG_TAG, "waiting");
                 }
             }
@@ -192,20 +231,111 @@ public class QueuedWork {
             sCanDelay = true;
         }
 
+        noteWait(System.currentTimeMillis() - startTime, hadMessages, writers);
+    }
+
+    /**
+     * Waits for the queued work to be processed on the work thread, for at most
+     * {@code deadlineMillis}.
+     */
+    private static void waitForWork(Handler handler, long deadlineMillis, String[] writers) {
+        final long startTime = System.currentTimeMillis();
+        final long endTime = SystemClock.uptimeMillis() + deadlineMillis;
+        boolean hadMessages = false;
+        boolean missedDeadline = false;
+
         synchronized (sLock) {
-            long waitTime = System.currentTimeMillis() - startTime;
+            if (!sPendingWriters.isEmpty()) {
+                hadMessages = true;
+                // Run delayed work now, on the work thread.
+                handler.removeMessages(QueuedWorkHandler.MSG_RUN);
+                handler.sendEmptyMessage(QueuedWorkHandler.MSG_RUN);
+            }
+
+            while (!sPendingWriters.isEmpty()) {
+                final long remaining = endTime - SystemClock.uptimeMillis();
+                if (remaining <= 0) {
+                    missedDeadline = true;
+                    sNumDeadlineMisses++;
+                    break;
+                }
+                try {
+                    sLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
 
+        if (missedDeadline) {
+            Log.w(LOG_TAG, "Gave up waiting for writes by " + Arrays.toString(writers)
+                    + " after " + deadlineMillis + " ms");
+        }
+        noteWait(System.currentTimeMillis() - startTime, hadMessages, writers);
+    }
+
+    /**
+     * Records time the caller of {@link #waitToFinish} was blocked, attributing it to the
+     * writers whose work was pending.
+     */
+    private static void noteWait(long waitTime, boolean hadMessages, String[] writers) {
+        if (hadMessages && waitTime > 0) {
+            StrictMode.noteSlowCall("QueuedWork.waitToFinish blocked for " + waitTime
+                    + " ms on writes by " + Arrays.toString(writers));
+        }
+
+        synchronized (sLock) {
             if (waitTime > 0 || hadMessages) {
                 mWaitTimes.add(Long.valueOf(waitTime).intValue());
                 mNumWaits++;
 
+                for (String writer : writers) {
+                    long[] blocked = sBlockedTimes.get(writer);
+                    if (blocked == null) {
+                        blocked = new long[2];
+                        sBlockedTimes.put(writer, blocked);
+                    }
+                    blocked[0]++;
+                    blocked[1] += waitTime;
+                }
+
                 if (DEBUG || mNumWaits % 1024 == 0 || waitTime > MAX_WAIT_TIME_MILLIS) {
                     mWaitTimes.log(LOG_TAG, "waited: ");
+                    Log.i(LOG_TAG, "blocked by writer: " + blockedTimesToStringLocked()
+                            + (sNumDeadlineMisses > 0
+                                    ? ", deadline misses: " + sNumDeadlineMisses : ""));
                 }
             }
         }
     }
 
+    @GuardedBy("sLock")
+    private static String blockedTimesToStringLocked() {
+        final StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < sBlockedTimes.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            final long[] blocked = sBlockedTimes.valueAt(i);
+            sb.append(sBlockedTimes.keyAt(i)).append('=').append(blocked[1]).append("ms/")
+                    .append(blocked[0]);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Sets the maximum time {@link #waitToFinish} blocks for.
+     *
+     * @param deadlineMillis The deadline, or 0 to always process all queued work before
+     *     returning.
+     */
+    public static void setWaitDeadline(long deadlineMillis) {
+        synchronized (sLock) {
+            sWaitDeadlineMillis = deadlineMillis;
+        }
+    }
+
     /**
      * Queue a work-runnable for processing asynchronously.
      *
@@ -213,10 +343,25 @@ public class QueuedWork {
      * @param shouldDelay If the message should be delayed
      */
     public static void queue(Runnable work, boolean shouldDelay) {
+        queue(work, shouldDelay, null);
+    }
+
+    /**
+     * Queue a work-runnable for processing asynchronously.
+     *
+     * @param work The new runnable to process
+     * @param shouldDelay If the message should be delayed
+     * @param writer Name that time spent waiting for this work is attributed to, e.g. the file
+     *     written
+     */
+    public static void queue(Runnable work, boolean shouldDelay, String writer) {
         Handler handler = getHandler();
+        final String name = writer != null ? writer : UNKNOWN_WRITER;
 
         synchronized (sLock) {
-            sWork.add(work);
+            sWork.add(new NamedWork(work, name));
+            final Integer count = sPendingWriters.get(name);
+            sPendingWriters.put(name, count == null ? 1 : count + 1);
 
             if (shouldDelay && sCanDelay) {
                 handler.sendEmptyMessageDelayed(QueuedWorkHandler.MSG_RUN, DELAY);
@@ -243,10 +388,10 @@ public class QueuedWork {
         }
 
         synchronized (sProcessingWork) {
-            LinkedList<Runnable> work;
+            LinkedList<NamedWork> work;
 
             synchronized (sLock) {
-                work = (LinkedList<Runnable>) sWork.clone();
+                work = (LinkedList<NamedWork>) sWork.clone();
                 sWork.clear();
 
                 // Remove all msg-s as all work will be processed now
@@ -254,8 +399,12 @@ public class QueuedWork {
             }
 
             if (work.size() > 0) {
-                for (Runnable w : work) {
-                    w.run();
+                for (NamedWork w : work) {
+                    try {
+                        w.work.run();
+                    } finally {
+                        onWorkDone(w.writer);
+                    }
                 }
 
                 if (DEBUG) {
@@ -266,6 +415,31 @@ public class QueuedWork {
         }
     }
 
+    private static void onWorkDone(String writer) {
+        synchronized (sLock) {
+            final Integer count = sPendingWriters.get(writer);
+            if (count == null || count <= 1) {
+                sPendingWriters.remove(writer);
+            } else {
+                sPendingWriters.put(writer, count - 1);
+            }
+            if (sPendingWriters.isEmpty()) {
+                sLock.notifyAll();
+            }
+        }
+    }
+
+    /** Queued work and the writer it is attributed to */
+    private static final class NamedWork {
+        final Runnable work;
+        final String writer;
+
+        NamedWork(Runnable work, String writer) {
+            this.work = work;
+            this.writer = writer;
+        }
+    }
+
     private static class QueuedWorkHandler extends Handler {
         static final int MSG_RUN = 1;
 
@@ -478,6 +478,25 @@ public class ResourcesManager {
 
             pw.print("resource impls: ");
             pw.println(countLiveReferences(mResourceImpls.values()));
+
+            int drawableHits = 0;
+            int drawableMisses = 0;
+            for (WeakReference<ResourcesImpl> ref : mResourceImpls.values()) {
+                final ResourcesImpl impl = ref != null ? ref.get() : null;
+                if (impl != null) {
+                    drawableHits += impl.getDrawableCacheHitCount();
+                    drawableMisses += impl.getDrawableCacheMissCount();
+                }
+            }
+            pw.print("drawable cache: hit=");
+            pw.print(drawableHits);
+            pw.print(" miss=");
+            pw.println(drawableMisses);
+
+            pw.print("theme attribute cache: hit=");
+            pw.print(ResourcesImpl.getResolvedAttributesHitCount());
+            pw.print(" miss=");
+            pw.println(ResourcesImpl.getResolvedAttributesMissCount());
         }
     }
 
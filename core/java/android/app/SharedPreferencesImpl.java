@@ -17,6 +17,7 @@
 package android.app;
 
 import android.annotation.Nullable;
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.FileUtils;
 import android.os.Looper;
@@ -59,13 +60,21 @@ final class SharedPreferencesImpl implements SharedPreferences {
     /** If a fsync takes more than {@value #MAX_FSYNC_DURATION_MILLIS} ms, warn */
     private static final long MAX_FSYNC_DURATION_MILLIS = 256;
 
+    /**
+     * The journal is folded back into the XML file once it is larger than this and than the
+     * XML file itself.
+     */
+    private static final long MIN_JOURNAL_COMPACTION_SIZE = 32 * 1024;
+
     // Lock ordering rules:
     //  - acquire SharedPreferencesImpl.mLock before EditorImpl.mLock
     //  - acquire mWritingToDiskLock before EditorImpl.mLock
 
     private final File mFile;
     private final File mBackupFile;
+    private final File mJournalFile;
     private final int mMode;
+    private final boolean mUseJournal;
     private final Object mLock = new Object();
     private final Object mWritingToDiskLock = new Object();
 
@@ -103,10 +112,25 @@ final class SharedPreferencesImpl implements SharedPreferences {
     private final ExponentiallyBucketedHistogram mSyncTimes = new ExponentiallyBucketedHistogram(16);
     private int mNumSync = 0;
 
+    /**
+     * Size of the journal that applies to the current XML file, or 0 if there is none and
+     * the next write has to rewrite the XML file.
+     */
+    @GuardedBy("mWritingToDiskLock")
+    private long mJournalSize;
+
+    /** Size of the XML file when it was last written or loaded. */
+    @GuardedBy("mWritingToDiskLock")
+    private long mBaseFileSize;
+
     SharedPreferencesImpl(File file, int mode) {
         mFile = file;
         mBackupFile = makeBackupFile(file);
+        mJournalFile = SharedPreferencesJournal.makeJournalFile(file);
         mMode = mode;
+        // Other processes only read the XML file, so they must always see every change there.
+        mUseJournal = (mode & Context.MODE_JOURNALED_PREFERENCES) != 0
+                && (mode & Context.MODE_MULTI_PROCESS) == 0;
         mLoaded = false;
         mMap = null;
         mThrowable = null;
@@ -143,6 +167,7 @@ final class SharedPreferencesImpl implements SharedPreferences {
         Map<String, Object> map = null;
         StructStat stat = null;
         Throwable thrown = null;
+        long journalSize = 0;
         try {
             stat = Os.stat(mFile.getPath());
             if (mFile.canRead()) {
@@ -157,6 +182,12 @@ final class SharedPreferencesImpl implements SharedPreferences {
                     IoUtils.closeQuietly(str);
                 }
             }
+            // Changes committed since the XML file was written are only in the journal. It is
+            // replayed even if journaling was since turned off; the next write then folds it
+            // into the XML file.
+            if (map != null) {
+                journalSize = SharedPreferencesJournal.replay(mJournalFile, stat, map);
+            }
         } catch (ErrnoException e) {
             // An errno exception means the stat failed. Treat as empty/non-existing by
             // ignoring.
@@ -164,6 +195,14 @@ final class SharedPreferencesImpl implements SharedPreferences {
             thrown = t;
         }
 
+        if (thrown == null) {
+            // No write can be in flight before loading completes.
+            synchronized (mWritingToDiskLock) {
+                mJournalSize = map != null ? journalSize : 0;
+                mBaseFileSize = map != null ? stat.st_size : 0;
+            }
+        }
+
         synchronized (mLock) {
             mLoaded = true;
             mThrowable = thrown;
@@ -358,6 +397,10 @@ final class SharedPreferencesImpl implements SharedPreferences {
         @Nullable final List<String> keysModified;
         @Nullable final Set<OnSharedPreferenceChangeListener> listeners;
         final Map<String, Object> mapToWriteToDisk;
+        /** Whether this commit cleared the preferences, if it was journaled. */
+        final boolean journalClear;
+        /** Keys changed by this commit, mapped to null if removed, or null if not journaled. */
+        @Nullable final Map<String, Object> journalChanges;
         final CountDownLatch writtenToDiskLatch = new CountDownLatch(1);
 
         @GuardedBy("mWritingToDiskLock")
@@ -366,11 +409,14 @@ final class SharedPreferencesImpl implements SharedPreferences {
 
         private MemoryCommitResult(long memoryStateGeneration, @Nullable List<String> keysModified,
                 @Nullable Set<OnSharedPreferenceChangeListener> listeners,
-                Map<String, Object> mapToWriteToDisk) {
+                Map<String, Object> mapToWriteToDisk, boolean journalClear,
+                @Nullable Map<String, Object> journalChanges) {
             this.memoryStateGeneration = memoryStateGeneration;
             this.keysModified = keysModified;
             this.listeners = listeners;
             this.mapToWriteToDisk = mapToWriteToDisk;
+            this.journalClear = journalClear;
+            this.journalChanges = journalChanges;
         }
 
         void setDiskWriteResult(boolean wasWritten, boolean result) {
@@ -495,6 +541,8 @@ final class SharedPreferencesImpl implements SharedPreferences {
             List<String> keysModified = null;
             Set<OnSharedPreferenceChangeListener> listeners = null;
             Map<String, Object> mapToWriteToDisk;
+            boolean journalClear = false;
+            Map<String, Object> journalChanges = mUseJournal ? new HashMap<>() : null;
 
             synchronized (SharedPreferencesImpl.this.mLock) {
                 // We optimistically don't make a deep copy until
@@ -523,6 +571,7 @@ final class SharedPreferencesImpl implements SharedPreferences {
                         if (!mapToWriteToDisk.isEmpty()) {
                             changesMade = true;
                             mapToWriteToDisk.clear();
+                            journalClear = true;
                         }
                         mClear = false;
                     }
@@ -548,6 +597,9 @@ final class SharedPreferencesImpl implements SharedPreferences {
                             mapToWriteToDisk.put(k, v);
                         }
 
+                        if (journalChanges != null) {
+                            journalChanges.put(k, v == this ? null : v);
+                        }
                         changesMade = true;
                         if (hasListeners) {
                             keysModified.add(k);
@@ -564,7 +616,7 @@ final class SharedPreferencesImpl implements SharedPreferences {
                 }
             }
             return new MemoryCommitResult(memoryStateGeneration, keysModified, listeners,
-                    mapToWriteToDisk);
+                    mapToWriteToDisk, journalClear, journalChanges);
         }
 
         @Override
@@ -663,7 +715,7 @@ final class SharedPreferencesImpl implements SharedPreferences {
             }
         }
 
-        QueuedWork.queue(writeToDiskRunnable, !isFromSyncCommit);
+        QueuedWork.queue(writeToDiskRunnable, !isFromSyncCommit, mFile.getName());
     }
 
     private static FileOutputStream createFileOutputStream(File file) {
@@ -689,6 +741,48 @@ final class SharedPreferencesImpl implements SharedPreferences {
         return str;
     }
 
+    /**
+     * Appends the changes of a commit to the journal instead of rewriting the XML file.
+     *
+     * <p>Every commit has to be appended, since each record only holds its own changes, so
+     * unlike full writes intermediate states are not skipped.
+     *
+     * @return Whether the commit was handled; if not, the XML file must be rewritten, which
+     *     also covers everything that is in the journal.
+     */
+    @GuardedBy("mWritingToDiskLock")
+    private boolean writeToJournal(MemoryCommitResult mcr) {
+        if (!mUseJournal || mcr.journalChanges == null || mJournalSize == 0) {
+            return false;
+        }
+        if (mDiskStateGeneration >= mcr.memoryStateGeneration) {
+            mcr.setDiskWriteResult(false, true);
+            return true;
+        }
+        if (mJournalSize > Math.max(MIN_JOURNAL_COMPACTION_SIZE, mBaseFileSize)) {
+            // Compact: rewrite the XML file with the full map.
+            return false;
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final int written = SharedPreferencesJournal.append(mJournalFile, mcr.journalClear,
+                mcr.journalChanges);
+        if (written < 0) {
+            return false;
+        }
+        mJournalSize += written;
+        mDiskStateGeneration = mcr.memoryStateGeneration;
+        mcr.setDiskWriteResult(true, true);
+
+        final long syncDuration = System.currentTimeMillis() - startTime;
+        mSyncTimes.add((int) syncDuration);
+        mNumSync++;
+        if (DEBUG || mNumSync % 1024 == 0 || syncDuration > MAX_FSYNC_DURATION_MILLIS) {
+            mSyncTimes.log(TAG, "Time required to fsync " + mJournalFile + ": ");
+        }
+        return true;
+    }
+
     @GuardedBy("mWritingToDiskLock")
     private void writeToFile(MemoryCommitResult mcr, boolean isFromSyncCommit) {
         long startTime = 0;
@@ -707,6 +801,13 @@ final class SharedPreferencesImpl implements SharedPreferences {
 
         boolean fileExists = mFile.exists();
 
+        if (fileExists && writeToJournal(mcr)) {
+            return;
+        }
+        // Until the XML file is rewritten, further commits can't be journaled since this one
+        // might not be written.
+        mJournalSize = 0;
+
         if (DEBUG) {
             existsTime = System.currentTimeMillis();
 
@@ -785,8 +886,9 @@ final class SharedPreferencesImpl implements SharedPreferences {
                 setPermTime = System.currentTimeMillis();
             }
 
+            StructStat stat = null;
             try {
-                final StructStat stat = Os.stat(mFile.getPath());
+                stat = Os.stat(mFile.getPath());
                 synchronized (mLock) {
                     mStatTimestamp = stat.st_mtim;
                     mStatSize = stat.st_size;
@@ -802,6 +904,20 @@ final class SharedPreferencesImpl implements SharedPreferences {
             // Writing was successful, delete the backup file if there is one.
             mBackupFile.delete();
 
+            // The XML file now holds everything, so start an empty journal for it.
+            if (mUseJournal && stat != null) {
+                mJournalSize = SharedPreferencesJournal.reset(mJournalFile, stat);
+                if (mJournalSize > 0) {
+                    ContextImpl.setFilePermissionsFromMode(mJournalFile.getPath(), mMode, 0);
+                }
+                mBaseFileSize = stat.st_size;
+            } else {
+                if (mJournalSize > 0 || mJournalFile.exists()) {
+                    mJournalFile.delete();
+                }
+                mJournalSize = 0;
+            }
+
             if (DEBUG) {
                 deleteTime = System.currentTimeMillis();
             }
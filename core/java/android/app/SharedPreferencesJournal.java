@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import android.os.FileUtils;
+import android.system.StructStat;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of changes made to a {@link SharedPreferencesImpl} since its XML file was last
+ * written, so that a commit only writes the keys it changed.
+ *
+ * <p>The journal starts with a header identifying the XML file it applies to (by size and
+ * modification time), so a journal is ignored if the XML file was replaced by anything else,
+ * such as a restore.  Each commit then appends one record: its length, the changes and a CRC.
+ * A record cut short by a crash fails its CRC and ends replay there.
+ */
+final class SharedPreferencesJournal {
+    private static final String TAG = "SharedPreferencesImpl";
+
+    private static final int MAGIC = 0x53504a31; // "SPJ1"
+
+    /** Size of the header: magic, base file size and base file mtime. */
+    static final int HEADER_SIZE = 4 + 8 + 8 + 8;
+
+    private static final byte TYPE_REMOVE = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    private SharedPreferencesJournal() {}
+
+    static File makeJournalFile(File prefsFile) {
+        return new File(prefsFile.getPath() + ".journal");
+    }
+
+    /**
+     * Replaces the journal with an empty one that applies to an XML file with the given stat.
+     *
+     * @return The size of the new journal, or 0 if it could not be written.
+     */
+    static long reset(File journalFile, StructStat baseStat) {
+        try (FileOutputStream out = new FileOutputStream(journalFile)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putLong(baseStat.st_size);
+            header.putLong(baseStat.st_mtim.tv_sec);
+            header.putLong(baseStat.st_mtim.tv_nsec);
+            out.write(header.array());
+            FileUtils.sync(out);
+            return HEADER_SIZE;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't reset journal " + journalFile, e);
+            journalFile.delete();
+            return 0;
+        }
+    }
+
+    /**
+     * Appends one commit's changes to the journal.
+     *
+     * @param clear Whether the commit cleared the preferences before applying the changes.
+     * @param changes Changed keys, mapped to their new value or to null if removed.
+     * @return The number of bytes appended, or -1 if the journal could not be written.
+     */
+    static int append(File journalFile, boolean clear, Map<String, Object> changes) {
+        final byte[] record;
+        try {
+            record = encodeRecord(clear, changes);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't encode journal record", e);
+            return -1;
+        }
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write(record);
+            FileUtils.sync(out);
+            return record.length;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't append to journal " + journalFile, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Applies the changes in the journal to the map loaded from the XML file.
+     *
+     * @param baseStat Stat of the XML file the map was loaded from.
+     * @return The size of the valid part of the journal, which further records may be
+     *     appended after, or 0 if there is no journal for this XML file.
+     */
+    static long replay(File journalFile, StructStat baseStat, Map<String, Object> map) {
+        if (!journalFile.exists()) {
+            return 0;
+        }
+        try (FileInputStream in = new FileInputStream(journalFile);
+                FileChannel channel = in.getChannel()) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return 0;
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC
+                    || buffer.getLong() != baseStat.st_size
+                    || buffer.getLong() != baseStat.st_mtim.tv_sec
+                    || buffer.getLong() != baseStat.st_mtim.tv_nsec) {
+                // Written for a different version of the XML file.
+                return 0;
+            }
+
+            final CRC32 crc = new CRC32();
+            long validSize = buffer.position();
+            while (buffer.remaining() >= 4) {
+                final int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining() - 4) {
+                    break;
+                }
+                final ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                crc.reset();
+                crc.update(payload);
+                payload.rewind();
+                buffer.position(buffer.position() + length);
+                if ((int) crc.getValue() != buffer.getInt()) {
+                    break;
+                }
+                applyRecord(payload, map);
+                validSize = buffer.position();
+            }
+            if (validSize != size) {
+                Log.w(TAG, "Ignoring " + (size - validSize) + " trailing bytes of " + journalFile);
+            }
+            return validSize;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.w(TAG, "Couldn't replay journal " + journalFile, e);
+            return 0;
+        }
+    }
+
+    private static byte[] encodeRecord(boolean clear, Map<String, Object> changes)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length, filled in below
+        out.writeBoolean(clear);
+        out.writeInt(changes.size());
+        for (Map.Entry<String, Object> e : changes.entrySet()) {
+            writeString(out, e.getKey());
+            final Object v = e.getValue();
+            if (v == null) {
+                out.writeByte(TYPE_REMOVE);
+            } else if (v instanceof String) {
+                out.writeByte(TYPE_STRING);
+                writeString(out, (String) v);
+            } else if (v instanceof Integer) {
+                out.writeByte(TYPE_INT);
+                out.writeInt((Integer) v);
+            } else if (v instanceof Long) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) v);
+            } else if (v instanceof Float) {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat((Float) v);
+            } else if (v instanceof Boolean) {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeBoolean((Boolean) v);
+            } else if (v instanceof Set) {
+                out.writeByte(TYPE_STRING_SET);
+                final Set<?> set = (Set<?>) v;
+                out.writeInt(set.size());
+                for (Object item : set) {
+                    writeString(out, (String) item);
+                }
+            } else {
+                throw new IOException("Unsupported value type " + v.getClass());
+            }
+        }
+        out.writeInt(0); // crc, filled in below
+        out.flush();
+
+        final byte[] record = bytes.toByteArray();
+        final int length = record.length - 8;
+        final CRC32 crc = new CRC32();
+        crc.update(record, 4, length);
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putInt(0, length);
+        buffer.putInt(record.length - 4, (int) crc.getValue());
+        return record;
+    }
+
+    private static void applyRecord(ByteBuffer in, Map<String, Object> map) throws IOException {
+        if (in.get() != 0) {
+            map.clear();
+        }
+        final int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            final String key = readString(in);
+            final byte type = in.get();
+            switch (type) {
+                case TYPE_REMOVE:
+                    map.remove(key);
+                    break;
+                case TYPE_STRING:
+                    map.put(key, readString(in));
+                    break;
+                case TYPE_INT:
+                    map.put(key, in.getInt());
+                    break;
+                case TYPE_LONG:
+                    map.put(key, in.getLong());
+                    break;
+                case TYPE_FLOAT:
+                    map.put(key, in.getFloat());
+                    break;
+                case TYPE_BOOLEAN:
+                    map.put(key, in.get() != 0);
+                    break;
+                case TYPE_STRING_SET: {
+                    final int size = in.getInt();
+                    final HashSet<String> set = new HashSet<>();
+                    for (int j = 0; j < size; j++) {
+                        set.add(readString(in));
+                    }
+                    map.put(key, set);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown value type " + type);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        final int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1843,6 +1843,34 @@ public class AssistStructure implements Parcelable {
             return mAssist.mTmpRect;
         }
 
+        @Override
+        public Object getCachedNode() {
+            if (mAsync) {
+                return null;
+            }
+            final ViewNode[] children = mNode.mChildren;
+            if (children != null) {
+                for (ViewNode child : children) {
+                    // Virtual children are not backed by views, so nothing tells the view when
+                    // they change.
+                    if (child == null || (child.mAutofillId != null
+                            && child.mAutofillId.isVirtual())) {
+                        return null;
+                    }
+                }
+            }
+            return mNode;
+        }
+
+        @Override
+        public boolean setCachedChild(int index, Object node) {
+            if (!(node instanceof ViewNode)) {
+                return false;
+            }
+            mNode.mChildren[index] = (ViewNode) node;
+            return true;
+        }
+
         @Override
         public void setAutofillId(@NonNull AutofillId id) {
             mNode.mAutofillId = id;
@@ -76,6 +76,8 @@ public class AppWidgetHostView extends FrameLayout {
     int mViewMode = VIEW_MODE_NOINIT;
     int mLayoutId = -1;
     private OnClickHandler mOnClickHandler;
+    // The RemoteViews mView is the result of, so that a reapply only replays what changed.
+    private RemoteViews mAppliedRemoteViews;
 
     private Executor mAsyncExecutor;
     private CancellationSignal mLastExecutionSignal;
@@ -119,6 +121,10 @@ public class AppWidgetHostView extends FrameLayout {
      * @hide
      */
     public void setOnClickHandler(OnClickHandler handler) {
+        if (mOnClickHandler != handler) {
+            // The next update has to apply all actions again for them to use the new handler.
+            mAppliedRemoteViews = null;
+        }
         mOnClickHandler = handler;
     }
 
@@ -258,6 +264,7 @@ public class AppWidgetHostView extends FrameLayout {
                     child.getMeasuredHeight() + mPaddingTop + mPaddingBottom);
             mView = child;
             mViewMode = VIEW_MODE_ERROR;
+            mAppliedRemoteViews = null;
         }
     }
 
@@ -398,6 +405,7 @@ public class AppWidgetHostView extends FrameLayout {
             content = getDefaultView();
             mLayoutId = -1;
             mViewMode = VIEW_MODE_DEFAULT;
+            mAppliedRemoteViews = null;
         } else {
             if (mAsyncExecutor != null && useAsyncIfPossible) {
                 inflateAsync(remoteViews);
@@ -412,7 +420,7 @@ public class AppWidgetHostView extends FrameLayout {
             // layout matches, try recycling it
             if (content == null && layoutId == mLayoutId) {
                 try {
-                    remoteViews.reapply(mContext, mView, mOnClickHandler);
+                    remoteViews.reapply(mContext, mView, mOnClickHandler, mAppliedRemoteViews);
                     content = mView;
                     recycled = true;
                     if (LOGD) Log.d(TAG, "was able to recycle existing layout");
@@ -433,6 +441,7 @@ public class AppWidgetHostView extends FrameLayout {
 
             mLayoutId = layoutId;
             mViewMode = VIEW_MODE_CONTENT;
+            mAppliedRemoteViews = content != null ? remoteViews : null;
         }
 
         applyContent(content, recycled, exception);
@@ -449,6 +458,7 @@ public class AppWidgetHostView extends FrameLayout {
             }
             content = getErrorView();
             mViewMode = VIEW_MODE_ERROR;
+            mAppliedRemoteViews = null;
         }
 
         if (!recycled) {
@@ -476,7 +486,8 @@ public class AppWidgetHostView extends FrameLayout {
                         mView,
                         mAsyncExecutor,
                         new ViewApplyListener(remoteViews, layoutId, true),
-                        mOnClickHandler);
+                        mOnClickHandler,
+                        mAppliedRemoteViews);
             } catch (Exception e) {
                 // Reapply failed. Try apply
             }
@@ -505,6 +516,7 @@ public class AppWidgetHostView extends FrameLayout {
         public void onViewApplied(View v) {
             AppWidgetHostView.this.mLayoutId = mLayoutId;
             mViewMode = VIEW_MODE_CONTENT;
+            mAppliedRemoteViews = mViews;
 
             applyContent(v, mIsReapply, null);
         }
@@ -512,6 +524,8 @@ public class AppWidgetHostView extends FrameLayout {
         @Override
         public void onError(Exception e) {
             if (mIsReapply) {
+                // Some actions may have been applied to mView already.
+                mAppliedRemoteViews = null;
                 // Try a fresh replay
                 mLastExecutionSignal = mViews.applyAsync(mContext,
                         AppWidgetHostView.this,
@@ -222,6 +222,20 @@ public abstract class Context {
      */
     public static final int MODE_NO_LOCALIZED_COLLATORS = 0x0010;
 
+    /**
+     * SharedPreference loading flag: when set, commits append the changed keys to a journal
+     * next to the XML file instead of rewriting it, and the journal is folded back into the
+     * XML file once it grows large.  Ignored with {@link #MODE_MULTI_PROCESS}, since other
+     * processes only read the XML file.
+     *
+     * <p>File-level backup of the XML file, as done by
+     * {@link android.app.backup.SharedPreferencesBackupHelper}, does not include changes that
+     * are still in the journal.
+     *
+     * @hide
+     */
+    public static final int MODE_JOURNALED_PREFERENCES = 0x0020;
+
     /** @hide */
     @IntDef(flag = true, prefix = { "BIND_" }, value = {
             BIND_AUTO_CREATE,
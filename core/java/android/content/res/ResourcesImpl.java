@@ -47,10 +47,12 @@ import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.LongSparseArray;
 import android.util.Slog;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.util.Xml;
 import android.view.DisplayAdjustments;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.util.GrowingArrayUtils;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -60,6 +62,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The implementation of Resource access. This class contains the AssetManager and all caches
@@ -121,6 +124,17 @@ public class ResourcesImpl {
     private final ConfigurationBoundResourceCache<StateListAnimator> mStateListAnimatorCache =
             new ConfigurationBoundResourceCache<>();
 
+    // Incremented whenever the AssetManager's configuration changes, which invalidates the
+    // attribute values cached by themes.
+    private volatile int mConfigurationGeneration;
+
+    /** Number of attribute sets each theme caches the resolved values of. */
+    private static final int MAX_RESOLVED_ATTRIBUTES = 32;
+
+    // Hit and miss counts of the themes' resolved attribute caches.
+    private static final AtomicInteger sResolvedAttributesHitCount = new AtomicInteger();
+    private static final AtomicInteger sResolvedAttributesMissCount = new AtomicInteger();
+
     // A stack of all the resourceIds already referenced when parsing a resource. This is used to
     // detect circular references in the xml.
     // Using a ThreadLocal variable ensures that we have different stacks for multiple parallel
@@ -343,6 +357,36 @@ public class ResourcesImpl {
         return mStateListAnimatorCache;
     }
 
+    /**
+     * @return The approximate number of lookups in the drawable caches that found an entry.
+     */
+    public int getDrawableCacheHitCount() {
+        return mDrawableCache.getHitCount() + mColorDrawableCache.getHitCount();
+    }
+
+    /**
+     * @return The approximate number of lookups in the drawable caches that found no entry.
+     */
+    public int getDrawableCacheMissCount() {
+        return mDrawableCache.getMissCount() + mColorDrawableCache.getMissCount();
+    }
+
+    /**
+     * @return The number of {@link Resources.Theme#obtainStyledAttributes} calls without an
+     *     AttributeSet, across all themes, that were answered from the theme's cache.
+     */
+    public static int getResolvedAttributesHitCount() {
+        return sResolvedAttributesHitCount.get();
+    }
+
+    /**
+     * @return The number of {@link Resources.Theme#obtainStyledAttributes} calls without an
+     *     AttributeSet, across all themes, that had to be resolved.
+     */
+    public static int getResolvedAttributesMissCount() {
+        return sResolvedAttributesMissCount.get();
+    }
+
     public void updateConfiguration(Configuration config, DisplayMetrics metrics,
                                     CompatibilityInfo compat) {
         Trace.traceBegin(Trace.TRACE_TAG_RESOURCES, "ResourcesImpl#updateConfiguration");
@@ -444,6 +488,7 @@ public class ResourcesImpl {
                         mConfiguration.screenWidthDp, mConfiguration.screenHeightDp,
                         mConfiguration.screenLayout, mConfiguration.uiMode,
                         mConfiguration.colorMode, Build.VERSION.RESOURCES_SDK_INT);
+                mConfigurationGeneration++;
 
                 if (DEBUG_CONFIG) {
                     Slog.i(TAG, "**** Updating config of " + this + ": final config is "
@@ -1277,6 +1322,14 @@ public class ResourcesImpl {
          */
         private int mThemeResId = 0;
 
+        /**
+         * Values resolved by {@link #obtainStyledAttributes} without an AttributeSet, by the
+         * hash of the contents of the attrs array. Callers may reuse one array for different
+         * attributes, so entries also hold a copy of the array they were resolved for.
+         */
+        @GuardedBy("mKey")
+        private final SparseArray<ResolvedAttributes> mResolvedAttributes = new SparseArray<>();
+
         /*package*/ ThemeImpl() {
             mAssets = ResourcesImpl.this.mAssets;
             mTheme = mAssets.createTheme();
@@ -1305,6 +1358,7 @@ public class ResourcesImpl {
                 mAssets.applyStyleToTheme(mTheme, resId, force);
                 mThemeResId = resId;
                 mKey.append(resId, force);
+                mResolvedAttributes.clear();
             }
         }
 
@@ -1315,6 +1369,7 @@ public class ResourcesImpl {
 
                     mThemeResId = other.mThemeResId;
                     mKey.setTo(other.getKey());
+                    mResolvedAttributes.clear();
                 }
             }
         }
@@ -1329,6 +1384,23 @@ public class ResourcesImpl {
                 final int len = attrs.length;
                 final TypedArray array = TypedArray.obtain(wrapper.getResources(), len);
 
+                // Without an AttributeSet the values only depend on the theme, the default
+                // style and the configuration, so they can be reused.
+                final int generation = mConfigurationGeneration;
+                final int attrsHash = set == null ? Arrays.hashCode(attrs) : 0;
+                if (set == null) {
+                    final ResolvedAttributes resolved = mResolvedAttributes.get(attrsHash);
+                    if (resolved != null && resolved.matches(attrs, defStyleAttr, defStyleRes,
+                            generation)) {
+                        sResolvedAttributesHitCount.incrementAndGet();
+                        resolved.copyTo(array);
+                        array.mTheme = wrapper;
+                        array.mXml = null;
+                        return array;
+                    }
+                    sResolvedAttributesMissCount.incrementAndGet();
+                }
+
                 // XXX note that for now we only work with compiled XML files.
                 // To support generic XML files we will need to manually parse
                 // out the attributes from the XML file (applying type information
@@ -1338,6 +1410,14 @@ public class ResourcesImpl {
                         array.mDataAddress, array.mIndicesAddress);
                 array.mTheme = wrapper;
                 array.mXml = parser;
+
+                if (set == null) {
+                    if (mResolvedAttributes.size() >= MAX_RESOLVED_ATTRIBUTES) {
+                        mResolvedAttributes.clear();
+                    }
+                    mResolvedAttributes.put(attrsHash, new ResolvedAttributes(attrs,
+                            defStyleAttr, defStyleRes, generation, array));
+                }
                 return array;
             }
         }
@@ -1411,6 +1491,7 @@ public class ResourcesImpl {
         void rebase() {
             synchronized (mKey) {
                 AssetManager.nativeThemeClear(mTheme);
+                mResolvedAttributes.clear();
 
                 // Reapply the same styles in the same order.
                 for (int i = 0; i < mKey.mCount; i++) {
@@ -1422,6 +1503,39 @@ public class ResourcesImpl {
         }
     }
 
+    /**
+     * Copy of the values {@link ThemeImpl#obtainStyledAttributes} resolved into a TypedArray.
+     */
+    private static final class ResolvedAttributes {
+        private final int[] mAttrs;
+        private final int mDefStyleAttr;
+        private final int mDefStyleRes;
+        private final int mGeneration;
+        private final int[] mData;
+        private final int[] mIndices;
+
+        ResolvedAttributes(int[] attrs, int defStyleAttr, int defStyleRes, int generation,
+                TypedArray array) {
+            mAttrs = attrs.clone();
+            mDefStyleAttr = defStyleAttr;
+            mDefStyleRes = defStyleRes;
+            mGeneration = generation;
+            mData = Arrays.copyOf(array.mData, array.mLength * TypedArray.STYLE_NUM_ENTRIES);
+            // The first index is the number of indices that follow.
+            mIndices = Arrays.copyOf(array.mIndices, array.mIndices[0] + 1);
+        }
+
+        boolean matches(int[] attrs, int defStyleAttr, int defStyleRes, int generation) {
+            return mDefStyleAttr == defStyleAttr && mDefStyleRes == defStyleRes
+                    && mGeneration == generation && Arrays.equals(mAttrs, attrs);
+        }
+
+        void copyTo(TypedArray array) {
+            System.arraycopy(mData, 0, array.mData, 0, mData.length);
+            System.arraycopy(mIndices, 0, array.mIndices, 0, mIndices.length);
+        }
+    }
+
     private static class LookupStack {
 
         // Pick a reasonable default size for the array, it is grown as needed.
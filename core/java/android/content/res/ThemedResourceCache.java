@@ -29,12 +29,34 @@ import java.lang.ref.WeakReference;
 /**
  * Data structure used for caching data against themes.
  *
+ * <p>Lookups are lock-free: the cached entries are published as an immutable snapshot, which
+ * writers replace under the lock with an updated copy. Entries are only added after a cache
+ * miss, which costs far more than the copy, so this trades slower writes for reads that never
+ * contend, e.g. when several threads inflate layouts at once.
+ *
  * @param <T> type of data to cache
  */
 abstract class ThemedResourceCache<T> {
-    private ArrayMap<ThemeKey, LongSparseArray<WeakReference<T>>> mThemedEntries;
-    private LongSparseArray<WeakReference<T>> mUnthemedEntries;
-    private LongSparseArray<WeakReference<T>> mNullThemedEntries;
+    /** Immutable once published to {@link #mSnapshot}. */
+    private static final class Snapshot<T> {
+        final ArrayMap<ThemeKey, LongSparseArray<WeakReference<T>>> themedEntries;
+        final LongSparseArray<WeakReference<T>> unthemedEntries;
+        final LongSparseArray<WeakReference<T>> nullThemedEntries;
+
+        Snapshot(ArrayMap<ThemeKey, LongSparseArray<WeakReference<T>>> themedEntries,
+                LongSparseArray<WeakReference<T>> unthemedEntries,
+                LongSparseArray<WeakReference<T>> nullThemedEntries) {
+            this.themedEntries = themedEntries;
+            this.unthemedEntries = unthemedEntries;
+            this.nullThemedEntries = nullThemedEntries;
+        }
+    }
+
+    private volatile Snapshot<T> mSnapshot = new Snapshot<>(null, null, null);
+
+    // Only updated by readers without synchronization, so may undercount.
+    private int mHitCount;
+    private int mMissCount;
 
     /**
      * Adds a new theme-dependent entry to the cache.
@@ -64,18 +86,40 @@ abstract class ThemedResourceCache<T> {
         }
 
         synchronized (this) {
-            final LongSparseArray<WeakReference<T>> entries;
+            final Snapshot<T> snapshot = mSnapshot;
+            ArrayMap<ThemeKey, LongSparseArray<WeakReference<T>>> themedEntries =
+                    snapshot.themedEntries;
+            LongSparseArray<WeakReference<T>> unthemedEntries = snapshot.unthemedEntries;
+            LongSparseArray<WeakReference<T>> nullThemedEntries = snapshot.nullThemedEntries;
+
             if (!usesTheme) {
-                entries = getUnthemedLocked(true);
+                unthemedEntries = copyWith(unthemedEntries, key, entry);
+            } else if (theme == null) {
+                nullThemedEntries = copyWith(nullThemedEntries, key, entry);
             } else {
-                entries = getThemedLocked(theme, true);
-            }
-            if (entries != null) {
-                entries.put(key, new WeakReference<>(entry));
+                final ThemeKey themeKey = theme.getKey();
+                themedEntries = themedEntries != null
+                        ? new ArrayMap<>(themedEntries) : new ArrayMap<>(1);
+                final int index = themedEntries.indexOfKey(themeKey);
+                if (index >= 0) {
+                    themedEntries.setValueAt(index,
+                            copyWith(themedEntries.valueAt(index), key, entry));
+                } else {
+                    themedEntries.put(themeKey.clone(), copyWith(null, key, entry));
+                }
             }
+            mSnapshot = new Snapshot<>(themedEntries, unthemedEntries, nullThemedEntries);
         }
     }
 
+    private static <T> LongSparseArray<WeakReference<T>> copyWith(
+            @Nullable LongSparseArray<WeakReference<T>> entries, long key, @NonNull T entry) {
+        final LongSparseArray<WeakReference<T>> copy =
+                entries != null ? entries.clone() : new LongSparseArray<>(1);
+        copy.put(key, new WeakReference<>(entry));
+        return copy;
+    }
+
     /**
      * Returns an entry from the cache.
      *
@@ -89,27 +133,53 @@ abstract class ThemedResourceCache<T> {
         // exclusive, so we'll give priority to whichever one we think we'll
         // hit first. Since most of the framework drawables are themed, that's
         // probably going to be the themed cache.
-        synchronized (this) {
-            final LongSparseArray<WeakReference<T>> themedEntries = getThemedLocked(theme, false);
-            if (themedEntries != null) {
-                final WeakReference<T> themedEntry = themedEntries.get(key);
-                if (themedEntry != null) {
-                    return themedEntry.get();
-                }
+        final Snapshot<T> snapshot = mSnapshot;
+        final LongSparseArray<WeakReference<T>> themedEntries;
+        if (theme == null) {
+            themedEntries = snapshot.nullThemedEntries;
+        } else if (snapshot.themedEntries != null) {
+            themedEntries = snapshot.themedEntries.get(theme.getKey());
+        } else {
+            themedEntries = null;
+        }
+        if (themedEntries != null) {
+            final WeakReference<T> themedEntry = themedEntries.get(key);
+            if (themedEntry != null) {
+                return countLookup(themedEntry.get());
             }
+        }
 
-            final LongSparseArray<WeakReference<T>> unthemedEntries = getUnthemedLocked(false);
-            if (unthemedEntries != null) {
-                final WeakReference<T> unthemedEntry = unthemedEntries.get(key);
-                if (unthemedEntry != null) {
-                    return unthemedEntry.get();
-                }
+        final LongSparseArray<WeakReference<T>> unthemedEntries = snapshot.unthemedEntries;
+        if (unthemedEntries != null) {
+            final WeakReference<T> unthemedEntry = unthemedEntries.get(key);
+            if (unthemedEntry != null) {
+                return countLookup(unthemedEntry.get());
             }
         }
 
+        mMissCount++;
         return null;
     }
 
+    private T countLookup(@Nullable T entry) {
+        if (entry != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return entry;
+    }
+
+    /** @return The approximate number of lookups that found an entry. */
+    int getHitCount() {
+        return mHitCount;
+    }
+
+    /** @return The approximate number of lookups that found no entry. */
+    int getMissCount() {
+        return mMissCount;
+    }
+
     /**
      * Prunes cache entries that have been invalidated by a configuration
      * change.
@@ -130,61 +200,6 @@ abstract class ThemedResourceCache<T> {
      */
     protected abstract boolean shouldInvalidateEntry(@NonNull T entry, int configChanges);
 
-    /**
-     * Returns the cached data for the specified theme, optionally creating a
-     * new entry if one does not already exist.
-     *
-     * @param t the theme for which to return cached data
-     * @param create {@code true} to create an entry if one does not already
-     *               exist, {@code false} otherwise
-     * @return the cached data for the theme, or {@code null} if the cache is
-     *         empty and {@code create} was {@code false}
-     */
-    @Nullable
-    private LongSparseArray<WeakReference<T>> getThemedLocked(@Nullable Theme t, boolean create) {
-        if (t == null) {
-            if (mNullThemedEntries == null && create) {
-                mNullThemedEntries = new LongSparseArray<>(1);
-            }
-            return mNullThemedEntries;
-        }
-
-        if (mThemedEntries == null) {
-            if (create) {
-                mThemedEntries = new ArrayMap<>(1);
-            } else {
-                return null;
-            }
-        }
-
-        final ThemeKey key = t.getKey();
-        LongSparseArray<WeakReference<T>> cache = mThemedEntries.get(key);
-        if (cache == null && create) {
-            cache = new LongSparseArray<>(1);
-
-            final ThemeKey keyClone = key.clone();
-            mThemedEntries.put(keyClone, cache);
-        }
-
-        return cache;
-    }
-
-    /**
-     * Returns the theme-agnostic cached data.
-     *
-     * @param create {@code true} to create an entry if one does not already
-     *               exist, {@code false} otherwise
-     * @return the theme-agnostic cached data, or {@code null} if the cache is
-     *         empty and {@code create} was {@code false}
-     */
-    @Nullable
-    private LongSparseArray<WeakReference<T>> getUnthemedLocked(boolean create) {
-        if (mUnthemedEntries == null && create) {
-            mUnthemedEntries = new LongSparseArray<>(1);
-        }
-        return mUnthemedEntries;
-    }
-
     /**
      * Prunes cache entries affected by configuration changes or where weak
      * references have expired.
@@ -195,36 +210,53 @@ abstract class ThemedResourceCache<T> {
      */
     private boolean prune(@Config int configChanges) {
         synchronized (this) {
-            if (mThemedEntries != null) {
-                for (int i = mThemedEntries.size() - 1; i >= 0; i--) {
-                    if (pruneEntriesLocked(mThemedEntries.valueAt(i), configChanges)) {
-                        mThemedEntries.removeAt(i);
+            final Snapshot<T> snapshot = mSnapshot;
+            ArrayMap<ThemeKey, LongSparseArray<WeakReference<T>>> themedEntries = null;
+            if (snapshot.themedEntries != null) {
+                themedEntries = new ArrayMap<>(snapshot.themedEntries.size());
+                for (int i = 0; i < snapshot.themedEntries.size(); i++) {
+                    final LongSparseArray<WeakReference<T>> entries =
+                            prunedCopy(snapshot.themedEntries.valueAt(i), configChanges);
+                    if (entries != null) {
+                        themedEntries.put(snapshot.themedEntries.keyAt(i), entries);
                     }
                 }
+                if (themedEntries.isEmpty()) {
+                    themedEntries = null;
+                }
             }
 
-            pruneEntriesLocked(mNullThemedEntries, configChanges);
-            pruneEntriesLocked(mUnthemedEntries, configChanges);
+            final LongSparseArray<WeakReference<T>> nullThemedEntries =
+                    prunedCopy(snapshot.nullThemedEntries, configChanges);
+            final LongSparseArray<WeakReference<T>> unthemedEntries =
+                    prunedCopy(snapshot.unthemedEntries, configChanges);
+            mSnapshot = new Snapshot<>(themedEntries, unthemedEntries, nullThemedEntries);
 
-            return mThemedEntries == null && mNullThemedEntries == null
-                    && mUnthemedEntries == null;
+            return themedEntries == null && nullThemedEntries == null
+                    && unthemedEntries == null;
         }
     }
 
-    private boolean pruneEntriesLocked(@Nullable LongSparseArray<WeakReference<T>> entries,
-            @Config int configChanges) {
+    /**
+     * @return A copy of {@code entries} without the pruned entries, or {@code null} if none are
+     *     left.
+     */
+    @Nullable
+    private LongSparseArray<WeakReference<T>> prunedCopy(
+            @Nullable LongSparseArray<WeakReference<T>> entries, @Config int configChanges) {
         if (entries == null) {
-            return true;
+            return null;
         }
 
-        for (int i = entries.size() - 1; i >= 0; i--) {
-            final WeakReference<T> ref = entries.valueAt(i);
+        final LongSparseArray<WeakReference<T>> copy = entries.clone();
+        for (int i = copy.size() - 1; i >= 0; i--) {
+            final WeakReference<T> ref = copy.valueAt(i);
             if (ref == null || pruneEntryLocked(ref.get(), configChanges)) {
-                entries.removeAt(i);
+                copy.removeAt(i);
             }
         }
 
-        return entries.size() == 0;
+        return copy.size() != 0 ? copy : null;
     }
 
     private boolean pruneEntryLocked(@Nullable T entry, @Config int configChanges) {
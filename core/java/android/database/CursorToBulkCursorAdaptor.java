@@ -16,6 +16,7 @@
 
 package android.database;
 
+import android.database.sqlite.SQLiteCursor;
 import android.net.Uri;
 import android.os.*;
 
@@ -52,6 +53,20 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
      */
     private CursorWindow mFilledWindow;
 
+    /**
+     * The underlying SQLiteCursor when its windows can be filled forward-only, or null.
+     */
+    private final SQLiteCursor mSQLiteCursor;
+
+    /**
+     * The position just past the last window handed out, or -1.  A request for this position
+     * means the client is scanning forward through the results.
+     */
+    private int mNextWindowPosition = -1;
+
+    /** Whether forward-only filling was turned on by this adaptor. */
+    private boolean mFillingForwardOnly;
+
     private static final class ContentObserverProxy extends ContentObserver {
         protected IContentObserver mRemote;
 
@@ -92,6 +107,7 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
         } else {
             mCursor = new CrossProcessCursorWrapper(cursor);
         }
+        mSQLiteCursor = getSQLiteCursor(mCursor);
         mProviderName = providerName;
 
         synchronized (mLock) {
@@ -99,6 +115,38 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
         }
     }
 
+    private static SQLiteCursor getSQLiteCursor(CrossProcessCursor cursor) {
+        // The cursor may have been wrapped in a CrossProcessCursorWrapper above, which keeps
+        // the positions of the cursor it wraps.  Other wrappers may remap positions, so the
+        // fill mode of a cursor they wrap is left alone.
+        Cursor c = cursor;
+        if (c.getClass() == CrossProcessCursorWrapper.class) {
+            c = ((CrossProcessCursorWrapper) c).getWrappedCursor();
+        }
+        return c instanceof SQLiteCursor ? (SQLiteCursor) c : null;
+    }
+
+    /**
+     * Fills the next window from the requested row, instead of re-sending rows before it, when
+     * the client is scanning forward.  Otherwise restores the default fill mode if it was changed
+     * here.
+     */
+    private void updateFillModeLocked(int position) {
+        if (mSQLiteCursor == null) {
+            return;
+        }
+        final boolean forwardOnly = position == mNextWindowPosition;
+        if (forwardOnly != mFillingForwardOnly) {
+            mSQLiteCursor.setFillWindowForwardOnly(forwardOnly);
+            mFillingForwardOnly = forwardOnly;
+        }
+    }
+
+    private void noteWindowLocked(CursorWindow window) {
+        mNextWindowPosition = window != null
+                ? window.getStartPosition() + window.getNumRows() : -1;
+    }
+
     private void closeFilledWindowLocked() {
         if (mFilledWindow != null) {
             mFilledWindow.close();
@@ -144,6 +192,7 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
             d.wantsAllOnMoveCalls = mCursor.getWantsAllOnMoveCalls();
             d.count = mCursor.getCount();
             d.window = mCursor.getWindow();
+            noteWindowLocked(d.window);
             if (d.window != null) {
                 // Acquire a reference to the window because its reference count will be
                 // decremented when it is returned as part of the binder call reply parcel.
@@ -158,8 +207,10 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
         synchronized (mLock) {
             throwIfCursorIsClosed();
 
+            updateFillModeLocked(position);
             if (!mCursor.moveToPosition(position)) {
                 closeFilledWindowLocked();
+                mNextWindowPosition = -1;
                 return null;
             }
 
@@ -177,6 +228,7 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
                 }
                 mCursor.fillWindow(position, window);
             }
+            noteWindowLocked(window);
 
             if (window != null) {
                 // Acquire a reference to the window because its reference count will be
@@ -221,6 +273,7 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
             throwIfCursorIsClosed();
 
             closeFilledWindowLocked();
+            mNextWindowPosition = -1;
 
             try {
                 if (!mCursor.requery()) {
@@ -69,6 +69,10 @@ public class CursorWindow extends SQLiteClosable implements Parcelable {
     private static native void nativeCopyStringToBuffer(long windowPtr, int row, int column,
             CharArrayBuffer buffer);
     private static native boolean nativePutBlob(long windowPtr, byte[] value, int row, int column);
+    private static native void nativeGetLongColumn(long windowPtr, int startRow, int column,
+            long[] dst, int dstOffset, int count);
+    private static native void nativeGetDoubleColumn(long windowPtr, int startRow, int column,
+            double[] dst, int dstOffset, int count);
     private static native boolean nativePutString(long windowPtr, String value,
             int row, int column);
 
@@ -573,6 +577,61 @@ public class CursorWindow extends SQLiteClosable implements Parcelable {
         }
     }
 
+    /**
+     * Copies the values of a column for a range of rows into an array, converting each field
+     * as {@link #getLong} does.  This reads the whole range in one call, which is much cheaper
+     * than calling {@link #getLong} for each row when scanning many rows.
+     *
+     * @param startRow The zero-based index of the first row to copy.
+     * @param column The zero-based column index.
+     * @param dst The array to copy the values into.
+     * @param dstOffset The index in {@code dst} of the value for {@code startRow}.
+     * @param count The number of rows to copy.
+     * @throws ArrayIndexOutOfBoundsException if the range does not fit in {@code dst}.
+     * @hide
+     */
+    public void getLongColumn(int startRow, int column, long[] dst, int dstOffset, int count) {
+        checkColumnRange(dst.length, dstOffset, count);
+        acquireReference();
+        try {
+            nativeGetLongColumn(mWindowPtr, startRow - mStartPos, column, dst, dstOffset, count);
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Copies the values of a column for a range of rows into an array, converting each field
+     * as {@link #getDouble} does.  This reads the whole range in one call, which is much
+     * cheaper than calling {@link #getDouble} for each row when scanning many rows.
+     *
+     * @param startRow The zero-based index of the first row to copy.
+     * @param column The zero-based column index.
+     * @param dst The array to copy the values into.
+     * @param dstOffset The index in {@code dst} of the value for {@code startRow}.
+     * @param count The number of rows to copy.
+     * @throws ArrayIndexOutOfBoundsException if the range does not fit in {@code dst}.
+     * @hide
+     */
+    public void getDoubleColumn(int startRow, int column, double[] dst, int dstOffset,
+            int count) {
+        checkColumnRange(dst.length, dstOffset, count);
+        acquireReference();
+        try {
+            nativeGetDoubleColumn(mWindowPtr, startRow - mStartPos, column, dst, dstOffset,
+                    count);
+        } finally {
+            releaseReference();
+        }
+    }
+
+    private static void checkColumnRange(int length, int offset, int count) {
+        if ((offset | count) < 0 || offset > length - count) {
+            throw new ArrayIndexOutOfBoundsException("length=" + length + "; offset=" + offset
+                    + "; count=" + count);
+        }
+    }
+
     /**
      * Gets the value of the field at the specified row and column index as a
      * <code>short</code>.
@@ -36,6 +36,7 @@ import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 
@@ -94,6 +95,12 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
     private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
 
+    // Number of cache lookups between checks of whether the prepared statement cache is
+    // thrashing, and the share of those lookups that must have missed on a statement the cache
+    // evicted earlier for the cache to be grown.
+    private static final int STATEMENT_CACHE_ADAPT_INTERVAL = 256;
+    private static final int STATEMENT_CACHE_ADAPT_REPREPARE_DIVISOR = 8;
+
     private final CloseGuard mCloseGuard = CloseGuard.get();
 
     private final SQLiteConnectionPool mPool;
@@ -104,6 +111,20 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private final PreparedStatementCache mPreparedStatementCache;
     private PreparedStatement mPreparedStatementPool;
 
+    // Prepared statement cache statistics.  Only written by the thread that owns the
+    // connection; read without synchronization for diagnostics.
+    private int mStatementCacheHits;
+    private int mStatementCacheMisses;
+    private long mStatementPrepareTimeNanos;
+    private int mStatementCacheLookupsSinceAdapt;
+    private int mStatementCacheRepreparesSinceAdapt;
+
+    // Hashes of the SQL of the most recently evicted statements, so that misses re-preparing
+    // an evicted statement can be told apart from misses on SQL that was never cached.
+    private final int[] mEvictedSqlHashes = new int[SQLiteDatabase.MAX_SQL_CACHE_SIZE];
+    private int mEvictedSqlHashCount;
+    private int mEvictedSqlHashNext;
+
     // The recent operations log.
     private final OperationLog mRecentOperations;
 
@@ -466,12 +487,17 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
                 & (SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING
                 | SQLiteDatabase.DISABLE_COMPATIBILITY_WAL)) != 0;
         boolean localeChanged = !configuration.locale.equals(mConfiguration.locale);
+        boolean cacheSizeChanged =
+                configuration.maxSqlCacheSize != mConfiguration.maxSqlCacheSize;
 
         // Update configuration parameters.
         mConfiguration.updateParametersFrom(configuration);
 
-        // Update prepared statement cache size.
-        mPreparedStatementCache.resize(configuration.maxSqlCacheSize);
+        // Update prepared statement cache size.  An explicitly set size replaces any growth
+        // applied by noteStatementCacheLookup().
+        if (cacheSizeChanged) {
+            mPreparedStatementCache.resize(configuration.maxSqlCacheSize);
+        }
 
         // Update foreign key mode.
         if (foreignKeyModeChanged) {
@@ -499,9 +525,48 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     // Called by SQLiteConnectionPool only.
     // Returns true if the prepared statement cache contains the specified SQL.
     boolean isPreparedStatementInCache(String sql) {
+        // The cache's own hit and miss counts are not used, so the probe may go through get().
         return mPreparedStatementCache.get(sql) != null;
     }
 
+    // Called by SQLiteConnectionPool only, possibly while another thread owns this connection.
+    // Returns the SQL of up to maxCount read-only statements in the prepared statement cache,
+    // most recently used last.  At worst the result is slightly stale.
+    ArrayList<String> getCachedReadOnlySqlUnsafe(int maxCount) {
+        final ArrayList<String> result = new ArrayList<>();
+        for (Map.Entry<String, PreparedStatement> entry
+                : mPreparedStatementCache.snapshot().entrySet()) {
+            if (entry.getValue().mReadOnly) {
+                result.add(entry.getKey());
+            }
+        }
+        if (result.size() > maxCount) {
+            result.subList(0, result.size() - maxCount).clear();
+        }
+        return result;
+    }
+
+    // Called by SQLiteConnectionPool only.
+    // Prepares and caches the specified statements so that the first queries on a new
+    // connection do not all miss the cache.  Statements that fail to prepare are skipped.
+    void prewarmPreparedStatements(List<String> sqls) {
+        final int count = sqls.size();
+        for (int i = 0; i < count
+                && mPreparedStatementCache.size() < mPreparedStatementCache.maxSize(); i++) {
+            try {
+                final PreparedStatement statement = prepareStatement(sqls.get(i), true);
+                if (!statement.mInCache) {
+                    finalizePreparedStatement(statement);
+                }
+            } catch (SQLiteException ex) {
+                if (DEBUG) {
+                    Log.d(TAG, "Could not pre-warm statement: "
+                            + trimSqlForDisplay(sqls.get(i)), ex);
+                }
+            }
+        }
+    }
+
     /**
      * Gets the unique id of this connection.
      * @return The connection id.
@@ -930,6 +995,8 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         boolean skipCache = false;
         if (statement != null) {
             if (!statement.mInUse) {
+                mStatementCacheHits += 1;
+                noteStatementCacheLookup(false /* reprepare */);
                 return statement;
             }
             // The statement is already in the cache but is in use (this statement appears
@@ -937,14 +1004,24 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             // statement but do not cache it.
             skipCache = true;
         }
+        mStatementCacheMisses += 1;
+        noteStatementCacheLookup(!skipCache && wasRecentlyEvicted(sql));
+
+        statement = prepareStatement(sql, !skipCache);
+        statement.mInUse = true;
+        return statement;
+    }
 
+    private PreparedStatement prepareStatement(String sql, boolean addToCache) {
+        final long startTime = System.nanoTime();
         final long statementPtr = nativePrepareStatement(mConnectionPtr, sql);
+        PreparedStatement statement = null;
         try {
             final int numParameters = nativeGetParameterCount(mConnectionPtr, statementPtr);
             final int type = DatabaseUtils.getSqlStatementType(sql);
             final boolean readOnly = nativeIsReadOnly(mConnectionPtr, statementPtr);
             statement = obtainPreparedStatement(sql, statementPtr, numParameters, type, readOnly);
-            if (!skipCache && isCacheable(type)) {
+            if (addToCache && isCacheable(type)) {
                 mPreparedStatementCache.put(sql, statement);
                 statement.mInCache = true;
             }
@@ -955,11 +1032,63 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
                 nativeFinalizeStatement(mConnectionPtr, statementPtr);
             }
             throw ex;
+        } finally {
+            mStatementPrepareTimeNanos += System.nanoTime() - startTime;
         }
-        statement.mInUse = true;
         return statement;
     }
 
+    /**
+     * Counts a lookup in the prepared statement cache, and every
+     * {@link #STATEMENT_CACHE_ADAPT_INTERVAL} lookups doubles the cache, up to
+     * {@link SQLiteDatabase#MAX_SQL_CACHE_SIZE}, when a large share of them missed on a
+     * statement the cache evicted before.  That means the working set of statements does not
+     * fit and is being re-prepared over and over; misses on SQL that is only run once do not
+     * grow the cache.
+     *
+     * @param reprepare Whether the lookup missed on a recently evicted statement.
+     */
+    private void noteStatementCacheLookup(boolean reprepare) {
+        if (reprepare) {
+            mStatementCacheRepreparesSinceAdapt += 1;
+        }
+        mStatementCacheLookupsSinceAdapt += 1;
+        if (mStatementCacheLookupsSinceAdapt < STATEMENT_CACHE_ADAPT_INTERVAL) {
+            return;
+        }
+        final int maxSize = mPreparedStatementCache.maxSize();
+        if (mStatementCacheRepreparesSinceAdapt * STATEMENT_CACHE_ADAPT_REPREPARE_DIVISOR
+                >= mStatementCacheLookupsSinceAdapt
+                && maxSize < SQLiteDatabase.MAX_SQL_CACHE_SIZE) {
+            final int newSize = Math.min(maxSize * 2, SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+            if (DEBUG) {
+                Log.d(TAG, "Growing prepared statement cache of " + mConfiguration.label
+                        + " to " + newSize);
+            }
+            mPreparedStatementCache.resize(newSize);
+        }
+        mStatementCacheLookupsSinceAdapt = 0;
+        mStatementCacheRepreparesSinceAdapt = 0;
+    }
+
+    private void noteStatementEvicted(String sql) {
+        mEvictedSqlHashes[mEvictedSqlHashNext] = sql.hashCode();
+        mEvictedSqlHashNext = (mEvictedSqlHashNext + 1) % mEvictedSqlHashes.length;
+        if (mEvictedSqlHashCount < mEvictedSqlHashes.length) {
+            mEvictedSqlHashCount += 1;
+        }
+    }
+
+    private boolean wasRecentlyEvicted(String sql) {
+        final int hash = sql.hashCode();
+        for (int i = 0; i < mEvictedSqlHashCount; i++) {
+            if (mEvictedSqlHashes[i] == hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void releasePreparedStatement(PreparedStatement statement) {
         statement.mInUse = false;
         if (statement.mInCache) {
@@ -1129,6 +1258,13 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         printer.println("  isPrimaryConnection: " + mIsPrimaryConnection);
         printer.println("  onlyAllowReadOnlyOperations: " + mOnlyAllowReadOnlyOperations);
 
+        printer.println("  Prepared statement cache stats: hits=" + mStatementCacheHits
+                + ", misses=" + mStatementCacheMisses
+                + ", evictions=" + mPreparedStatementCache.evictionCount()
+                + ", size=" + mPreparedStatementCache.size()
+                + "/" + mPreparedStatementCache.maxSize()
+                + ", prepareTime=" + (mStatementPrepareTimeNanos / 1000000) + "ms");
+
         mRecentOperations.dump(printer, verbose);
 
         if (verbose) {
@@ -1213,15 +1349,16 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     }
 
     private DbStats getMainDbStatsUnsafe(int lookaside, long pageCount, long pageSize) {
-        // The prepared statement cache is thread-safe so we can access its statistics
-        // even if we do not own the database connection.
+        // The prepared statement cache is thread-safe and the hit and miss counts are plain
+        // ints, so we can access the statistics even if we do not own the database connection.
+        // At worst they are slightly stale.
         String label = mConfiguration.path;
         if (!mIsPrimaryConnection) {
             label += " (" + mConnectionId + ")";
         }
         return new DbStats(label, pageCount, pageSize, lookaside,
-                mPreparedStatementCache.hitCount(),
-                mPreparedStatementCache.missCount(),
+                mStatementCacheHits,
+                mStatementCacheMisses,
                 mPreparedStatementCache.size());
     }
 
@@ -1312,6 +1449,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         protected void entryRemoved(boolean evicted, String key,
                 PreparedStatement oldValue, PreparedStatement newValue) {
             oldValue.mInCache = false;
+            if (evicted) {
+                noteStatementEvicted(key);
+            }
             if (!oldValue.mInUse) {
                 finalizePreparedStatement(oldValue);
             }
@@ -986,10 +986,32 @@ public final class SQLiteConnectionPool implements Closeable {
         }
         connection = openConnectionLocked(mConfiguration,
                 false /*primaryConnection*/); // might throw
+        if (SQLiteGlobal.isWALStatementPrewarmEnabled()) {
+            prewarmConnectionLocked(connection);
+        }
         finishAcquireConnectionLocked(connection, connectionFlags); // might throw
         return connection;
     }
 
+    // Fills the statement cache of a new non-primary connection with the read-only
+    // statements most recently used on the primary connection, which are likely to be
+    // the next ones run on this connection.
+    private void prewarmConnectionLocked(SQLiteConnection connection) {
+        SQLiteConnection primary = mAvailablePrimaryConnection;
+        if (primary == null) {
+            for (SQLiteConnection acquired : mAcquiredConnections.keySet()) {
+                if (acquired.isPrimaryConnection()) {
+                    primary = acquired;
+                    break;
+                }
+            }
+        }
+        if (primary != null) {
+            connection.prewarmPreparedStatements(
+                    primary.getCachedReadOnlySqlUnsafe(mConfiguration.maxSqlCacheSize));
+        }
+    }
+
     // Might throw.
     @GuardedBy("mLock")
     private void finishAcquireConnectionLocked(SQLiteConnection connection, int connectionFlags) {
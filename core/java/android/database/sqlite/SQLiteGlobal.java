@@ -154,6 +154,14 @@ public final class SQLiteGlobal {
         return Math.max(2, value);
     }
 
+    /**
+     * Whether new non-primary connections in WAL mode prepare the read-only statements cached
+     * by the primary connection when they are opened.
+     */
+    public static boolean isWALStatementPrewarmEnabled() {
+        return SystemProperties.getBoolean("debug.sqlite.wal.prewarm_statements", false);
+    }
+
     /**
      * The default number of milliseconds that SQLite connection is allowed to be idle before it
      * is closed and removed from the pool.
@@ -22,6 +22,7 @@ import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.text.style.ParagraphStyle;
 import android.text.style.ReplacementSpan;
 import android.text.style.UpdateLayout;
 import android.text.style.WrapTogetherSpan;
@@ -46,6 +47,12 @@ public class DynamicLayout extends Layout {
     private static final int PRIORITY = 128;
     private static final int BLOCK_MINIMUM_CHARACTER_LENGTH = 400;
 
+    /**
+     * Number of lines after an edit that {@link #reflowAroundEdit} lays out before it gives up
+     * on finding a line break that did not move.
+     */
+    private static final int REFLOW_LOOKAHEAD_LINES = 8;
+
     /**
      * Builder for dynamic layouts. The builder is the preferred pattern for constructing
      * DynamicLayout objects and should be preferred over the constructors, particularly to access
@@ -502,6 +509,10 @@ public class DynamicLayout extends Layout {
         CharSequence text = mDisplay;
         int len = text.length();
 
+        final int editStart = where;
+        final int editBefore = before;
+        final int editAfter = after;
+
         // seek back to the start of the paragraph
 
         int find = TextUtils.lastIndexOf(text, '\n', where - 1);
@@ -593,7 +604,33 @@ public class DynamicLayout extends Layout {
             b = StaticLayout.Builder.obtain(text, where, where + after, getPaint(), getWidth());
         }
 
-        b.setText(text, where, where + after)
+        if (!reflowAroundEdit(reflowed, b, text, where, where + after, startline, endline,
+                editStart, editBefore, editAfter)) {
+            setUpReflowBuilder(b, text, where, where + after, islast);
+
+            reflowed.generate(b, false /*includepad*/, true /*trackpad*/);
+            int n = reflowed.getLineCount();
+            // If the new layout has a blank line at the end, but it is not
+            // the very end of the buffer, then we already have a line that
+            // starts there, so disregard the blank line.
+
+            if (where + after != len && reflowed.getLineStart(n - 1) == where + after)
+                n--;
+
+            replaceLines(reflowed, n, startline, endline, startv, endv, where + after,
+                    after - before, islast);
+        }
+
+        b.finish();
+        synchronized (sLock) {
+            sStaticLayout = reflowed;
+            sBuilder = b;
+        }
+    }
+
+    private void setUpReflowBuilder(StaticLayout.Builder b, CharSequence text, int start,
+            int end, boolean islast) {
+        b.setText(text, start, end)
                 .setPaint(getPaint())
                 .setWidth(getWidth())
                 .setTextDirection(getTextDirectionHeuristic())
@@ -605,15 +642,156 @@ public class DynamicLayout extends Layout {
                 .setHyphenationFrequency(mHyphenationFrequency)
                 .setJustificationMode(mJustificationMode)
                 .setAddLastLineLineSpacing(!islast);
+    }
+
+    /**
+     * Lays out only the lines around an edit instead of its whole paragraph, which matters for
+     * long paragraphs. With greedy line breaking, a line's breaks only depend on where it starts,
+     * so lines before the one preceding the edit keep their breaks, and once a new line starts
+     * where an old line did (shifted by the edit), all the following lines are unchanged too.
+     *
+     * @param paraStart start of the paragraphs containing the edit, in the new text
+     * @param paraEnd end of the paragraphs containing the edit, in the new text
+     * @param startline first line of the paragraphs
+     * @param endline line after the paragraphs
+     * @return whether the lines were updated; if not, the whole paragraph must be reflowed
+     */
+    private boolean reflowAroundEdit(StaticLayout reflowed, StaticLayout.Builder b,
+            CharSequence text, int paraStart, int paraEnd, int startline, int endline,
+            int editStart, int editBefore, int editAfter) {
+        // Other strategies break the paragraph as a whole, hyphenation can change the start of
+        // the next line, and justification and ellipsis depend on the last line.
+        if (mBreakStrategy != BREAK_STRATEGY_SIMPLE
+                || mHyphenationFrequency != HYPHENATION_FREQUENCY_NONE
+                || mJustificationMode != JUSTIFICATION_MODE_NONE || mEllipsize) {
+            return false;
+        }
+
+        final int len = text.length();
+        final int delta = editAfter - editBefore;
+        final int firstLine = Math.max(startline, getLineForOffset(editStart) - 1);
+        final int editEndLine = getLineForOffset(editStart + editBefore);
+        final int windowEndLine = Math.min(editEndLine + REFLOW_LOOKAHEAD_LINES, endline);
+        final int windowEnd = windowEndLine == endline
+                ? paraEnd : getLineStart(windowEndLine) + delta;
+        if (firstLine == startline && windowEnd == paraEnd) {
+            // That is the whole paragraph.
+            return false;
+        }
 
+        // Leading margins and line heights depend on the line's position in the paragraph.
+        if (text instanceof Spanned && ((Spanned) text).getSpans(paraStart, paraEnd,
+                ParagraphStyle.class).length > 0) {
+            return false;
+        }
+        // Bidi depends on the whole paragraph; only handle left-to-right paragraphs whose
+        // direction does not depend on text outside of the lines laid out.
+        if (getParagraphDirection(firstLine) != DIR_LEFT_TO_RIGHT) {
+            return false;
+        }
+        final TextDirectionHeuristic textDir = getTextDirectionHeuristic();
+        if (textDir != TextDirectionHeuristics.LTR
+                && (textDir != TextDirectionHeuristics.FIRSTSTRONG_LTR
+                        || !isFirstStrongLtr(text, paraStart, windowEnd))) {
+            return false;
+        }
+
+        // The line before the first one laid out keeps its break as long as the word following
+        // it is not edited; that word could otherwise now fit on it.
+        final int layoutStart = getLineStart(firstLine);
+        if (firstLine != startline && !containsWhitespace(text, layoutStart, editStart)) {
+            return false;
+        }
+
+        setUpReflowBuilder(b, text, layoutStart, windowEnd, windowEnd == len);
         reflowed.generate(b, false /*includepad*/, true /*trackpad*/);
-        int n = reflowed.getLineCount();
-        // If the new layout has a blank line at the end, but it is not
-        // the very end of the buffer, then we already have a line that
-        // starts there, so disregard the blank line.
+        final int n = reflowed.getLineCount();
+
+        int newLineCount = -1;
+        int oldEndLine = -1;
+        if (windowEnd == paraEnd) {
+            newLineCount = n;
+            oldEndLine = endline;
+            // Same as for the whole paragraph, disregard a blank line the next paragraph has.
+            if (paraEnd != len && reflowed.getLineStart(n - 1) == paraEnd) {
+                newLineCount--;
+            }
+        } else {
+            // The last line ends where the window was cut, so it is only usable up to the
+            // start of a line that did not move.
+            int oldLine = firstLine + 1;
+            for (int i = 1; i < n; i++) {
+                final int start = reflowed.getLineStart(i);
+                if (start < editStart + editAfter) {
+                    continue;
+                }
+                final int oldStart = start - delta;
+                while (oldLine < windowEndLine && getLineStart(oldLine) < oldStart) {
+                    oldLine++;
+                }
+                if (oldLine < windowEndLine && getLineStart(oldLine) == oldStart) {
+                    newLineCount = i;
+                    oldEndLine = oldLine;
+                    break;
+                }
+            }
+            if (newLineCount < 0) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < newLineCount; i++) {
+            if (reflowed.getLineDirections(i) != DIRS_ALL_LEFT_TO_RIGHT) {
+                return false;
+            }
+        }
+
+        final int regionEnd = newLineCount < n ? reflowed.getLineStart(newLineCount) : paraEnd;
+        replaceLines(reflowed, newLineCount, firstLine, oldEndLine, getLineTop(firstLine),
+                getLineTop(oldEndLine), regionEnd, delta, oldEndLine == getLineCount());
+        return true;
+    }
+
+    private static boolean containsWhitespace(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        if (where + after != len && reflowed.getLineStart(n - 1) == where + after)
-            n--;
+    /**
+     * @return whether the first strong directional character in the range is left-to-right
+     */
+    private static boolean isFirstStrongLtr(CharSequence text, int start, int end) {
+        for (int i = start; i < end; ) {
+            final int cp = Character.codePointAt(text, i);
+            switch (Character.getDirectionality(cp)) {
+                case Character.DIRECTIONALITY_LEFT_TO_RIGHT:
+                    return true;
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT:
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT_ARABIC:
+                    return false;
+            }
+            i += Character.charCount(cp);
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the old lines [{@code startline}, {@code endline}) with the first {@code n} lines
+     * of {@code reflowed}, and shifts the lines after them.
+     *
+     * @param startv top of {@code startline}
+     * @param endv top of {@code endline}
+     * @param regionEnd end of the replaced text, in the new text
+     * @param delta change in length of the text
+     * @param islast whether the replaced lines are at the end of the text
+     */
+    private void replaceLines(StaticLayout reflowed, int n, int startline, int endline,
+            int startv, int endv, int regionEnd, int delta, boolean islast) {
+        final CharSequence text = mDisplay;
 
         // remove affected lines from old layout
         mInts.deleteAt(startline, endline - startline);
@@ -635,7 +813,7 @@ public class DynamicLayout extends Layout {
             ht += botpad;
         }
 
-        mInts.adjustValuesBelow(startline, START, after - before);
+        mInts.adjustValuesBelow(startline, START, delta);
         mInts.adjustValuesBelow(startline, TOP, startv - endv + ht);
 
         // insert new layout
@@ -670,7 +848,7 @@ public class DynamicLayout extends Layout {
             ints[EXTRA] = reflowed.getLineExtra(i);
             objects[0] = reflowed.getLineDirections(i);
 
-            final int end = (i == n - 1) ? where + after : reflowed.getLineStart(i + 1);
+            final int end = (i == n - 1) ? regionEnd : reflowed.getLineStart(i + 1);
             ints[HYPHEN] = reflowed.getHyphen(i) & HYPHEN_MASK;
             ints[MAY_PROTRUDE_FROM_TOP_OR_BOTTOM] |=
                     contentMayProtrudeFromLineTopOrBottom(text, start, end) ?
@@ -686,12 +864,6 @@ public class DynamicLayout extends Layout {
         }
 
         updateBlocks(startline, endline - 1, n);
-
-        b.finish();
-        synchronized (sLock) {
-            sStaticLayout = reflowed;
-            sBuilder = b;
-        }
     }
 
     private boolean contentMayProtrudeFromLineTopOrBottom(CharSequence text, int start, int end) {
@@ -147,9 +147,11 @@ public class MeasuredParagraph {
         }
     }
 
-    // Following two objects are for avoiding object allocation.
+    // Following objects are for avoiding object allocation.
     private @NonNull TextPaint mCachedPaint = new TextPaint();
     private @Nullable Paint.FontMetricsInt mCachedFm;
+    private @NonNull SpanSet<MetricAffectingSpan> mMetricAffectingSpans =
+            new SpanSet<>(MetricAffectingSpan.class);
 
     /**
      * Releases internal buffers.
@@ -173,6 +175,7 @@ public class MeasuredParagraph {
         mWidths.clear();
         mFontMetrics.clear();
         mSpanEndCache.clear();
+        mMetricAffectingSpans.recycle();
         unbindNativeObject();
     }
 
@@ -367,14 +370,12 @@ public class MeasuredParagraph {
                     paint, null /* spans */, start, end, 0 /* native static layout ptr */);
         } else {
             // There may be a MetricsAffectingSpan. Split into span transitions and apply styles.
+            mt.mMetricAffectingSpans.init(mt.mSpanned, start, end);
             int spanEnd;
             for (int spanStart = start; spanStart < end; spanStart = spanEnd) {
                 spanEnd = mt.mSpanned.nextSpanTransition(spanStart, end, MetricAffectingSpan.class);
-                MetricAffectingSpan[] spans = mt.mSpanned.getSpans(spanStart, spanEnd,
-                        MetricAffectingSpan.class);
-                spans = TextUtils.removeEmptySpans(spans, mt.mSpanned, MetricAffectingSpan.class);
-                mt.applyMetricsAffectingSpan(
-                        paint, spans, spanStart, spanEnd, 0 /* native static layout ptr */);
+                mt.applyMetricsAffectingSpan(paint, mt.mMetricAffectingSpans, spanStart, spanEnd,
+                        0 /* native static layout ptr */);
             }
         }
         return mt;
@@ -428,17 +429,15 @@ public class MeasuredParagraph {
                 mt.mSpanEndCache.append(end);
             } else {
                 // There may be a MetricsAffectingSpan. Split into span transitions and apply
-                // styles.
+                // styles. The spans of the whole paragraph are collected once and filtered per
+                // transition, instead of querying the text for every transition.
+                mt.mMetricAffectingSpans.init(mt.mSpanned, start, end);
                 int spanEnd;
                 for (int spanStart = start; spanStart < end; spanStart = spanEnd) {
                     spanEnd = mt.mSpanned.nextSpanTransition(spanStart, end,
                                                              MetricAffectingSpan.class);
-                    MetricAffectingSpan[] spans = mt.mSpanned.getSpans(spanStart, spanEnd,
-                            MetricAffectingSpan.class);
-                    spans = TextUtils.removeEmptySpans(spans, mt.mSpanned,
-                                                       MetricAffectingSpan.class);
-                    mt.applyMetricsAffectingSpan(paint, spans, spanStart, spanEnd,
-                                                 nativeBuilderPtr);
+                    mt.applyMetricsAffectingSpan(paint, mt.mMetricAffectingSpans, spanStart,
+                                                 spanEnd, nativeBuilderPtr);
                     mt.mSpanEndCache.append(spanEnd);
                 }
             }
@@ -579,7 +578,7 @@ public class MeasuredParagraph {
 
     private void applyMetricsAffectingSpan(
             @NonNull TextPaint paint,
-            @Nullable MetricAffectingSpan[] spans,
+            @Nullable SpanSet<MetricAffectingSpan> spans,  // non-empty spans covering start-end
             @IntRange(from = 0) int start,  // inclusive, in original text buffer
             @IntRange(from = 0) int end,  // exclusive, in original text buffer
             /* Maybe Zero */ long nativeBuilderPtr) {
@@ -595,8 +594,10 @@ public class MeasuredParagraph {
 
         ReplacementSpan replacement = null;
         if (spans != null) {
-            for (int i = 0; i < spans.length; i++) {
-                MetricAffectingSpan span = spans[i];
+            for (int i = 0; i < spans.numberOfSpans; i++) {
+                // Skip the spans that don't overlap this transition, as getSpans() would.
+                if (spans.spanStarts[i] >= end || spans.spanEnds[i] <= start) continue;
+                MetricAffectingSpan span = spans.spans[i];
                 if (span instanceof ReplacementSpan) {
                     // The last ReplacementSpan is effective for backward compatibility reasons.
                     replacement = (ReplacementSpan) span;
@@ -21,12 +21,20 @@ import android.annotation.IntRange;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.graphics.Rect;
+import android.os.Process;
+import android.os.SystemProperties;
 import android.text.style.MetricAffectingSpan;
+import android.util.IntArray;
 
 import com.android.internal.util.Preconditions;
 
-import java.util.ArrayList;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A text which has the character metrics data.
@@ -72,6 +80,15 @@ import java.util.Objects;
 public class PrecomputedText implements Spannable {
     private static final char LINE_FEED = '\n';
 
+    // Text at least this long with several paragraphs has its paragraphs measured in parallel.
+    private static final int PARALLEL_MEASUREMENT_MIN_LENGTH = 4096;
+    private static final boolean PARALLEL_MEASUREMENT_ENABLED =
+            SystemProperties.getBoolean("debug.text.parallel_measurement", true);
+    private static final int PARALLEL_MEASUREMENT_THREADS =
+            Math.min(Runtime.getRuntime().availableProcessors() - 1, 3);
+
+    private static ThreadPoolExecutor sMeasurementExecutor;
+
     /**
      * The information required for building {@link PrecomputedText}.
      *
@@ -330,13 +347,12 @@ public class PrecomputedText implements Spannable {
     public static ParagraphInfo[] createMeasuredParagraphs(
             @NonNull CharSequence text, @NonNull Params params,
             @IntRange(from = 0) int start, @IntRange(from = 0) int end, boolean computeLayout) {
-        ArrayList<ParagraphInfo> result = new ArrayList<>();
-
         Preconditions.checkNotNull(text);
         Preconditions.checkNotNull(params);
         final boolean needHyphenation = params.getBreakStrategy() != Layout.BREAK_STRATEGY_SIMPLE
                 && params.getHyphenationFrequency() != Layout.HYPHENATION_FREQUENCY_NONE;
 
+        final IntArray paraEnds = new IntArray();
         int paraEnd = 0;
         for (int paraStart = start; paraStart < end; paraStart = paraEnd) {
             paraEnd = TextUtils.indexOf(text, LINE_FEED, paraStart, end);
@@ -347,12 +363,125 @@ public class PrecomputedText implements Spannable {
             } else {
                 paraEnd++;  // Includes LINE_FEED(U+000A) to the prev paragraph.
             }
+            paraEnds.add(paraEnd);
+        }
 
-            result.add(new ParagraphInfo(paraEnd, MeasuredParagraph.buildForStaticLayout(
+        final ParagraphInfo[] result = new ParagraphInfo[paraEnds.size()];
+        if (canMeasureInParallel(text, start, end, result.length)) {
+            measureParagraphsInParallel(text, params, start, end, paraEnds, needHyphenation,
+                    computeLayout, result);
+        } else {
+            measureParagraphs(text, params, start, paraEnds, 0, result.length, needHyphenation,
+                    computeLayout, result);
+        }
+        return result;
+    }
+
+    /**
+     * Measures the paragraphs with indices in [{@code from}, {@code to}) into {@code result}.
+     */
+    private static void measureParagraphs(@NonNull CharSequence text, @NonNull Params params,
+            int start, @NonNull IntArray paraEnds, int from, int to, boolean needHyphenation,
+            boolean computeLayout, @NonNull ParagraphInfo[] result) {
+        for (int i = from; i < to; i++) {
+            final int paraStart = i == 0 ? start : paraEnds.get(i - 1);
+            final int paraEnd = paraEnds.get(i);
+            result[i] = new ParagraphInfo(paraEnd, MeasuredParagraph.buildForStaticLayout(
                     params.getTextPaint(), text, paraStart, paraEnd, params.getTextDirection(),
-                    needHyphenation, computeLayout, null /* no recycle */)));
+                    needHyphenation, computeLayout, null /* no recycle */));
+        }
+    }
+
+    /**
+     * Paragraphs are measured independently, but {@link MetricAffectingSpan}s run app code on
+     * each measurement, which may not be thread safe. So only long text without such spans is
+     * measured in parallel.
+     */
+    private static boolean canMeasureInParallel(@NonNull CharSequence text, int start, int end,
+            int paragraphCount) {
+        if (!PARALLEL_MEASUREMENT_ENABLED || PARALLEL_MEASUREMENT_THREADS < 1
+                || paragraphCount < 2 || end - start < PARALLEL_MEASUREMENT_MIN_LENGTH) {
+            return false;
+        }
+        // The measurement threads only read the text, which is safe for SpannableStringBuilder
+        // as long as it is not modified meanwhile.
+        return !(text instanceof Spanned)
+                || ((Spanned) text).nextSpanTransition(start, end, MetricAffectingSpan.class)
+                        >= end;
+    }
+
+    /**
+     * Splits the paragraphs into runs of about the same length, and measures one on the calling
+     * thread while the others are measured on the measurement threads.
+     */
+    private static void measureParagraphsInParallel(@NonNull CharSequence text,
+            @NonNull Params params, int start, int end, @NonNull IntArray paraEnds,
+            boolean needHyphenation, boolean computeLayout, @NonNull ParagraphInfo[] result) {
+        final int count = paraEnds.size();
+        final int chunks = Math.min(count, PARALLEL_MEASUREMENT_THREADS + 1);
+        final int[] bounds = new int[chunks + 1];
+        int para = 0;
+        for (int i = 1; i < chunks; i++) {
+            final int target = start + (int) ((long) (end - start) * i / chunks);
+            while (para < count && paraEnds.get(para) <= target) {
+                para++;
+            }
+            bounds[i] = para;
+        }
+        bounds[chunks] = count;
+
+        final ThreadPoolExecutor executor = getMeasurementExecutor();
+        final Future<?>[] futures = new Future<?>[chunks];
+        for (int i = 1; i < chunks; i++) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            if (from < to) {
+                futures[i] = executor.submit(() -> measureParagraphs(text, params, start,
+                        paraEnds, from, to, needHyphenation, computeLayout, result));
+            }
+        }
+        measureParagraphs(text, params, start, paraEnds, 0, bounds[1], needHyphenation,
+                computeLayout, result);
+
+        boolean interrupted = false;
+        for (int i = 1; i < chunks; i++) {
+            if (futures[i] == null) {
+                continue;
+            }
+            while (true) {
+                try {
+                    futures[i].get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getMeasurementExecutor() {
+        if (sMeasurementExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger(1);
+            sMeasurementExecutor = new ThreadPoolExecutor(PARALLEL_MEASUREMENT_THREADS,
+                    PARALLEL_MEASUREMENT_THREADS, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    r -> new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                        r.run();
+                    }, "TextMeasurement #" + threadCount.getAndIncrement()));
+            sMeasurementExecutor.allowCoreThreadTimeOut(true);
         }
-        return result.toArray(new ParagraphInfo[result.size()]);
+        return sMeasurementExecutor;
     }
 
     // Use PrecomputedText.create instead.
@@ -28,7 +28,7 @@ import java.util.Arrays;
  * Note that empty spans are ignored by this class.
  * @hide
  */
-public class SpanSet<E> {
+public class SpanSet<E> implements SpannableStringBuilder.SpanVisitor<E> {
     private final Class<? extends E> classType;
 
     int numberOfSpans;
@@ -44,6 +44,17 @@ public class SpanSet<E> {
 
     @SuppressWarnings("unchecked")
     public void init(Spanned spanned, int start, int limit) {
+        if (spanned instanceof SpannableStringBuilder) {
+            // Visit the spans in place rather than copying them out and looking up each bound.
+            final int prevNumberOfSpans = numberOfSpans;
+            numberOfSpans = 0;
+            ((SpannableStringBuilder) spanned).forEachSpan(start, limit, classType, this);
+            if (numberOfSpans < prevNumberOfSpans) {
+                Arrays.fill(spans, numberOfSpans, prevNumberOfSpans, null);
+            }
+            return;
+        }
+
         final E[] allSpans = spanned.getSpans(start, limit, classType);
         final int length = allSpans.length;
 
@@ -81,6 +92,39 @@ public class SpanSet<E> {
         }
     }
 
+    /**
+     * Adds a span found by {@link SpannableStringBuilder#forEachSpan}.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onSpan(E span, int spanStart, int spanEnd, int spanFlag) {
+        if (spanStart == spanEnd) return;
+
+        if (spans == null || spans.length == numberOfSpans) {
+            final int size = numberOfSpans == 0 ? 4 : numberOfSpans * 2;
+            final E[] newSpans = (E[]) Array.newInstance(classType, size);
+            final int[] newStarts = new int[size];
+            final int[] newEnds = new int[size];
+            final int[] newFlags = new int[size];
+            if (numberOfSpans > 0) {
+                System.arraycopy(spans, 0, newSpans, 0, numberOfSpans);
+                System.arraycopy(spanStarts, 0, newStarts, 0, numberOfSpans);
+                System.arraycopy(spanEnds, 0, newEnds, 0, numberOfSpans);
+                System.arraycopy(spanFlags, 0, newFlags, 0, numberOfSpans);
+            }
+            spans = newSpans;
+            spanStarts = newStarts;
+            spanEnds = newEnds;
+            spanFlags = newFlags;
+        }
+
+        spans[numberOfSpans] = span;
+        spanStarts[numberOfSpans] = spanStart;
+        spanEnds[numberOfSpans] = spanEnd;
+        spanFlags[numberOfSpans] = spanFlag;
+        numberOfSpans++;
+    }
+
     /**
      * Returns true if there are spans intersecting the given interval.
      * @param end must be strictly greater than start
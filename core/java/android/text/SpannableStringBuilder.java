@@ -16,6 +16,7 @@
 
 package android.text;
 
+import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.graphics.BaseCanvas;
 import android.graphics.Paint;
@@ -28,6 +29,7 @@ import com.android.internal.util.GrowingArrayUtils;
 import libcore.util.EmptyArray;
 
 import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.IdentityHashMap;
 
 /**
@@ -36,6 +38,22 @@ import java.util.IdentityHashMap;
 public class SpannableStringBuilder implements CharSequence, GetChars, Spannable, Editable,
         Appendable, GraphicsOperations {
     private final static String TAG = "SpannableStringBuilder";
+
+    /**
+     * Receives the spans found by {@link SpannableStringBuilder#forEachSpan}.
+     *
+     * @hide
+     */
+    public interface SpanVisitor<T> {
+        /**
+         * @param span The span.
+         * @param start Start of the span in the buffer.
+         * @param end End of the span in the buffer.
+         * @param flags Flags of the span.
+         */
+        void onSpan(T span, int start, int end, int flags);
+    }
+
     /**
      * Create a new SpannableStringBuilder with empty contents
      */
@@ -260,6 +278,7 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         if (mIndexOfSpan != null) {
             mIndexOfSpan.clear();
         }
+        mSpanClasses = EmptyArray.CLASS;
         mSpanInsertCount = 0;
     }
 
@@ -491,6 +510,11 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         mSpanCount--;
 
         invalidateIndex(i);
+        // The classes of removed spans are kept until the buffer has no spans left, so
+        // mSpanClasses may hold classes no span has any more.
+        if (mSpanCount == 0) {
+            mSpanClasses = EmptyArray.CLASS;
+        }
         mSpans[mSpanCount] = null;
 
         // Invariants must be restored before sending span removed notifications.
@@ -760,6 +784,7 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         mSpanFlags = GrowingArrayUtils.append(mSpanFlags, mSpanCount, flags);
         mSpanOrder = GrowingArrayUtils.append(mSpanOrder, mSpanCount, mSpanInsertCount);
         invalidateIndex(mSpanCount);
+        addSpanClass(what.getClass());
         mSpanCount++;
         mSpanInsertCount++;
         // Make sure there is enough room for empty interior nodes.
@@ -776,6 +801,52 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         }
     }
 
+    /**
+     * Marks each range {@code starts[i]} to {@code ends[i]} with {@code what[i]} and
+     * {@code flags[i]}, as if by calling {@link #setSpan} for each of them, but restores the
+     * span tree once for the whole batch instead of after every span.  SpanWatchers are notified
+     * once all of the spans are set.
+     *
+     * <p>{@code what} must not contain the same span twice.
+     *
+     * @hide
+     */
+    public void setSpans(@NonNull Object[] what, @NonNull int[] starts, @NonNull int[] ends,
+            @NonNull int[] flags) {
+        final int count = what.length;
+        if (starts.length != count || ends.length != count || flags.length != count) {
+            throw new IllegalArgumentException("setSpans: arrays must have the same length");
+        }
+        if (count == 0) return;
+
+        final int[] oldStarts = new int[count];
+        final int[] oldEnds = new int[count];
+        for (int i = 0; i < count; i++) {
+            oldStarts[i] = getSpanStart(what[i]);
+            oldEnds[i] = getSpanEnd(what[i]);
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                setSpan(false, what[i], starts[i], ends[i], flags[i], true/*enforceParagraph*/);
+            }
+        } finally {
+            restoreInvariants();
+        }
+        for (int i = 0; i < count; i++) {
+            final int start = getSpanStart(what[i]);
+            if (start < 0) {
+                // Ignored, see setSpan.
+                continue;
+            }
+            final int end = getSpanEnd(what[i]);
+            if (oldStarts[i] < 0) {
+                sendSpanAdded(what[i], start, end);
+            } else {
+                sendSpanChanged(what[i], oldStarts[i], oldEnds[i], start, end);
+            }
+        }
+    }
+
     private boolean isInvalidParagraph(int index, int flag) {
         return flag == PARAGRAPH && index != 0 && index != length() && charAt(index - 1) != '\n';
     }
@@ -864,7 +935,7 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
     public <T> T[] getSpans(int queryStart, int queryEnd, @Nullable Class<T> kind,
             boolean sortByInsertionOrder) {
         if (kind == null) return (T[]) ArrayUtils.emptyArray(Object.class);
-        if (mSpanCount == 0) return ArrayUtils.emptyArray(kind);
+        if (!containsSpansOfType(kind)) return ArrayUtils.emptyArray(kind);
         int count = countSpans(queryStart, queryEnd, kind, treeRoot());
         if (count == 0) {
             return ArrayUtils.emptyArray(kind);
@@ -884,6 +955,68 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         return ret;
     }
 
+    /**
+     * Calls the visitor with each span of the specified type that overlaps the specified range
+     * of the buffer, in the order {@link #getSpans} returns them.  Unlike getSpans this allocates
+     * no array, and passes each span's bounds and flags without a lookup per span.
+     *
+     * <p>The buffer must not be modified from the visitor.
+     *
+     * @hide
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void forEachSpan(int queryStart, int queryEnd, @NonNull Class<T> kind,
+            @NonNull SpanVisitor<? super T> visitor) {
+        if (!containsSpansOfType(kind)) return;
+        final int count = countSpans(queryStart, queryEnd, kind, treeRoot());
+        if (count == 0) return;
+
+        final int[] indices = obtain(count);
+        try {
+            collectSpanIndices(queryStart, queryEnd, kind, treeRoot(), indices, 0);
+            sortSpanIndices(indices, count);
+            for (int j = 0; j < count; j++) {
+                final int i = indices[j];
+                visitor.onSpan((T) mSpans[i], resolveGap(mSpanStarts[i]),
+                        resolveGap(mSpanEnds[i]), mSpanFlags[i]);
+            }
+        } finally {
+            recycle(indices);
+        }
+    }
+
+    /**
+     * Returns whether any span may be an instance of the specified type, so that queries for
+     * types the buffer does not contain, such as MetricAffectingSpan in text with only color
+     * spans, skip the tree walk.  Only reads state, so it is safe to call from several threads
+     * while the buffer is not being modified.
+     */
+    private boolean containsSpansOfType(Class<?> kind) {
+        if (mSpanCount == 0) return false;
+        if (kind == Object.class) return true;
+        final Class<?>[] classes = mSpanClasses;
+        for (int i = 0; i < classes.length; i++) {
+            if (kind.isAssignableFrom(classes[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Call this whenever a span is added. The array is replaced rather than modified, so
+    // readers never see it change.
+    private void addSpanClass(Class<?> spanClass) {
+        final Class<?>[] classes = mSpanClasses;
+        for (int i = 0; i < classes.length; i++) {
+            if (classes[i] == spanClass) {
+                return;
+            }
+        }
+        final Class<?>[] newClasses = Arrays.copyOf(classes, classes.length + 1);
+        newClasses[classes.length] = spanClass;
+        mSpanClasses = newClasses;
+    }
+
     private int countSpans(int queryStart, int queryEnd, Class kind, int i) {
         int count = 0;
         if ((i & 1) != 0) {
@@ -992,6 +1125,83 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         return count;
     }
 
+    /**
+     * Fills the buffer with the indices of the spans found under the current interval tree node,
+     * using the same overlap rules as {@link #getSpansRec}.
+     *
+     * @return The total number of spans found.
+     */
+    private int collectSpanIndices(int queryStart, int queryEnd, Class kind, int i,
+            int[] indices, int count) {
+        if ((i & 1) != 0) {
+            // internal tree node
+            int left = leftChild(i);
+            if (resolveGap(mSpanMax[left]) >= queryStart) {
+                count = collectSpanIndices(queryStart, queryEnd, kind, left, indices, count);
+            }
+        }
+        if (i >= mSpanCount) return count;
+        int spanStart = resolveGap(mSpanStarts[i]);
+        if (spanStart <= queryEnd) {
+            int spanEnd = resolveGap(mSpanEnds[i]);
+            if (spanEnd >= queryStart &&
+                    (spanStart == spanEnd || queryStart == queryEnd ||
+                        (spanStart != queryEnd && spanEnd != queryStart)) &&
+                        (Object.class == kind || kind.isInstance(mSpans[i]))) {
+                indices[count++] = i;
+            }
+            if ((i & 1) != 0) {
+                count = collectSpanIndices(queryStart, queryEnd, kind, rightChild(i), indices,
+                        count);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Heap sorts the first {@code size} span indices in the order {@link #sort} sorts spans:
+     * by priority, then by insertion order.
+     */
+    private void sortSpanIndices(int[] indices, int size) {
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDownSpanIndex(i, indices, size);
+        }
+        for (int i = size - 1; i > 0; i--) {
+            final int tmp = indices[0];
+            indices[0] = indices[i];
+            indices[i] = tmp;
+            siftDownSpanIndex(0, indices, i);
+        }
+    }
+
+    private void siftDownSpanIndex(int index, int[] indices, int size) {
+        int left = 2 * index + 1;
+        while (left < size) {
+            if (left < size - 1 && compareSpanIndices(indices[left], indices[left + 1]) < 0) {
+                left++;
+            }
+            if (compareSpanIndices(indices[index], indices[left]) >= 0) {
+                break;
+            }
+            final int tmp = indices[index];
+            indices[index] = indices[left];
+            indices[left] = tmp;
+
+            index = left;
+            left = 2 * index + 1;
+        }
+    }
+
+    private int compareSpanIndices(int left, int right) {
+        final int priority1 = mSpanFlags[left] & SPAN_PRIORITY;
+        final int priority2 = mSpanFlags[right] & SPAN_PRIORITY;
+        if (priority1 == priority2) {
+            return Integer.compare(mSpanOrder[left], mSpanOrder[right]);
+        }
+        // higher priority first, as in compareSpans()
+        return Integer.compare(priority2, priority1);
+    }
+
     /**
      * Obtain a temporary sort buffer.
      *
@@ -1160,6 +1370,7 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         if (kind == null) {
             kind = Object.class;
         }
+        if (!containsSpansOfType(kind)) return limit;
         return nextSpanTransitionRec(start, limit, kind, treeRoot());
     }
 
@@ -1780,6 +1991,7 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
     private int mSpanCount;
     private IdentityHashMap<Object, Integer> mIndexOfSpan;
     private int mLowWaterMark;  // indices below this have not been touched
+    private Class<?>[] mSpanClasses = EmptyArray.CLASS;  // see containsSpansOfType()
 
     // TextWatcher callbacks may trigger changes that trigger more callbacks. This keeps track of
     // how deep the callbacks go.
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.annotation.LayoutRes;
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inflates layouts on a pool of background threads and hands the resulting view trees back to
+ * the thread that created the AsyncLayoutInflater, typically the UI thread.
+ *
+ * <p>Each request is inflated by its own clone of the context's {@link LayoutInflater}, so the
+ * {@link LayoutInflater.Factory factories} set on it are used. The parent is only used to
+ * generate layout params; the inflated view is never attached to it.
+ *
+ * <p>Background threads have no {@link Looper}, so views that create a {@link Handler} in their
+ * constructor fail to inflate there. A request that fails in the background is inflated again
+ * on the UI thread before its listener is called.
+ *
+ * @hide
+ */
+public final class AsyncLayoutInflater {
+    private static final String TAG = "AsyncLayoutInflater";
+
+    private static final int MAX_THREADS =
+            Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 3));
+    private static final int KEEP_ALIVE_SECONDS = 5;
+
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+                r.run();
+            }, TAG + " #" + mCount.getAndIncrement());
+        }
+    };
+
+    private static final Executor sExecutor;
+
+    static {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                sThreadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        sExecutor = executor;
+    }
+
+    /** Called on the UI thread once a layout has been inflated. */
+    public interface OnInflateFinishedListener {
+        /**
+         * @param view The root of the inflated layout.
+         * @param resid The layout that was inflated.
+         * @param parent The parent passed to {@link #inflate}.
+         */
+        void onInflateFinished(@NonNull View view, @LayoutRes int resid,
+                @Nullable ViewGroup parent);
+    }
+
+    private final LayoutInflater mInflater;
+    private final Handler mHandler;
+
+    /**
+     * @param context The context to inflate layouts in; its {@link LayoutInflater} is used.
+     */
+    public AsyncLayoutInflater(@NonNull Context context) {
+        mInflater = LayoutInflater.from(context);
+        mHandler = new Handler(Looper.myLooper());
+    }
+
+    /**
+     * Inflates a layout in the background.
+     *
+     * @param resid The layout to inflate.
+     * @param parent Used to generate the layout params of the root view, or null.
+     * @param callback Called on this inflater's thread with the inflated view.
+     */
+    public void inflate(@LayoutRes int resid, @Nullable ViewGroup parent,
+            @NonNull OnInflateFinishedListener callback) {
+        if (callback == null) {
+            throw new NullPointerException("callback argument may not be null!");
+        }
+        final LayoutInflater inflater = mInflater.cloneInContext(mInflater.getContext());
+        sExecutor.execute(() -> {
+            View view = null;
+            try {
+                view = inflater.inflate(resid, parent, false);
+            } catch (RuntimeException e) {
+                // Likely a view that needs a Looper; retry on the UI thread.
+                Log.w(TAG, "Failed to inflate resource in the background!"
+                        + " Retrying on the UI thread", e);
+            }
+            final View inflated = view;
+            mHandler.post(() -> {
+                final View result = inflated != null
+                        ? inflated : mInflater.inflate(resid, parent, false);
+                callback.onInflateFinished(result, resid, parent);
+            });
+        });
+    }
+}
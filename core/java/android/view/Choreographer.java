@@ -195,6 +195,13 @@ public final class Choreographer {
      */
     FrameInfo mFrameInfo = new FrameInfo();
 
+    /**
+     * Attribution of the time spent in janky frames, or null unless
+     * {@link FrameAttribution#ENABLED}.
+     */
+    final FrameAttribution mFrameAttribution =
+            FrameAttribution.ENABLED ? new FrameAttribution() : null;
+
     /**
      * Must be kept in sync with CALLBACK_* ints below, used to index into this array.
      * @hide
@@ -392,6 +399,9 @@ public final class Choreographer {
                 writer.println(mFrameScheduled);
         writer.print(innerPrefix); writer.print("mLastFrameTime=");
                 writer.println(TimeUtils.formatUptime(mLastFrameTimeNanos / 1000000));
+        if (mFrameAttribution != null) {
+            mFrameAttribution.dump(innerPrefix, writer);
+        }
     }
 
     /**
@@ -747,6 +757,9 @@ public final class Choreographer {
         try {
             Trace.traceBegin(Trace.TRACE_TAG_VIEW, "Choreographer#doFrame");
             AnimationUtils.lockAnimationClock(frameTimeNanos / TimeUtils.NANOS_PER_MS);
+            if (mFrameAttribution != null) {
+                mFrameAttribution.beginFrame();
+            }
 
             mFrameInfo.markInputHandlingStart();
             doCallbacks(Choreographer.CALLBACK_INPUT, frameTimeNanos);
@@ -759,6 +772,10 @@ public final class Choreographer {
 
             doCallbacks(Choreographer.CALLBACK_COMMIT, frameTimeNanos);
         } finally {
+            if (mFrameAttribution != null) {
+                mFrameAttribution.endFrame(frameTimeNanos, System.nanoTime() - startNanos,
+                        mFrameIntervalNanos);
+            }
             AnimationUtils.unlockAnimationClock();
             Trace.traceEnd(Trace.TRACE_TAG_VIEW);
         }
@@ -820,7 +837,16 @@ public final class Choreographer {
                             + ", action=" + c.action + ", token=" + c.token
                             + ", latencyMillis=" + (SystemClock.uptimeMillis() - c.dueTime));
                 }
-                c.run(frameTimeNanos);
+                if (mFrameAttribution != null) {
+                    mFrameAttribution.beginSection();
+                    try {
+                        c.run(frameTimeNanos);
+                    } finally {
+                        mFrameAttribution.endSection(callbackType, c.action.getClass());
+                    }
+                } else {
+                    c.run(frameTimeNanos);
+                }
             }
         } finally {
             synchronized (mLock) {
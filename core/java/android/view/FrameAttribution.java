@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.os.SystemProperties;
+import android.util.TimeUtils;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+
+/**
+ * Attributes the UI thread time of janky frames to the Choreographer callbacks and the View
+ * classes that spent it, for dumpsys gfxinfo.
+ *
+ * <p>While a frame runs, every callback and every {@link View#onMeasure}, {@link View#onLayout}
+ * and display list recording is timed as a section.  Sections nest, and each is charged its
+ * own time without the time of the sections nested in it, so a slow TextView is not hidden
+ * behind the traversal that measured it.  Time is summed per (section type, class) for the
+ * frame.  Frames whose callbacks took longer than a frame interval keep their most expensive
+ * entries in a ring buffer; other frames are dropped.
+ *
+ * <p>Enabled by the {@code debug.choreographer.attribution} system property.  Except for
+ * {@link #dump}, all methods must be called on the Choreographer's thread.
+ */
+final class FrameAttribution {
+    static final boolean ENABLED =
+            SystemProperties.getBoolean("debug.choreographer.attribution", false);
+
+    // Section types. The callback types of Choreographer come first.
+    static final int SECTION_MEASURE = Choreographer.CALLBACK_COMMIT + 1;
+    static final int SECTION_LAYOUT = SECTION_MEASURE + 1;
+    static final int SECTION_DRAW = SECTION_LAYOUT + 1;
+
+    private static final String[] SECTION_NAMES = {
+            "input", "animation", "traversal", "commit", "measure", "layout", "draw"
+    };
+
+    /** Distinct (section type, class) pairs tracked per frame; the rest are dropped. */
+    private static final int MAX_ENTRIES = 64;
+    /** Entries kept for each janky frame, most expensive first. */
+    private static final int MAX_REPORTED_ENTRIES = 8;
+    private static final int MAX_DEPTH = 128;
+    private static final int HISTORY_SIZE = 16;
+
+    private static final class FrameRecord {
+        long frameTimeNanos;
+        long durationNanos;
+        int count;
+        final int[] sections = new int[MAX_REPORTED_ENTRIES];
+        final Class<?>[] classes = new Class<?>[MAX_REPORTED_ENTRIES];
+        final long[] nanos = new long[MAX_REPORTED_ENTRIES];
+    }
+
+    // The frame being run.
+    private boolean mInFrame;
+    private int mCount;
+    private final int[] mSections = new int[MAX_ENTRIES];
+    private final Class<?>[] mClasses = new Class<?>[MAX_ENTRIES];
+    private final long[] mNanos = new long[MAX_ENTRIES];
+
+    // Open sections. mDepth may exceed MAX_DEPTH, deeper sections are not timed.
+    private int mDepth;
+    private final long[] mStartNanos = new long[MAX_DEPTH];
+    private final long[] mNestedNanos = new long[MAX_DEPTH];
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final FrameRecord[] mHistory = new FrameRecord[HISTORY_SIZE];
+
+    @GuardedBy("mLock")
+    private int mHistoryNext;
+
+    @GuardedBy("mLock")
+    private long mFrameCount;
+
+    @GuardedBy("mLock")
+    private long mJankyFrameCount;
+
+    void beginFrame() {
+        mInFrame = true;
+        clearFrame();
+    }
+
+    /**
+     * Ends the frame, keeping its attribution if it ran longer than {@code thresholdNanos}.
+     */
+    void endFrame(long frameTimeNanos, long durationNanos, long thresholdNanos) {
+        mInFrame = false;
+        try {
+            recordFrame(frameTimeNanos, durationNanos, durationNanos > thresholdNanos);
+        } finally {
+            clearFrame();
+        }
+    }
+
+    private void recordFrame(long frameTimeNanos, long durationNanos, boolean janky) {
+        synchronized (mLock) {
+            mFrameCount++;
+            if (!janky) {
+                return;
+            }
+            mJankyFrameCount++;
+            FrameRecord record = mHistory[mHistoryNext];
+            if (record == null) {
+                record = new FrameRecord();
+                mHistory[mHistoryNext] = record;
+            }
+            mHistoryNext = (mHistoryNext + 1) % HISTORY_SIZE;
+            record.frameTimeNanos = frameTimeNanos;
+            record.durationNanos = durationNanos;
+            record.count = 0;
+            // Selection sort of the most expensive entries; mCount is small.
+            while (record.count < MAX_REPORTED_ENTRIES && record.count < mCount) {
+                int max = record.count;
+                for (int i = max + 1; i < mCount; i++) {
+                    if (mNanos[i] > mNanos[max]) {
+                        max = i;
+                    }
+                }
+                swapEntries(record.count, max);
+                record.sections[record.count] = mSections[record.count];
+                record.classes[record.count] = mClasses[record.count];
+                record.nanos[record.count] = mNanos[record.count];
+                record.count++;
+            }
+        }
+    }
+
+    /** Drops the entries and open sections of the frame, so that none leak into the next. */
+    private void clearFrame() {
+        for (int i = 0; i < mCount; i++) {
+            mClasses[i] = null;
+        }
+        mCount = 0;
+        mDepth = 0;
+    }
+
+    void beginSection() {
+        if (!mInFrame) {
+            return;
+        }
+        final int depth = mDepth++;
+        if (depth < MAX_DEPTH) {
+            mStartNanos[depth] = System.nanoTime();
+            mNestedNanos[depth] = 0;
+        }
+    }
+
+    /**
+     * Ends the innermost section and charges its own time to {@code clazz}.
+     */
+    void endSection(int section, Class<?> clazz) {
+        if (!mInFrame || mDepth == 0) {
+            return;
+        }
+        final int depth = --mDepth;
+        if (depth >= MAX_DEPTH) {
+            return;
+        }
+        final long elapsed = System.nanoTime() - mStartNanos[depth];
+        if (depth > 0) {
+            mNestedNanos[depth - 1] += elapsed;
+        }
+        addEntry(section, clazz, elapsed - mNestedNanos[depth]);
+    }
+
+    private void addEntry(int section, Class<?> clazz, long nanos) {
+        for (int i = 0; i < mCount; i++) {
+            if (mClasses[i] == clazz && mSections[i] == section) {
+                mNanos[i] += nanos;
+                return;
+            }
+        }
+        if (mCount < MAX_ENTRIES) {
+            mSections[mCount] = section;
+            mClasses[mCount] = clazz;
+            mNanos[mCount] = nanos;
+            mCount++;
+        }
+    }
+
+    private void swapEntries(int i, int j) {
+        final int section = mSections[i];
+        mSections[i] = mSections[j];
+        mSections[j] = section;
+        final Class<?> clazz = mClasses[i];
+        mClasses[i] = mClasses[j];
+        mClasses[j] = clazz;
+        final long nanos = mNanos[i];
+        mNanos[i] = mNanos[j];
+        mNanos[j] = nanos;
+    }
+
+    void dump(String prefix, PrintWriter pw) {
+        final String innerPrefix = prefix + "  ";
+        synchronized (mLock) {
+            pw.print(prefix); pw.print("Janky frames: "); pw.print(mJankyFrameCount);
+                    pw.print(" of "); pw.println(mFrameCount);
+            for (int i = 1; i <= HISTORY_SIZE; i++) {
+                // Most recent first.
+                final FrameRecord record =
+                        mHistory[(mHistoryNext - i + HISTORY_SIZE) % HISTORY_SIZE];
+                if (record == null) {
+                    break;
+                }
+                pw.print(prefix); pw.print("Frame at ");
+                        pw.print(TimeUtils.formatUptime(record.frameTimeNanos / 1000000));
+                        pw.print(" took ");
+                        pw.print(record.durationNanos * 0.000001f); pw.println("ms:");
+                for (int j = 0; j < record.count; j++) {
+                    pw.print(innerPrefix); pw.print(SECTION_NAMES[record.sections[j]]);
+                            pw.print(' '); pw.print(record.classes[j].getName());
+                            pw.print(' '); pw.print(record.nanos[j] * 0.000001f);
+                            pw.println("ms");
+                }
+            }
+        }
+    }
+}
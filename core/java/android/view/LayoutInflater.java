@@ -27,13 +27,26 @@ import android.graphics.Canvas;
 import android.os.Handler;
 import android.os.Message;
 import android.os.Trace;
+import android.util.ArrayMap;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.TypedValue;
 import android.util.Xml;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.FrameLayout;
+import android.widget.ImageButton;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
+import android.widget.RelativeLayout;
+import android.widget.ScrollView;
+import android.widget.Space;
+import android.widget.TextView;
 
 import com.android.internal.R;
+import com.android.internal.annotations.GuardedBy;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -90,9 +103,56 @@ public abstract class LayoutInflater {
     static final Class<?>[] mConstructorSignature = new Class[] {
             Context.class, AttributeSet.class};
 
+    // Inflaters on different threads, e.g. in AsyncLayoutInflater, share this cache.
+    @GuardedBy("sConstructorMap")
     private static final HashMap<String, Constructor<? extends View>> sConstructorMap =
             new HashMap<String, Constructor<? extends View>>();
 
+    /** Creates a view without going through reflection. */
+    private interface ViewFactory {
+        View create(Context context, AttributeSet attrs);
+    }
+
+    private static final class FrameworkViewFactory {
+        final String prefix;
+        final ViewFactory factory;
+
+        FrameworkViewFactory(String prefix, ViewFactory factory) {
+            this.prefix = prefix;
+            this.factory = factory;
+        }
+    }
+
+    /**
+     * Factories for the framework views most commonly found in layouts, keyed by tag name.
+     * Framework classes always come from the boot class loader, so these are valid for every
+     * context and skip the reflective constructor lookup and call in {@link #createView}.
+     */
+    private static final ArrayMap<String, FrameworkViewFactory> sFrameworkViewFactories =
+            new ArrayMap<>();
+
+    static {
+        addFrameworkViewFactory("android.view.", "View", View::new);
+        addFrameworkViewFactory("android.view.", "ViewStub", ViewStub::new);
+        addFrameworkViewFactory("android.widget.", "Button", Button::new);
+        addFrameworkViewFactory("android.widget.", "CheckBox", CheckBox::new);
+        addFrameworkViewFactory("android.widget.", "EditText", EditText::new);
+        addFrameworkViewFactory("android.widget.", "FrameLayout", FrameLayout::new);
+        addFrameworkViewFactory("android.widget.", "ImageButton", ImageButton::new);
+        addFrameworkViewFactory("android.widget.", "ImageView", ImageView::new);
+        addFrameworkViewFactory("android.widget.", "LinearLayout", LinearLayout::new);
+        addFrameworkViewFactory("android.widget.", "ProgressBar", ProgressBar::new);
+        addFrameworkViewFactory("android.widget.", "RelativeLayout", RelativeLayout::new);
+        addFrameworkViewFactory("android.widget.", "ScrollView", ScrollView::new);
+        addFrameworkViewFactory("android.widget.", "Space", Space::new);
+        addFrameworkViewFactory("android.widget.", "TextView", TextView::new);
+    }
+
+    private static void addFrameworkViewFactory(String prefix, String name,
+            ViewFactory factory) {
+        sFrameworkViewFactories.put(name, new FrameworkViewFactory(prefix, factory));
+    }
+
     private HashMap<String, Boolean> mFilterMap;
 
     private TypedValue mTempValue;
@@ -591,10 +651,20 @@ public abstract class LayoutInflater {
      */
     public final View createView(String name, String prefix, AttributeSet attrs)
             throws ClassNotFoundException, InflateException {
-        Constructor<? extends View> constructor = sConstructorMap.get(name);
-        if (constructor != null && !verifyClassLoader(constructor)) {
-            constructor = null;
-            sConstructorMap.remove(name);
+        if (mFilter == null && prefix != null) {
+            final FrameworkViewFactory frameworkFactory = sFrameworkViewFactories.get(name);
+            if (frameworkFactory != null && prefix.equals(frameworkFactory.prefix)) {
+                return createFrameworkView(name, prefix, frameworkFactory.factory, attrs);
+            }
+        }
+
+        Constructor<? extends View> constructor;
+        synchronized (sConstructorMap) {
+            constructor = sConstructorMap.get(name);
+            if (constructor != null && !verifyClassLoader(constructor)) {
+                constructor = null;
+                sConstructorMap.remove(name);
+            }
         }
         Class<? extends View> clazz = null;
 
@@ -614,7 +684,9 @@ public abstract class LayoutInflater {
                 }
                 constructor = clazz.getConstructor(mConstructorSignature);
                 constructor.setAccessible(true);
-                sConstructorMap.put(name, constructor);
+                synchronized (sConstructorMap) {
+                    sConstructorMap.put(name, constructor);
+                }
             } else {
                 // If we have a filter, apply it to cached constructor
                 if (mFilter != null) {
@@ -645,11 +717,7 @@ public abstract class LayoutInflater {
             args[1] = attrs;
 
             final View view = constructor.newInstance(args);
-            if (view instanceof ViewStub) {
-                // Use the same context when inflating ViewStub later.
-                final ViewStub viewStub = (ViewStub) view;
-                viewStub.setLayoutInflater(cloneInContext((Context) args[0]));
-            }
+            setUpViewStub(view, (Context) args[0]);
             mConstructorArgs[0] = lastContext;
             return view;
 
@@ -679,6 +747,39 @@ public abstract class LayoutInflater {
         }
     }
 
+    /**
+     * Version of {@link #createView} for views with a {@link FrameworkViewFactory}.
+     */
+    private View createFrameworkView(String name, String prefix, ViewFactory factory,
+            AttributeSet attrs) {
+        try {
+            Trace.traceBegin(Trace.TRACE_TAG_VIEW, name);
+
+            final Context context = mConstructorArgs[0] != null
+                    ? (Context) mConstructorArgs[0] : mContext;
+            final View view = factory.create(context, attrs);
+            setUpViewStub(view, context);
+            return view;
+        } catch (InflateException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            final InflateException ie = new InflateException(attrs.getPositionDescription()
+                    + ": Error inflating class " + prefix + name, e);
+            ie.setStackTrace(EMPTY_STACK_TRACE);
+            throw ie;
+        } finally {
+            Trace.traceEnd(Trace.TRACE_TAG_VIEW);
+        }
+    }
+
+    private void setUpViewStub(View view, Context context) {
+        if (view instanceof ViewStub) {
+            // Use the same context when inflating ViewStub later.
+            final ViewStub viewStub = (ViewStub) view;
+            viewStub.setLayoutInflater(cloneInContext(context));
+        }
+    }
+
     /**
      * Throw an exception because the specified class is not allowed to be inflated.
      */
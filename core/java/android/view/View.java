@@ -1190,6 +1190,30 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      */
     private AutofillId mAutofillId;
 
+    /**
+     * The autofill structure last provided by this view and its descendants, set by the parent
+     * that requested it, so that the next request can reuse it if nothing changed since.
+     * Cleared on this view and its ancestors by {@link #invalidateAutofillStructureCache()}.
+     */
+    Object mCachedAutofillStructure;
+
+    /** The flags {@link #mCachedAutofillStructure} was provided with. */
+    int mCachedAutofillStructureFlags;
+
+    /**
+     * The {@link AttachInfo#mAutofillStructureGeneration} of the last structure this view was
+     * given a node in by its parent, or 0.  Non-important views that children were flattened
+     * through are not given a node and keep an older generation.
+     */
+    int mAutofillStructureGeneration;
+
+    /**
+     * Whether the last autofill structure provided by this view may be reused; false while
+     * a subclass overrides {@link #dispatchProvideAutofillStructure} without calling super,
+     * or while a descendant provides children not backed by views.
+     */
+    boolean mAutofillStructureCacheable;
+
     /** @hide */
     @IntDef(prefix = { "AUTOFILL_TYPE_" }, value = {
             AUTOFILL_TYPE_NONE,
@@ -8383,6 +8407,8 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      * @attr ref android.R.styleable#View_importantForAutofill
      */
     public void setImportantForAutofill(@AutofillImportance int mode) {
+        invalidateAutofillStructureCache();
+        invalidateFlattenedAutofillStructureCache(true);
         mPrivateFlags3 &= ~PFLAG3_IMPORTANT_FOR_AUTOFILL_MASK;
         mPrivateFlags3 |= (mode << PFLAG3_IMPORTANT_FOR_AUTOFILL_SHIFT)
                 & PFLAG3_IMPORTANT_FOR_AUTOFILL_MASK;
@@ -8651,9 +8677,51 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      */
     public void dispatchProvideAutofillStructure(@NonNull ViewStructure structure,
             @AutofillFlags int flags) {
+        mAutofillStructureCacheable = true;
         dispatchProvideStructureForAssistOrAutofill(structure, true, flags);
     }
 
+    /**
+     * Drops the autofill structure cached for this view and its ancestors, which all include
+     * it.  Called whenever something the structure is built from may have changed: the view
+     * was invalidated, laid out, scrolled or had one of its flags or autofill properties set.
+     *
+     * <p>Costs nothing until a structure was cached in this window, and afterwards stops at
+     * the first view that already has no cache.
+     */
+    final void invalidateAutofillStructureCache() {
+        if (mAttachInfo == null || !mAttachInfo.mAutofillStructureCached) {
+            return;
+        }
+        final int generation = mAttachInfo.mAutofillStructureGeneration;
+        View view = this;
+        while (true) {
+            // A view given a node in the last structure but no cache, or whose cache was
+            // dropped since, means that none of its ancestors has a cache either.  Views left
+            // out of the last structure, or flattened into their parent's, tell nothing about
+            // their ancestors, so the walk goes on past them.
+            if (view.mCachedAutofillStructure == null
+                    && view.mAutofillStructureGeneration == generation) {
+                break;
+            }
+            view.mCachedAutofillStructure = null;
+            final ViewParent parent = view.mParent;
+            if (!(parent instanceof View)) {
+                break;
+            }
+            view = (View) parent;
+        }
+    }
+
+    /**
+     * Drops the autofill structure cached for the descendants flattened through this view
+     * into an ancestor's node, as their nodes include this view's position.  Called whenever
+     * that position changes, and with {@code importanceChanged} whenever this view may have
+     * started or stopped being flattened, which drops the cache of every descendant.
+     */
+    void invalidateFlattenedAutofillStructureCache(boolean importanceChanged) {
+    }
+
     private void dispatchProvideStructureForAssistOrAutofill(ViewStructure structure,
             boolean forAutofill, @AutofillFlags int flags) {
         if (forAutofill) {
@@ -10138,6 +10206,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      * @attr ref android.R.styleable#View_autofillHints
      */
     public void setAutofillHints(@Nullable String... autofillHints) {
+        invalidateAutofillStructureCache();
         if (autofillHints == null || autofillHints.length == 0) {
             mAutofillHints = null;
         } else {
@@ -11921,6 +11990,8 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      * @hide
      */
     public void notifyViewAccessibilityStateChangedIfNeeded(int changeType) {
+        // Also reports changes, such as to the content description, that need no redraw.
+        invalidateAutofillStructureCache();
         if (!AccessibilityManager.getInstance(mContext).isEnabled() || mAttachInfo == null) {
             return;
         }
@@ -11979,6 +12050,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      * @hide
      */
     public void notifySubtreeAccessibilityStateChangedIfNeeded() {
+        invalidateAutofillStructureCache();
         if (!AccessibilityManager.getInstance(mContext).isEnabled() || mAttachInfo == null) {
             return;
         }
@@ -14039,6 +14111,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
         if (changed == 0) {
             return;
         }
+        invalidateAutofillStructureCache();
         int privateFlags = mPrivateFlags;
         boolean shouldNotifyFocusableAvailable = false;
 
@@ -15207,6 +15280,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
 
             mTop = top;
             mRenderNode.setTop(mTop);
+            invalidateFlattenedAutofillStructureCache(false);
 
             sizeChange(width, mBottom - mTop, width, oldHeight);
 
@@ -15339,6 +15413,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
 
             mLeft = left;
             mRenderNode.setLeft(left);
+            invalidateFlattenedAutofillStructureCache(false);
 
             sizeChange(mRight - mLeft, height, oldWidth, height);
 
@@ -16017,6 +16092,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
             mTop += offset;
             mBottom += offset;
             mRenderNode.offsetTopAndBottom(offset);
+            invalidateFlattenedAutofillStructureCache(false);
             if (isHardwareAccelerated()) {
                 invalidateViewProperty(false, false);
                 invalidateParentIfNeededAndWasQuickRejected();
@@ -16065,6 +16141,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
             mLeft += offset;
             mRight += offset;
             mRenderNode.offsetLeftAndRight(offset);
+            invalidateFlattenedAutofillStructureCache(false);
             if (isHardwareAccelerated()) {
                 invalidateViewProperty(false, false);
                 invalidateParentIfNeededAndWasQuickRejected();
@@ -16143,6 +16220,8 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
             int oldY = mScrollY;
             mScrollX = x;
             mScrollY = y;
+            // The redraw is only posted, and a structure could be requested before it runs.
+            invalidateAutofillStructureCache();
             invalidateParentCaches();
             onScrollChanged(mScrollX, mScrollY, oldX, oldY);
             if (!awakenScrollBars()) {
@@ -16424,6 +16503,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
 
     void invalidateInternal(int l, int t, int r, int b, boolean invalidateCache,
             boolean fullInvalidate) {
+        invalidateAutofillStructureCache();
         if (mGhostView != null) {
             mGhostView.invalidate(true);
             return;
@@ -16508,6 +16588,8 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      * list properties are not being used in this view
      */
     void invalidateViewProperty(boolean invalidateParent, boolean forceRedraw) {
+        // Properties set on the render node, such as translation, skip invalidateInternal().
+        invalidateAutofillStructureCache();
         if (!isHardwareAccelerated()
                 || !mRenderNode.isValid()
                 || (mPrivateFlags & PFLAG_DRAW_ANIMATION) != 0) {
@@ -18229,6 +18311,8 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
 
         cleanupDraw();
         mCurrentAnimation = null;
+        mCachedAutofillStructure = null;
+        mAutofillStructureGeneration = 0;
 
         if ((mViewFlags & TOOLTIP) == TOOLTIP) {
             hideTooltip();
@@ -19077,6 +19161,10 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
             int layerType = getLayerType();
 
             final DisplayListCanvas canvas = renderNode.start(width, height);
+            final FrameAttribution attribution = getFrameAttribution();
+            if (attribution != null) {
+                attribution.beginSection();
+            }
 
             try {
                 if (layerType == LAYER_TYPE_SOFTWARE) {
@@ -19109,6 +19197,9 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
             } finally {
                 renderNode.end(canvas);
                 setDisplayListProperties(renderNode);
+                if (attribution != null) {
+                    attribution.endSection(FrameAttribution.SECTION_DRAW, getClass());
+                }
             }
         } else {
             mPrivateFlags |= PFLAG_DRAWN | PFLAG_DRAWING_CACHE_VALID;
@@ -19117,6 +19208,18 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
         return renderNode;
     }
 
+    /**
+     * Returns the attribution of the current frame of the window this view is attached to, or
+     * null if frame attribution is disabled.
+     */
+    private FrameAttribution getFrameAttribution() {
+        if (!FrameAttribution.ENABLED || mAttachInfo == null
+                || mAttachInfo.mViewRootImpl == null) {
+            return null;
+        }
+        return mAttachInfo.mViewRootImpl.mChoreographer.mFrameAttribution;
+    }
+
     private void resetDisplayList() {
         mRenderNode.discardDisplayList();
         if (mBackgroundRenderNode != null) {
@@ -20693,7 +20796,17 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
                 setOpticalFrame(l, t, r, b) : setFrame(l, t, r, b);
 
         if (changed || (mPrivateFlags & PFLAG_LAYOUT_REQUIRED) == PFLAG_LAYOUT_REQUIRED) {
-            onLayout(changed, l, t, r, b);
+            final FrameAttribution attribution = getFrameAttribution();
+            if (attribution != null) {
+                attribution.beginSection();
+                try {
+                    onLayout(changed, l, t, r, b);
+                } finally {
+                    attribution.endSection(FrameAttribution.SECTION_LAYOUT, getClass());
+                }
+            } else {
+                onLayout(changed, l, t, r, b);
+            }
 
             if (shouldDrawRoundScrollbar()) {
                 if(mRoundScrollbarRenderer == null) {
@@ -20825,6 +20938,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
             mRight = right;
             mBottom = bottom;
             mRenderNode.setLeftTopRightBottom(mLeft, mTop, mRight, mBottom);
+            invalidateFlattenedAutofillStructureCache(false);
 
             mPrivateFlags |= PFLAG_HAS_BOUNDS;
 
@@ -22823,6 +22937,9 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
         if (mID == View.NO_ID && mLabelForId != View.NO_ID) {
             mID = generateViewId();
         }
+        // The id is part of the autofill structure, and may make the view important for it.
+        invalidateAutofillStructureCache();
+        invalidateFlattenedAutofillStructureCache(true);
     }
 
     /**
@@ -23097,6 +23214,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
     @CallSuper
     public void requestLayout() {
         if (mMeasureCache != null) mMeasureCache.clear();
+        invalidateAutofillStructureCache();
 
         if (mAttachInfo != null && mAttachInfo.mViewRequestingLayout == null) {
             // Only trigger request-during-layout logic if this is the view requesting it,
@@ -23190,7 +23308,17 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
             int cacheIndex = forceLayout ? -1 : mMeasureCache.indexOfKey(key);
             if (cacheIndex < 0 || sIgnoreMeasureCache) {
                 // measure ourselves, this should set the measured dimension flag back
-                onMeasure(widthMeasureSpec, heightMeasureSpec);
+                final FrameAttribution attribution = getFrameAttribution();
+                if (attribution != null) {
+                    attribution.beginSection();
+                    try {
+                        onMeasure(widthMeasureSpec, heightMeasureSpec);
+                    } finally {
+                        attribution.endSection(FrameAttribution.SECTION_MEASURE, getClass());
+                    }
+                } else {
+                    onMeasure(widthMeasureSpec, heightMeasureSpec);
+                }
                 mPrivateFlags3 &= ~PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT;
             } else {
                 long value = mMeasureCache.valueAt(cacheIndex);
@@ -26537,6 +26665,21 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
          */
         boolean mKeepScreenOn;
 
+        /**
+         * Set once a view in this window cached its autofill structure, from when on changes
+         * to views must drop the caches of their ancestors.
+         */
+        boolean mAutofillStructureCached;
+
+        /**
+         * Incremented for every autofill structure built in this window, so that views can tell
+         * whether they were part of the last one.
+         */
+        int mAutofillStructureGeneration;
+
+        /** Depth of nested {@link ViewGroup#dispatchProvideAutofillStructure} calls. */
+        int mAutofillStructureDepth;
+
         /**
          * Set during a traveral if the light center needs to be updated.
          */
@@ -3559,9 +3559,27 @@ public abstract class ViewGroup extends View implements ViewParent, ViewManager
     @Override
     public void dispatchProvideAutofillStructure(ViewStructure structure,
             @AutofillFlags int flags) {
+        final AttachInfo attachInfo = mAttachInfo;
+        if (attachInfo != null && attachInfo.mAutofillStructureDepth++ == 0) {
+            // A new structure, see invalidateAutofillStructureCache().
+            attachInfo.mAutofillStructureGeneration++;
+        }
+        try {
+            provideAutofillStructureWithChildren(structure, flags);
+        } finally {
+            if (attachInfo != null) {
+                attachInfo.mAutofillStructureDepth--;
+            }
+        }
+    }
+
+    private void provideAutofillStructureWithChildren(ViewStructure structure,
+            @AutofillFlags int flags) {
         super.dispatchProvideAutofillStructure(structure, flags);
 
         if (structure.getChildCount() != 0) {
+            // Children provided by this view itself; only it knows when they change.
+            mAutofillStructureCacheable = false;
             return;
         }
 
@@ -3576,12 +3594,52 @@ public abstract class ViewGroup extends View implements ViewParent, ViewManager
         final ChildListForAutoFill children = getChildrenForAutofill(flags);
         final int childrenCount = children.size();
         structure.setChildCount(childrenCount);
+        boolean cacheable = true;
         for (int i = 0; i < childrenCount; i++) {
             final View child = children.get(i);
+            // Reuse the structure of children nothing changed in since the last request.
+            final Object cached = child.mCachedAutofillStructure;
+            if (cached != null && child.mCachedAutofillStructureFlags == flags
+                    && structure.setCachedChild(i, cached)) {
+                continue;
+            }
             final ViewStructure cstructure = structure.newChild(i);
+            child.mAutofillStructureCacheable = false;
             child.dispatchProvideAutofillStructure(cstructure, flags);
+            // Detached views are not told about changes, see invalidateAutofillStructureCache().
+            final Object node = mAttachInfo != null && child.mAutofillStructureCacheable
+                    ? cstructure.getCachedNode() : null;
+            child.mCachedAutofillStructure = node;
+            child.mCachedAutofillStructureFlags = flags;
+            if (mAttachInfo != null) {
+                child.mAutofillStructureGeneration = mAttachInfo.mAutofillStructureGeneration;
+            }
+            if (node != null) {
+                mAttachInfo.mAutofillStructureCached = true;
+            } else {
+                cacheable = false;
+            }
         }
         children.recycle();
+        mAutofillStructureCacheable = cacheable;
+    }
+
+    @Override
+    void invalidateFlattenedAutofillStructureCache(boolean importanceChanged) {
+        if (mAttachInfo == null || !mAttachInfo.mAutofillStructureCached) {
+            return;
+        }
+        // The nodes of the children of an important view are relative to its own node.
+        if (!importanceChanged && isImportantForAutofill()) {
+            return;
+        }
+        final int count = mChildrenCount;
+        final View[] children = mChildren;
+        for (int i = 0; i < count; i++) {
+            final View child = children[i];
+            child.mCachedAutofillStructure = null;
+            child.invalidateFlattenedAutofillStructureCache(importanceChanged);
+        }
     }
 
     /**
@@ -422,6 +422,29 @@ public abstract class ViewStructure {
     /** @hide */
     public abstract Rect getTempRect();
 
+    /**
+     * Returns the node built into this structure, so that it can be reused by
+     * {@link #setCachedChild} the next time the same view's structure is requested, or null if
+     * this structure can not be reused, for example because it has virtual children.
+     *
+     * @hide
+     */
+    public Object getCachedNode() {
+        return null;
+    }
+
+    /**
+     * Sets the child at {@code index} to a node previously returned by {@link #getCachedNode},
+     * instead of creating it with {@link #newChild}.
+     *
+     * @return Whether the node was used; if not, the child must be created with
+     *     {@link #newChild}.
+     * @hide
+     */
+    public boolean setCachedChild(int index, Object node) {
+        return false;
+    }
+
     /**
      * Sets the Web domain represented by this node.
      *
@@ -569,6 +569,20 @@ public final class WindowManagerGlobal {
                     }
                 }
 
+                if (FrameAttribution.ENABLED) {
+                    pw.println("\nJanky frame attribution:");
+                    // Windows on the same thread share a Choreographer.
+                    final ArraySet<Choreographer> dumped = new ArraySet<>();
+                    for (int i = 0; i < count; i++) {
+                        final ViewRootImpl root = mRoots.get(i);
+                        final Choreographer choreographer = root.mChoreographer;
+                        if (dumped.add(choreographer)) {
+                            pw.print("  Thread of "); pw.println(getWindowName(root));
+                            choreographer.mFrameAttribution.dump("    ", pw);
+                        }
+                    }
+                }
+
                 pw.println("\nView hierarchy:\n");
 
                 int viewsCount = 0;
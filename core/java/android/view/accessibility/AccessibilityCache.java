@@ -17,12 +17,18 @@
 package android.view.accessibility;
 
 import android.os.Build;
+import android.text.TextUtils;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.LongArray;
 import android.util.LongSparseArray;
+import android.util.LongSparseLongArray;
 import android.util.SparseArray;
+import android.util.SparseLongArray;
 
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -59,10 +65,53 @@ public class AccessibilityCache {
                     | AccessibilityEvent.TYPE_WINDOWS_CHANGED
                     | AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED;
 
+    /**
+     * Estimated size of the cached nodes above which the nodes of the least recently used
+     * windows are evicted.
+     */
+    private static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    /** Estimated size of a node without its strings and children. */
+    private static final int NODE_BASE_BYTES = 400;
+
+    /**
+     * Prefetched nodes sampled before the prefetch policy acts, and the number after which the
+     * sample is halved so that it follows recent access patterns.
+     */
+    private static final int MIN_PREFETCH_SAMPLE = 64;
+    private static final int MAX_PREFETCH_SAMPLE = 1024;
+
+    /** While descendants are not prefetched, every this many requests still prefetch them. */
+    private static final int PREFETCH_PROBE_INTERVAL = 8;
+
     private final Object mLock = new Object();
 
     private final AccessibilityNodeRefresher mAccessibilityNodeRefresher;
 
+    private long mMaxBytes = DEFAULT_MAX_BYTES;
+    private long mBytes;
+
+    // Estimated size of each cached node and of all the cached nodes of each window.
+    private final SparseArray<LongSparseLongArray> mNodeBytes = new SparseArray<>();
+    private final SparseLongArray mWindowBytes = new SparseLongArray();
+
+    // When the nodes of each window were last accessed, in mAccessSequence order.
+    private final SparseLongArray mWindowLastAccess = new SparseLongArray();
+    private long mAccessSequence;
+
+    // Descendants that were prefetched and have not been returned by getNode() yet.
+    private final SparseArray<LongSparseLongArray> mUnusedPrefetchedNodes = new SparseArray<>();
+    private int mPrefetchSample;
+    private int mPrefetchUsedSample;
+    private int mPrefetchTrimmedCount;
+
+    // Statistics for dump().
+    private long mHitCount;
+    private long mMissCount;
+    private long mPrefetchedCount;
+    private long mPrefetchUsedCount;
+    private long mEvictedWindowCount;
+
     private long mAccessibilityFocus = AccessibilityNodeInfo.UNDEFINED_ITEM_ID;
     private long mInputFocus = AccessibilityNodeInfo.UNDEFINED_ITEM_ID;
 
@@ -219,13 +268,25 @@ public class AccessibilityCache {
         synchronized(mLock) {
             LongSparseArray<AccessibilityNodeInfo> nodes = mNodeCache.get(windowId);
             if (nodes == null) {
+                mMissCount++;
                 return null;
             }
             AccessibilityNodeInfo info = nodes.get(accessibilityNodeId);
             if (info != null) {
+                mHitCount++;
+                mWindowLastAccess.put(windowId, ++mAccessSequence);
+                final LongSparseLongArray unused = mUnusedPrefetchedNodes.get(windowId);
+                final int index = unused != null ? unused.indexOfKey(accessibilityNodeId) : -1;
+                if (index >= 0) {
+                    unused.removeAt(index);
+                    mPrefetchUsedSample++;
+                    mPrefetchUsedCount++;
+                }
                 // Return a copy since the client calls to AccessibilityNodeInfo#recycle()
                 // will wipe the data of the cached info.
                 info = AccessibilityNodeInfo.obtain(info);
+            } else {
+                mMissCount++;
             }
             if (DEBUG) {
                 Log.i(LOG_TAG, "get(" + accessibilityNodeId + ") = " + info);
@@ -329,21 +390,242 @@ public class AccessibilityCache {
                 } else {
                     oldInfo.recycle();
                 }
+                if (mNodeCache.get(windowId) != nodes) {
+                    // Clearing the subtree cleared the whole cache.
+                    nodes = new LongSparseArray<>();
+                    mNodeCache.put(windowId, nodes);
+                }
            }
 
             // Cache a copy since the client calls to AccessibilityNodeInfo#recycle()
             // will wipe the data of the cached info.
             AccessibilityNodeInfo clone = AccessibilityNodeInfo.obtain(info);
             nodes.put(sourceId, clone);
+            onNodeAddedLocked(windowId, sourceId, clone);
             if (clone.isAccessibilityFocused()) {
                 mAccessibilityFocus = sourceId;
             }
             if (clone.isFocused()) {
                 mInputFocus = sourceId;
             }
+            trimToSizeLocked(windowId);
+        }
+    }
+
+    /**
+     * Gets the ids of the nodes prefetched as descendants of a requested node that are not
+     * cached yet, to pass to {@link #notePrefetchedDescendants} once they are.  Predecessors
+     * and siblings are left out since {@link #getPrefetchFlags} only adapts the prefetching of
+     * descendants, and nodes cached already tell nothing about whether prefetching pays off.
+     *
+     * @param infos The requested node followed by the nodes prefetched along with it, before
+     *     they are added to the cache.
+     * @return The ids of the new prefetched descendants.
+     */
+    public LongArray getUncachedPrefetchedDescendants(List<AccessibilityNodeInfo> infos) {
+        final AccessibilityNodeInfo root = infos.get(0);
+        final LongSparseArray<AccessibilityNodeInfo> prefetched =
+                new LongSparseArray<>(infos.size() - 1);
+        for (int i = 1; i < infos.size(); i++) {
+            final AccessibilityNodeInfo info = infos.get(i);
+            prefetched.put(info.getSourceNodeId(), info);
+        }
+        final LongArray descendantIds = new LongArray();
+        synchronized (mLock) {
+            final LongSparseArray<AccessibilityNodeInfo> nodes = mNodeCache.get(root.getWindowId());
+            final LongArray queue = new LongArray();
+            addChildIds(root, queue);
+            for (int i = 0; i < queue.size(); i++) {
+                final long id = queue.get(i);
+                final int index = prefetched.indexOfKey(id);
+                if (index < 0) {
+                    continue;
+                }
+                final AccessibilityNodeInfo info = prefetched.valueAt(index);
+                prefetched.removeAt(index);
+                if (nodes == null || nodes.get(id) == null) {
+                    descendantIds.add(id);
+                }
+                addChildIds(info, queue);
+            }
+        }
+        return descendantIds;
+    }
+
+    /**
+     * Notes that cached nodes were not asked for but prefetched as descendants of one that
+     * was, so that {@link #getPrefetchFlags} can tell whether prefetching them pays off.
+     *
+     * @param windowId The id of the window of the nodes.
+     * @param descendantIds The ids from {@link #getUncachedPrefetchedDescendants}.
+     */
+    public void notePrefetchedDescendants(int windowId, LongArray descendantIds) {
+        synchronized (mLock) {
+            final LongSparseArray<AccessibilityNodeInfo> nodes = mNodeCache.get(windowId);
+            if (nodes == null) {
+                return;
+            }
+            for (int i = 0; i < descendantIds.size(); i++) {
+                final long sourceId = descendantIds.get(i);
+                if (nodes.get(sourceId) == null) {
+                    continue;
+                }
+                LongSparseLongArray unused = mUnusedPrefetchedNodes.get(windowId);
+                if (unused == null) {
+                    unused = new LongSparseLongArray();
+                    mUnusedPrefetchedNodes.put(windowId, unused);
+                }
+                unused.put(sourceId, 1);
+                mPrefetchedCount++;
+                if (++mPrefetchSample > MAX_PREFETCH_SAMPLE) {
+                    mPrefetchSample /= 2;
+                    mPrefetchUsedSample /= 2;
+                }
+            }
+        }
+    }
+
+    private static void addChildIds(AccessibilityNodeInfo info, LongArray ids) {
+        final int childCount = info.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            ids.add(info.getChildId(i));
+        }
+    }
+
+    /**
+     * Adapts the prefetch flags of a request that missed the cache to how many of the
+     * descendants prefetched recently were used.  When few were, descendants are no longer prefetched,
+     * except for an occasional request that keeps sampling whether they would be used now.
+     *
+     * @param requestedFlags The prefetch flags the caller asked for.
+     * @return The prefetch flags to send.
+     */
+    public int getPrefetchFlags(int requestedFlags) {
+        synchronized (mLock) {
+            if ((requestedFlags & AccessibilityNodeInfo.FLAG_PREFETCH_DESCENDANTS) == 0
+                    || mPrefetchSample < MIN_PREFETCH_SAMPLE
+                    || mPrefetchUsedSample * PREFETCH_PROBE_INTERVAL >= mPrefetchSample) {
+                return requestedFlags;
+            }
+            if (++mPrefetchTrimmedCount % PREFETCH_PROBE_INTERVAL == 0) {
+                return requestedFlags;
+            }
+            return requestedFlags & ~AccessibilityNodeInfo.FLAG_PREFETCH_DESCENDANTS;
+        }
+    }
+
+    @VisibleForTesting
+    void setMaxBytes(long maxBytes) {
+        synchronized (mLock) {
+            mMaxBytes = maxBytes;
+        }
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        synchronized (mLock) {
+            int nodeCount = 0;
+            for (int i = 0; i < mNodeCache.size(); i++) {
+                nodeCount += mNodeCache.valueAt(i).size();
+            }
+            pw.print(prefix); pw.print("AccessibilityCache: windows="); pw.print(mNodeCache.size());
+                    pw.print(" nodes="); pw.print(nodeCount);
+                    pw.print(" bytes="); pw.print(mBytes); pw.print('/'); pw.println(mMaxBytes);
+            pw.print(prefix); pw.print("  hits="); pw.print(mHitCount);
+                    pw.print(" misses="); pw.print(mMissCount);
+                    pw.print(" evictedWindows="); pw.println(mEvictedWindowCount);
+            pw.print(prefix); pw.print("  prefetchedDescendants="); pw.print(mPrefetchedCount);
+                    pw.print(" prefetchedUsed="); pw.print(mPrefetchUsedCount);
+                    pw.print(" recentlyUsed="); pw.print(mPrefetchUsedSample);
+                    pw.print('/'); pw.println(mPrefetchSample);
+        }
+    }
+
+    private void onNodeAddedLocked(int windowId, long sourceId, AccessibilityNodeInfo info) {
+        // The node may replace one that was not removed first, which stays unused if it was.
+        removeNodeBytesLocked(windowId, sourceId);
+        LongSparseLongArray nodeBytes = mNodeBytes.get(windowId);
+        if (nodeBytes == null) {
+            nodeBytes = new LongSparseLongArray();
+            mNodeBytes.put(windowId, nodeBytes);
+        }
+        final long bytes = estimateBytes(info);
+        nodeBytes.put(sourceId, bytes);
+        mWindowBytes.put(windowId, mWindowBytes.get(windowId) + bytes);
+        mWindowLastAccess.put(windowId, ++mAccessSequence);
+        mBytes += bytes;
+    }
+
+    private void onNodeRemovedLocked(int windowId, long sourceId) {
+        removeNodeBytesLocked(windowId, sourceId);
+        final LongSparseLongArray unused = mUnusedPrefetchedNodes.get(windowId);
+        final int unusedIndex = unused != null ? unused.indexOfKey(sourceId) : -1;
+        if (unusedIndex >= 0) {
+            unused.removeAt(unusedIndex);
+            forgetUnusedPrefetchedLocked(1);
+        }
+    }
+
+    private void removeNodeBytesLocked(int windowId, long sourceId) {
+        final LongSparseLongArray nodeBytes = mNodeBytes.get(windowId);
+        final int index = nodeBytes != null ? nodeBytes.indexOfKey(sourceId) : -1;
+        if (index >= 0) {
+            final long bytes = nodeBytes.valueAt(index);
+            nodeBytes.removeAt(index);
+            mWindowBytes.put(windowId, mWindowBytes.get(windowId) - bytes);
+            mBytes -= bytes;
+        }
+    }
+
+    /**
+     * Drops prefetched nodes that were removed from the cache before they were read from the
+     * sample, as they tell nothing about whether they would have been used.  The sample may
+     * have been halved since they were added to it, so it never drops below the used nodes.
+     */
+    private void forgetUnusedPrefetchedLocked(int count) {
+        mPrefetchSample = Math.max(mPrefetchUsedSample, mPrefetchSample - count);
+    }
+
+    /**
+     * Evicts the nodes of the least recently used windows until the cache fits its budget.
+     * The nodes of the window being added to are kept even if they alone exceed it, since
+     * they are the ones the client is walking.
+     */
+    private void trimToSizeLocked(int keepWindowId) {
+        while (mBytes > mMaxBytes) {
+            int lruWindowId = -1;
+            long lruAccess = Long.MAX_VALUE;
+            for (int i = 0; i < mNodeCache.size(); i++) {
+                final int windowId = mNodeCache.keyAt(i);
+                final long access = mWindowLastAccess.get(windowId);
+                if (windowId != keepWindowId && access < lruAccess) {
+                    lruWindowId = windowId;
+                    lruAccess = access;
+                }
+            }
+            if (lruAccess == Long.MAX_VALUE) {
+                return;
+            }
+            if (DEBUG) {
+                Log.i(LOG_TAG, "Evicting nodes of window " + lruWindowId);
+            }
+            clearNodesForWindowLocked(lruWindowId);
+            mEvictedWindowCount++;
         }
     }
 
+    private static long estimateBytes(AccessibilityNodeInfo info) {
+        // Strings take two bytes per char; child ids take eight bytes each.
+        return NODE_BASE_BYTES
+                + 2 * (length(info.getText()) + length(info.getContentDescription())
+                        + length(info.getClassName()) + length(info.getPackageName())
+                        + length(info.getViewIdResourceName()))
+                + 8 * info.getChildCount();
+    }
+
+    private static int length(CharSequence text) {
+        return TextUtils.isEmpty(text) ? 0 : text.length();
+    }
+
     /**
      * Clears the cache.
      */
@@ -393,6 +675,15 @@ public class AccessibilityCache {
             info.recycle();
         }
         mNodeCache.remove(windowId);
+        mBytes -= mWindowBytes.get(windowId);
+        mWindowBytes.delete(windowId);
+        mNodeBytes.remove(windowId);
+        mWindowLastAccess.delete(windowId);
+        final LongSparseLongArray unused = mUnusedPrefetchedNodes.get(windowId);
+        if (unused != null) {
+            forgetUnusedPrefetchedLocked(unused.size());
+            mUnusedPrefetchedNodes.remove(windowId);
+        }
     }
 
     /**
@@ -408,7 +699,7 @@ public class AccessibilityCache {
         }
         LongSparseArray<AccessibilityNodeInfo> nodes = mNodeCache.get(windowId);
         if (nodes != null) {
-            clearSubTreeRecursiveLocked(nodes, rootNodeId);
+            clearSubTreeRecursiveLocked(windowId, nodes, rootNodeId);
         }
     }
 
@@ -416,13 +707,14 @@ public class AccessibilityCache {
      * Clears a subtree given a pointer to the root id and the nodes
      * in the hosting window.
      *
+     * @param windowId The id of the hosting window.
      * @param nodes The nodes in the hosting window.
      * @param rootNodeId The id of the root to evict.
      *
      * @return {@code true} if the cache was cleared
      */
-    private boolean clearSubTreeRecursiveLocked(LongSparseArray<AccessibilityNodeInfo> nodes,
-            long rootNodeId) {
+    private boolean clearSubTreeRecursiveLocked(int windowId,
+            LongSparseArray<AccessibilityNodeInfo> nodes, long rootNodeId) {
         AccessibilityNodeInfo current = nodes.get(rootNodeId);
         if (current == null) {
             // The node isn't in the cache, but its descendents might be.
@@ -430,10 +722,11 @@ public class AccessibilityCache {
             return true;
         }
         nodes.remove(rootNodeId);
+        onNodeRemovedLocked(windowId, rootNodeId);
         final int childCount = current.getChildCount();
         for (int i = 0; i < childCount; i++) {
             final long childNodeId = current.getChildId(i);
-            if (clearSubTreeRecursiveLocked(nodes, childNodeId)) {
+            if (clearSubTreeRecursiveLocked(windowId, nodes, childNodeId)) {
                 current.recycle();
                 return true;
             }
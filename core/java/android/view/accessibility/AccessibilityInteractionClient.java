@@ -25,12 +25,14 @@ import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemClock;
 import android.util.Log;
+import android.util.LongArray;
 import android.util.LongSparseArray;
 import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.ArrayUtils;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -335,6 +337,7 @@ public final class AccessibilityInteractionClient
                         Log.i(LOG_TAG, "Node cache miss for "
                                 + idToString(accessibilityWindowId, accessibilityNodeId));
                     }
+                    prefetchFlags = sAccessibilityCache.getPrefetchFlags(prefetchFlags);
                 }
                 final int interactionId = mInteractionIdCounter.getAndIncrement();
                 final long identityToken = Binder.clearCallingIdentity();
@@ -349,9 +352,18 @@ public final class AccessibilityInteractionClient
                 if (packageNames != null) {
                     List<AccessibilityNodeInfo> infos = getFindAccessibilityNodeInfosResultAndClear(
                             interactionId);
+                    // Before the nodes are cached, to leave out those that were already.
+                    final LongArray prefetchedDescendants =
+                            !bypassCache && infos != null && !infos.isEmpty()
+                                    ? sAccessibilityCache.getUncachedPrefetchedDescendants(infos)
+                                    : null;
                     finalizeAndCacheAccessibilityNodeInfos(infos, connectionId,
                             bypassCache, packageNames);
                     if (infos != null && !infos.isEmpty()) {
+                        if (prefetchedDescendants != null) {
+                            sAccessibilityCache.notePrefetchedDescendants(
+                                    infos.get(0).getWindowId(), prefetchedDescendants);
+                        }
                         for (int i = 1; i < infos.size(); i++) {
                             infos.get(i).recycle();
                         }
@@ -629,6 +641,13 @@ public final class AccessibilityInteractionClient
         sAccessibilityCache.clear();
     }
 
+    /**
+     * Dumps the size, hit rate and prefetch usage of the node cache.
+     */
+    public static void dumpCache(PrintWriter pw, String prefix) {
+        sAccessibilityCache.dump(pw, prefix);
+    }
+
     public void onAccessibilityEvent(AccessibilityEvent event) {
         sAccessibilityCache.onAccessibilityEvent(event);
     }
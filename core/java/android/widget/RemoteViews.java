@@ -21,6 +21,7 @@ import static android.app.WindowConfiguration.WINDOWING_MODE_UNDEFINED;
 import android.annotation.ColorInt;
 import android.annotation.DimenRes;
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.annotation.StyleRes;
 import android.app.ActivityOptions;
 import android.app.ActivityThread;
@@ -56,7 +57,9 @@ import android.os.StrictMode;
 import android.os.UserHandle;
 import android.text.TextUtils;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
+import android.util.SparseBooleanArray;
 import android.view.ContextThemeWrapper;
 import android.view.LayoutInflater;
 import android.view.LayoutInflater.Filter;
@@ -80,6 +83,7 @@ import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -231,6 +235,37 @@ public class RemoteViews implements Parcelable, Filter {
      */
     private static final MethodKey sLookupKey = new MethodKey();
 
+    /**
+     * Methods called by {@link ReflectionAction} and {@link BitmapReflectionAction} that only
+     * set a property of their view, so that calling them again with the same argument has no
+     * further effect. Others, such as setDisplayedChild() or smoothScrollToPosition(), act on
+     * state the user may have changed since, and are called on every reapply.
+     */
+    private static final ArraySet<String> IDEMPOTENT_METHODS = new ArraySet<>(Arrays.asList(
+            "setAccessibilityTraversalAfter",
+            "setAccessibilityTraversalBefore",
+            "setAlpha",
+            "setBackgroundColor",
+            "setBackgroundResource",
+            "setBase",
+            "setContentDescription",
+            "setCountDown",
+            "setEnabled",
+            "setFormat",
+            "setImageAlpha",
+            "setImageBitmap",
+            "setImageIcon",
+            "setImageResource",
+            "setImageURI",
+            "setIndeterminate",
+            "setLabelFor",
+            "setMax",
+            "setProgress",
+            "setStarted",
+            "setText",
+            "setTextColor",
+            "setVisibility"));
+
     /**
      * @hide
      */
@@ -457,6 +492,38 @@ public class RemoteViews implements Parcelable, Filter {
             // Nothing to visit by default
         }
 
+        /**
+         * Whether applying this action again with the same arguments has no further effect,
+         * and its effect is confined to its own view, so that reapplying an unchanged copy of
+         * it can be skipped. Overridden by subclasses which only set properties of their view.
+         * Actions whose effect depends on the {@link OnClickHandler} they are applied with
+         * are not idempotent, as it may have changed since.
+         */
+        public boolean isIdempotent() {
+            return false;
+        }
+
+        /**
+         * Whether this action has the same arguments as {@code other}, which is of the same
+         * class and has the same unique key. Compares the parceled actions, using the given
+         * scratch parcels.
+         */
+        public boolean isSameAs(Action other, Parcel parcel, Parcel otherParcel) {
+            parcel.setDataSize(0);
+            otherParcel.setDataSize(0);
+            writeToParcel(parcel, 0);
+            other.writeToParcel(otherParcel, 0);
+            return parcel.compareData(otherParcel) == 0;
+        }
+
+        /**
+         * Whether this action holds bitmaps outside of the {@link BitmapCache}, such as bitmap
+         * icons, whose pixels are copied whenever the action is parceled.
+         */
+        public boolean hasBitmaps() {
+            return false;
+        }
+
         int viewId;
     }
 
@@ -545,6 +612,11 @@ public class RemoteViews implements Parcelable, Filter {
         }
     }
 
+    private static boolean isBitmapIcon(Icon icon) {
+        return icon != null && (icon.getType() == Icon.TYPE_BITMAP
+                || icon.getType() == Icon.TYPE_ADAPTIVE_BITMAP);
+    }
+
     private static void visitIconUri(Icon icon, @NonNull Consumer<Uri> visitor) {
         if (icon != null && icon.getType() == Icon.TYPE_URI) {
             visitor.accept(icon.getUri());
@@ -1101,6 +1173,11 @@ public class RemoteViews implements Parcelable, Filter {
             }
         }
 
+        @Override
+        public boolean isIdempotent() {
+            return true;
+        }
+
         @Override
         public int getActionTag() {
             return SET_DRAWABLE_TINT_TAG;
@@ -1172,6 +1249,14 @@ public class RemoteViews implements Parcelable, Filter {
                 if (mBitmaps.contains(b)) {
                     return mBitmaps.indexOf(b);
                 } else {
+                    // Providers often decode the same image again for each view or update;
+                    // parcel its pixels only once.
+                    final int count = mBitmaps.size();
+                    for (int i = 0; i < count; i++) {
+                        if (isSameBitmap(mBitmaps.get(i), b)) {
+                            return i;
+                        }
+                    }
                     mBitmaps.add(b);
                     mBitmapMemory = -1;
                     return (mBitmaps.size() - 1);
@@ -1179,6 +1264,23 @@ public class RemoteViews implements Parcelable, Filter {
             }
         }
 
+        /**
+         * Whether both bitmaps are null or have the same size, configuration and pixels.
+         * Hardware bitmaps are only the same as themselves, as reading their pixels is slow.
+         */
+        static boolean isSameBitmap(Bitmap a, Bitmap b) {
+            if (a == b) {
+                return true;
+            }
+            if (a == null || b == null || a.isRecycled() || b.isRecycled()
+                    || a.getConfig() == Bitmap.Config.HARDWARE
+                    || b.getConfig() == Bitmap.Config.HARDWARE
+                    || a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+                return false;
+            }
+            return a.sameAs(b);
+        }
+
         public Bitmap getBitmapForId(int id) {
             if (id == -1 || id >= mBitmaps.size()) {
                 return null;
@@ -1242,6 +1344,19 @@ public class RemoteViews implements Parcelable, Filter {
             bitmapId = bitmapCache.getBitmapId(bitmap);
         }
 
+        @Override
+        public boolean isIdempotent() {
+            return IDEMPOTENT_METHODS.contains(methodName);
+        }
+
+        @Override
+        public boolean isSameAs(Action other, Parcel parcel, Parcel otherParcel) {
+            // Only the id of the bitmap is parceled, which says nothing about its contents.
+            final Bitmap otherBitmap = ((BitmapReflectionAction) other).bitmap;
+            return methodName.equals(((BitmapReflectionAction) other).methodName)
+                    && BitmapCache.isSameBitmap(bitmap, otherBitmap);
+        }
+
         @Override
         public int getActionTag() {
             return BITMAP_REFLECTION_ACTION_TAG;
@@ -1504,6 +1619,25 @@ public class RemoteViews implements Parcelable, Filter {
             }
         }
 
+        @Override
+        public boolean isIdempotent() {
+            return IDEMPOTENT_METHODS.contains(methodName);
+        }
+
+        @Override
+        public boolean isSameAs(Action other, Parcel parcel, Parcel otherParcel) {
+            if (hasBitmaps() || other.hasBitmaps()) {
+                // Avoid copying the pixels; only the same icon is known to be the same.
+                return value == ((ReflectionAction) other).value;
+            }
+            return super.isSameAs(other, parcel, otherParcel);
+        }
+
+        @Override
+        public boolean hasBitmaps() {
+            return type == ICON && isBitmapIcon((Icon) value);
+        }
+
         @Override
         public int getActionTag() {
             return REFLECTION_ACTION_TAG;
@@ -1662,6 +1796,11 @@ public class RemoteViews implements Parcelable, Filter {
             return mNestedViews.prefersAsyncApply();
         }
 
+        @Override
+        public boolean hasBitmaps() {
+            return mNestedViews.hasBitmaps();
+        }
+
         @Override
         public int getActionTag() {
             return VIEW_GROUP_ACTION_ADD_TAG;
@@ -1893,6 +2032,28 @@ public class RemoteViews implements Parcelable, Filter {
             return useIcons;
         }
 
+        @Override
+        public boolean isIdempotent() {
+            return true;
+        }
+
+        @Override
+        public boolean isSameAs(Action other, Parcel parcel, Parcel otherParcel) {
+            if (hasBitmaps() || other.hasBitmaps()) {
+                // Avoid copying the pixels; only the same icons are known to be the same.
+                final TextViewDrawableAction o = (TextViewDrawableAction) other;
+                return isRelative == o.isRelative && useIcons == o.useIcons
+                        && i1 == o.i1 && i2 == o.i2 && i3 == o.i3 && i4 == o.i4;
+            }
+            return super.isSameAs(other, parcel, otherParcel);
+        }
+
+        @Override
+        public boolean hasBitmaps() {
+            return useIcons && (isBitmapIcon(i1) || isBitmapIcon(i2) || isBitmapIcon(i3)
+                    || isBitmapIcon(i4));
+        }
+
         @Override
         public int getActionTag() {
             return TEXT_VIEW_DRAWABLE_ACTION_TAG;
@@ -1946,6 +2107,11 @@ public class RemoteViews implements Parcelable, Filter {
             target.setTextSize(units, size);
         }
 
+        @Override
+        public boolean isIdempotent() {
+            return true;
+        }
+
         @Override
         public int getActionTag() {
             return TEXT_VIEW_SIZE_ACTION_TAG;
@@ -1990,6 +2156,11 @@ public class RemoteViews implements Parcelable, Filter {
             target.setPadding(left, top, right, bottom);
         }
 
+        @Override
+        public boolean isIdempotent() {
+            return true;
+        }
+
         @Override
         public int getActionTag() {
             return VIEW_PADDING_ACTION_TAG;
@@ -2080,6 +2251,11 @@ public class RemoteViews implements Parcelable, Filter {
             return target.getContext().getResources().getDimensionPixelOffset(value);
         }
 
+        @Override
+        public boolean isIdempotent() {
+            return true;
+        }
+
         @Override
         public int getActionTag() {
             return LAYOUT_PARAM_ACTION_TAG;
@@ -2119,6 +2295,11 @@ public class RemoteViews implements Parcelable, Filter {
             target.setTagInternal(R.id.remote_input_tag, remoteInputs);
         }
 
+        @Override
+        public boolean isIdempotent() {
+            return true;
+        }
+
         @Override
         public int getActionTag() {
             return SET_REMOTE_INPUTS_ACTION_TAG;
@@ -3396,13 +3577,15 @@ public class RemoteViews implements Parcelable, Filter {
 
     private AsyncApplyTask getAsyncApplyTask(Context context, ViewGroup parent,
             OnViewAppliedListener listener, OnClickHandler handler) {
-        return new AsyncApplyTask(getRemoteViewsToApply(context), parent, context, listener,
+        final RemoteViews rvToApply = getRemoteViewsToApply(context);
+        return new AsyncApplyTask(rvToApply, rvToApply.mActions, parent, context, listener,
                 handler, null);
     }
 
     private class AsyncApplyTask extends AsyncTask<Void, Void, ViewTree>
             implements CancellationSignal.OnCancelListener {
         final RemoteViews mRV;
+        final ArrayList<Action> mActionsToApply;
         final ViewGroup mParent;
         final Context mContext;
         final OnViewAppliedListener mListener;
@@ -3413,10 +3596,11 @@ public class RemoteViews implements Parcelable, Filter {
         private Action[] mActions;
         private Exception mError;
 
-        private AsyncApplyTask(
-                RemoteViews rv, ViewGroup parent, Context context, OnViewAppliedListener listener,
+        private AsyncApplyTask(RemoteViews rv, ArrayList<Action> actionsToApply,
+                ViewGroup parent, Context context, OnViewAppliedListener listener,
                 OnClickHandler handler, View result) {
             mRV = rv;
+            mActionsToApply = actionsToApply;
             mParent = parent;
             mContext = context;
             mListener = listener;
@@ -3434,12 +3618,13 @@ public class RemoteViews implements Parcelable, Filter {
                 }
 
                 mTree = new ViewTree(mResult);
-                if (mRV.mActions != null) {
-                    int count = mRV.mActions.size();
+                if (mActionsToApply != null) {
+                    int count = mActionsToApply.size();
                     mActions = new Action[count];
                     for (int i = 0; i < count && !isCancelled(); i++) {
                         // TODO: check if isCancelled in nested views.
-                        mActions[i] = mRV.mActions.get(i).initActionAsync(mTree, mParent, mHandler);
+                        mActions[i] = mActionsToApply.get(i).initActionAsync(mTree, mParent,
+                                mHandler);
                     }
                 } else {
                     mActions = null;
@@ -3502,6 +3687,18 @@ public class RemoteViews implements Parcelable, Filter {
 
     /** @hide */
     public void reapply(Context context, View v, OnClickHandler handler) {
+        reapply(context, v, handler, null);
+    }
+
+    /**
+     * Applies the actions to a view that {@code previous} was the last RemoteViews applied to,
+     * skipping the actions that would not change it.
+     *
+     * @param previous The RemoteViews last applied to the view, or null to apply all actions.
+     * @hide
+     */
+    public void reapply(Context context, View v, OnClickHandler handler,
+            @Nullable RemoteViews previous) {
         RemoteViews rvToApply = getRemoteViewsToApply(context);
 
         // In the case that a view has this RemoteViews applied in one orientation, is persisted
@@ -3514,7 +3711,9 @@ public class RemoteViews implements Parcelable, Filter {
             }
         }
 
-        rvToApply.performApply(v, (ViewGroup) v.getParent(), handler);
+        rvToApply.performApply(v, (ViewGroup) v.getParent(), handler,
+                rvToApply.getActionsToReapply(previous != null
+                        ? previous.getRemoteViewsToApply(context) : null));
     }
 
     /**
@@ -3538,6 +3737,18 @@ public class RemoteViews implements Parcelable, Filter {
     /** @hide */
     public CancellationSignal reapplyAsync(Context context, View v, Executor executor,
             OnViewAppliedListener listener, OnClickHandler handler) {
+        return reapplyAsync(context, v, executor, listener, handler, null);
+    }
+
+    /**
+     * Like {@link #reapply(Context, View, OnClickHandler, RemoteViews)}, moving as much of the
+     * task on the background thread as possible.
+     *
+     * @hide
+     */
+    public CancellationSignal reapplyAsync(Context context, View v, Executor executor,
+            OnViewAppliedListener listener, OnClickHandler handler,
+            @Nullable RemoteViews previous) {
         RemoteViews rvToApply = getRemoteViewsToApply(context);
 
         // In the case that a view has this RemoteViews applied in one orientation, is persisted
@@ -3550,21 +3761,136 @@ public class RemoteViews implements Parcelable, Filter {
             }
         }
 
-        return startTaskOnExecutor(new AsyncApplyTask(rvToApply, (ViewGroup) v.getParent(),
-                context, listener, handler, v), executor);
+        final ArrayList<Action> actionsToApply = rvToApply.getActionsToReapply(
+                previous != null ? previous.getRemoteViewsToApply(context) : null);
+        return startTaskOnExecutor(new AsyncApplyTask(rvToApply, actionsToApply,
+                (ViewGroup) v.getParent(), context, listener, handler, v), executor);
     }
 
     private void performApply(View v, ViewGroup parent, OnClickHandler handler) {
-        if (mActions != null) {
+        performApply(v, parent, handler, mActions);
+    }
+
+    private static void performApply(View v, ViewGroup parent, OnClickHandler handler,
+            ArrayList<Action> actions) {
+        if (actions != null) {
             handler = handler == null ? DEFAULT_ON_CLICK_HANDLER : handler;
-            final int count = mActions.size();
+            final int count = actions.size();
             for (int i = 0; i < count; i++) {
-                Action a = mActions.get(i);
+                Action a = actions.get(i);
                 a.apply(v, parent, handler);
             }
         }
     }
 
+    /**
+     * Returns the actions that need to be applied to a view that {@code previous} was last
+     * applied to, for it to end up as if all actions of this were applied.
+     *
+     * <p>That is all actions, unless both have the same layout and the same actions in the same
+     * order, all of them idempotent, differing only in their arguments. Then only the actions
+     * on views with at least one changed action are applied again, in order, so that the last
+     * action setting a property still wins.
+     */
+    private ArrayList<Action> getActionsToReapply(@Nullable RemoteViews previous) {
+        if (previous == null || previous == this || previous.mLayoutId != mLayoutId
+                || mActions == null || previous.mActions == null
+                || previous.mActions.size() != mActions.size()) {
+            return mActions;
+        }
+        final int count = mActions.size();
+        final SparseBooleanArray changedViews = new SparseBooleanArray();
+        final Parcel parcel = Parcel.obtain();
+        final Parcel previousParcel = Parcel.obtain();
+        try {
+            for (int i = 0; i < count; i++) {
+                final Action a = mActions.get(i);
+                final Action previousAction = previous.mActions.get(i);
+                if (!a.isIdempotent() || a.getClass() != previousAction.getClass()
+                        || a.viewId != previousAction.viewId
+                        || !a.getUniqueKey().equals(previousAction.getUniqueKey())) {
+                    return mActions;
+                }
+                if (!changedViews.get(a.viewId)
+                        && !a.isSameAs(previousAction, parcel, previousParcel)) {
+                    changedViews.put(a.viewId, true);
+                }
+            }
+        } finally {
+            parcel.recycle();
+            previousParcel.recycle();
+        }
+
+        final ArrayList<Action> actions = new ArrayList<>(changedViews.size());
+        for (int i = 0; i < count; i++) {
+            final Action a = mActions.get(i);
+            if (changedViews.get(a.viewId)) {
+                actions.add(a);
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * Returns whether applying {@code other} would have exactly the same effect as applying
+     * this: same application, layouts, bitmaps and actions. Conservative, RemoteViews holding
+     * file descriptors, such as large bitmaps, are never the same.
+     *
+     * @hide
+     */
+    public boolean isSameAs(@Nullable RemoteViews other) {
+        if (other == this) {
+            return true;
+        }
+        if (other == null) {
+            return false;
+        }
+        // Callers may hold a lock, so rule out views that differ in shape before parceling.
+        // Parceling bitmaps would copy their pixels, possibly into ashmem, where they never
+        // compare as the same, so views holding any are never the same.
+        if (mLayoutId != other.mLayoutId
+                || hasLandscapeAndPortraitLayouts() != other.hasLandscapeAndPortraitLayouts()
+                || getActionCount() != other.getActionCount()
+                || hasBitmaps() || other.hasBitmaps()) {
+            return false;
+        }
+        final Parcel parcel = Parcel.obtain();
+        final Parcel otherParcel = Parcel.obtain();
+        try {
+            writeToParcel(parcel, 0);
+            other.writeToParcel(otherParcel, 0);
+            return !parcel.hasFileDescriptors() && parcel.compareData(otherParcel) == 0;
+        } finally {
+            parcel.recycle();
+            otherParcel.recycle();
+        }
+    }
+
+    private int getActionCount() {
+        return mActions != null ? mActions.size() : 0;
+    }
+
+    /**
+     * Returns whether this or any RemoteViews nested in it holds bitmaps.
+     */
+    private boolean hasBitmaps() {
+        if (!mBitmapCache.mBitmaps.isEmpty()) {
+            return true;
+        }
+        if (hasLandscapeAndPortraitLayouts()) {
+            return mLandscape.hasBitmaps() || mPortrait.hasBitmaps();
+        }
+        if (mActions != null) {
+            final int count = mActions.size();
+            for (int i = 0; i < count; i++) {
+                if (mActions.get(i).hasBitmaps()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns true if the RemoteViews contains potentially costly operations and should be
      * applied asynchronously.
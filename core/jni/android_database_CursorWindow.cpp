@@ -34,6 +34,8 @@
 #include <sys/types.h>
 #include <dirent.h>
 
+#include <memory>
+
 #undef LOG_NDEBUG
 #define LOG_NDEBUG 1
 
@@ -364,66 +366,112 @@ static void nativeCopyStringToBuffer(JNIEnv* env, jclass clazz, jlong windowPtr,
     }
 }
 
-static jlong nativeGetLong(JNIEnv* env, jclass clazz, jlong windowPtr,
-        jint row, jint column) {
-    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
-    LOG_WINDOW("Getting long for %d,%d from %p", row, column, window);
-
+// Reads a field as a long, converting as documented for CursorWindow.getLong.
+// Returns false with a pending exception if the field can't be read.
+static bool readFieldLong(JNIEnv* env, CursorWindow* window, jint row, jint column,
+        jlong* outValue) {
     CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row, column);
     if (!fieldSlot) {
         throwExceptionWithRowCol(env, row, column);
-        return 0;
+        return false;
     }
 
     int32_t type = window->getFieldSlotType(fieldSlot);
     if (type == CursorWindow::FIELD_TYPE_INTEGER) {
-        return window->getFieldSlotValueLong(fieldSlot);
+        *outValue = window->getFieldSlotValueLong(fieldSlot);
     } else if (type == CursorWindow::FIELD_TYPE_STRING) {
         size_t sizeIncludingNull;
         const char* value = window->getFieldSlotValueString(fieldSlot, &sizeIncludingNull);
-        return sizeIncludingNull > 1 ? strtoll(value, NULL, 0) : 0L;
+        *outValue = sizeIncludingNull > 1 ? strtoll(value, NULL, 0) : 0L;
     } else if (type == CursorWindow::FIELD_TYPE_FLOAT) {
-        return jlong(window->getFieldSlotValueDouble(fieldSlot));
+        *outValue = jlong(window->getFieldSlotValueDouble(fieldSlot));
     } else if (type == CursorWindow::FIELD_TYPE_NULL) {
-        return 0;
+        *outValue = 0;
     } else if (type == CursorWindow::FIELD_TYPE_BLOB) {
         throw_sqlite3_exception(env, "Unable to convert BLOB to long");
-        return 0;
+        return false;
     } else {
         throwUnknownTypeException(env, type);
-        return 0;
+        return false;
     }
+    return true;
 }
 
-static jdouble nativeGetDouble(JNIEnv* env, jclass clazz, jlong windowPtr,
-        jint row, jint column) {
-    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
-    LOG_WINDOW("Getting double for %d,%d from %p", row, column, window);
-
+// Reads a field as a double, converting as documented for CursorWindow.getDouble.
+// Returns false with a pending exception if the field can't be read.
+static bool readFieldDouble(JNIEnv* env, CursorWindow* window, jint row, jint column,
+        jdouble* outValue) {
     CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row, column);
     if (!fieldSlot) {
         throwExceptionWithRowCol(env, row, column);
-        return 0.0;
+        return false;
     }
 
     int32_t type = window->getFieldSlotType(fieldSlot);
     if (type == CursorWindow::FIELD_TYPE_FLOAT) {
-        return window->getFieldSlotValueDouble(fieldSlot);
+        *outValue = window->getFieldSlotValueDouble(fieldSlot);
     } else if (type == CursorWindow::FIELD_TYPE_STRING) {
         size_t sizeIncludingNull;
         const char* value = window->getFieldSlotValueString(fieldSlot, &sizeIncludingNull);
-        return sizeIncludingNull > 1 ? strtod(value, NULL) : 0.0;
+        *outValue = sizeIncludingNull > 1 ? strtod(value, NULL) : 0.0;
     } else if (type == CursorWindow::FIELD_TYPE_INTEGER) {
-        return jdouble(window->getFieldSlotValueLong(fieldSlot));
+        *outValue = jdouble(window->getFieldSlotValueLong(fieldSlot));
     } else if (type == CursorWindow::FIELD_TYPE_NULL) {
-        return 0.0;
+        *outValue = 0.0;
     } else if (type == CursorWindow::FIELD_TYPE_BLOB) {
         throw_sqlite3_exception(env, "Unable to convert BLOB to double");
-        return 0.0;
+        return false;
     } else {
         throwUnknownTypeException(env, type);
-        return 0.0;
+        return false;
+    }
+    return true;
+}
+
+static jlong nativeGetLong(JNIEnv* env, jclass clazz, jlong windowPtr,
+        jint row, jint column) {
+    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
+    LOG_WINDOW("Getting long for %d,%d from %p", row, column, window);
+
+    jlong value;
+    return readFieldLong(env, window, row, column, &value) ? value : 0;
+}
+
+static jdouble nativeGetDouble(JNIEnv* env, jclass clazz, jlong windowPtr,
+        jint row, jint column) {
+    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
+    LOG_WINDOW("Getting double for %d,%d from %p", row, column, window);
+
+    jdouble value;
+    return readFieldDouble(env, window, row, column, &value) ? value : 0.0;
+}
+
+static void nativeGetLongColumn(JNIEnv* env, jclass clazz, jlong windowPtr,
+        jint startRow, jint column, jlongArray dstObj, jint dstOffset, jint count) {
+    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
+    LOG_WINDOW("Getting %d longs from %d,%d in %p", count, startRow, column, window);
+
+    std::unique_ptr<jlong[]> values(new jlong[count]);
+    for (jint i = 0; i < count; i++) {
+        if (!readFieldLong(env, window, startRow + i, column, &values[i])) {
+            return;
+        }
+    }
+    env->SetLongArrayRegion(dstObj, dstOffset, count, values.get());
+}
+
+static void nativeGetDoubleColumn(JNIEnv* env, jclass clazz, jlong windowPtr,
+        jint startRow, jint column, jdoubleArray dstObj, jint dstOffset, jint count) {
+    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
+    LOG_WINDOW("Getting %d doubles from %d,%d in %p", count, startRow, column, window);
+
+    std::unique_ptr<jdouble[]> values(new jdouble[count]);
+    for (jint i = 0; i < count; i++) {
+        if (!readFieldDouble(env, window, startRow + i, column, &values[i])) {
+            return;
+        }
     }
+    env->SetDoubleArrayRegion(dstObj, dstOffset, count, values.get());
 }
 
 static jboolean nativePutBlob(JNIEnv* env, jclass clazz, jlong windowPtr,
@@ -532,6 +580,10 @@ static const JNINativeMethod sMethods[] =
             (void*)nativePutBlob },
     { "nativePutString", "(JLjava/lang/String;II)Z",
             (void*)nativePutString },
+    { "nativeGetLongColumn", "(JII[JII)V",
+            (void*)nativeGetLongColumn },
+    { "nativeGetDoubleColumn", "(JII[DII)V",
+            (void*)nativeGetDoubleColumn },
 
     // ------- @FastNative below here ----------------------
     { "nativeClear", "(J)V",
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app.assist;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.app.assist.AssistStructure.ViewNode;
+import android.app.assist.AssistStructure.ViewNodeBuilder;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.ViewStructure;
+import android.view.autofill.AutofillId;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ViewNodeBuilderTest {
+
+    private static ViewNodeBuilder newBuilder() {
+        return new ViewNodeBuilder(new AssistStructure(), new ViewNode(), false);
+    }
+
+    @Test
+    public void testCachedNode_isReusedAsChild() {
+        final ViewNodeBuilder first = newBuilder();
+        first.setAutofillId(new AutofillId(42));
+        first.setChildCount(1);
+        first.newChild(0).setAutofillId(new AutofillId(43));
+        final Object cached = first.getCachedNode();
+        assertNotNull(cached);
+
+        final ViewNodeBuilder parent = newBuilder();
+        parent.setChildCount(1);
+        assertTrue(parent.setCachedChild(0, cached));
+        assertSame(cached, parent.mNode.getChildAt(0));
+    }
+
+    @Test
+    public void testNodeWithVirtualChildren_isNotCached() {
+        final ViewNodeBuilder builder = newBuilder();
+        final AutofillId id = new AutofillId(42);
+        builder.setAutofillId(id);
+        builder.setChildCount(1);
+        final ViewStructure child = builder.newChild(0);
+        child.setAutofillId(id, 1);
+
+        assertNull(builder.getCachedNode());
+    }
+}
@@ -74,6 +74,41 @@ public class CursorWindowTest extends TestCase implements PerformanceTestCase {
         window.close();
     }
 
+    @SmallTest
+    public void testGetColumn() {
+        CursorWindow window = new CursorWindow("MyWindow");
+        window.setStartPosition(10);
+        assertTrue(window.setNumColumns(2));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(window.allocRow());
+            assertTrue(window.putLong(i * 100, 10 + i, 0));
+            assertTrue(window.putString(Double.toString(i + 0.5), 10 + i, 1));
+        }
+        assertTrue(window.allocRow());
+        assertTrue(window.putNull(15, 0));
+        assertTrue(window.putNull(15, 1));
+
+        long[] longs = new long[8];
+        window.getLongColumn(11, 0, longs, 2, 5);
+        assertTrue(Arrays.equals(new long[] {0, 0, 100, 200, 300, 400, 0, 0}, longs));
+
+        double[] doubles = new double[6];
+        window.getDoubleColumn(10, 1, doubles, 0, 6);
+        assertTrue(Arrays.equals(new double[] {0.5, 1.5, 2.5, 3.5, 4.5, 0.0}, doubles));
+
+        try {
+            window.getLongColumn(10, 0, longs, 4, 5);
+            fail("Expected ArrayIndexOutOfBoundsException");
+        } catch (ArrayIndexOutOfBoundsException expected) {
+        }
+        try {
+            window.getLongColumn(14, 0, longs, 0, 3);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        window.close();
+    }
+
     private void doTestValues(CursorWindow window) {
         assertTrue(window.setNumColumns(7));
         assertTrue(window.allocRow());
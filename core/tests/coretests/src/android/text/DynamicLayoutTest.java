@@ -35,6 +35,8 @@ import android.util.ArraySet;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Random;
+
 @Presubmit
 @SmallTest
 @RunWith(AndroidJUnit4.class)
@@ -300,4 +302,42 @@ public class DynamicLayoutTest {
         final DynamicLayout layout = builder.build();
         assertEquals(TextDirectionHeuristics.ANYRTL_LTR, layout.getTextDirectionHeuristic());
     }
+
+    private static void assertSameLines(Layout expected, Layout actual) {
+        assertEquals(expected.getLineCount(), actual.getLineCount());
+        for (int i = 0; i < expected.getLineCount(); i++) {
+            assertEquals("start of line " + i, expected.getLineStart(i), actual.getLineStart(i));
+            assertEquals("top of line " + i, expected.getLineTop(i), actual.getLineTop(i));
+            assertEquals("descent of line " + i, expected.getLineDescent(i),
+                    actual.getLineDescent(i));
+        }
+    }
+
+    @Test
+    public void testReflow_editsInLongParagraphMatchFullLayout() {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(20);
+        final int width = 300;
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        final Random random = new Random(1);
+        for (int i = 0; i < 400; i++) {
+            builder.append(i % 7 == 0 ? "internationalization " : "word ");
+        }
+        builder.append("\nsecond paragraph");
+        final DynamicLayout layout = DynamicLayout.Builder.obtain(builder, paint, width)
+                .setIncludePad(false)
+                .build();
+
+        for (int i = 0; i < 200; i++) {
+            final int where = random.nextInt(builder.length());
+            if (random.nextBoolean() && where < builder.length() - 3) {
+                builder.delete(where, where + 1 + random.nextInt(3));
+            } else {
+                builder.insert(where, random.nextBoolean() ? "x" : " wide ");
+            }
+            assertSameLines(DynamicLayout.Builder.obtain(builder.toString(), paint, width)
+                    .setIncludePad(false)
+                    .build(), layout);
+        }
+    }
 }
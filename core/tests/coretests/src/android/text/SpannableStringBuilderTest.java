@@ -17,6 +17,7 @@
 package android.text;
 
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
@@ -24,13 +25,20 @@ import android.platform.test.annotations.Presubmit;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
 import android.text.style.BulletSpan;
+import android.text.style.CharacterStyle;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.MetricAffectingSpan;
 import android.text.style.QuoteSpan;
+import android.text.style.StyleSpan;
 import android.text.style.SubscriptSpan;
 import android.text.style.UnderlineSpan;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Presubmit
 @SmallTest
 @RunWith(AndroidJUnit4.class)
@@ -65,4 +73,87 @@ public class SpannableStringBuilderTest extends SpannableTest {
         assertEquals(second, spans[2]);
         assertEquals(first, spans[3]);
     }
+
+    @Test
+    public void testForEachSpan_matchesGetSpans() {
+        String text = "p_in_s p_in_s p_in_s";
+        SpannableStringBuilder builder = new SpannableStringBuilder(text);
+        builder.setSpan(new UnderlineSpan(), 5, 12, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.setSpan(new StyleSpan(0), 0, 7, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.setSpan(new SubscriptSpan(), 2, 4, 1 << Spanned.SPAN_PRIORITY_SHIFT);
+        builder.setSpan(new QuoteSpan(), 0, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.setSpan(new StyleSpan(1), 3, 3, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        builder.setSpan(new ForegroundColorSpan(0), 10, 18, 2 << Spanned.SPAN_PRIORITY_SHIFT);
+
+        for (int start = 0; start <= text.length(); start++) {
+            for (int end = start; end <= text.length(); end++) {
+                assertVisitsSameSpans(builder, start, end, Object.class);
+                assertVisitsSameSpans(builder, start, end, MetricAffectingSpan.class);
+            }
+        }
+    }
+
+    private static <T> void assertVisitsSameSpans(SpannableStringBuilder builder, int start,
+            int end, Class<T> kind) {
+        final List<Object> visited = new ArrayList<>();
+        builder.forEachSpan(start, end, kind, (span, spanStart, spanEnd, flags) -> {
+            assertEquals(builder.getSpanStart(span), spanStart);
+            assertEquals(builder.getSpanEnd(span), spanEnd);
+            assertEquals(builder.getSpanFlags(span), flags);
+            visited.add(span);
+        });
+        assertArrayEquals(builder.getSpans(start, end, kind), visited.toArray());
+    }
+
+    @Test
+    public void testSetSpans_addsAndMovesSpans() {
+        String text = "p_in_s\np_in_s";
+        SpannableStringBuilder builder = new SpannableStringBuilder(text);
+        Object moved = new UnderlineSpan();
+        builder.setSpan(moved, 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        Object added = new StyleSpan(0);
+        Object paragraph = new QuoteSpan();
+        Object ignored = new SubscriptSpan();
+        builder.setSpans(new Object[] { added, moved, paragraph, ignored },
+                new int[] { 9, 2, 7, 4 }, new int[] { 11, 5, 13, 4 },
+                new int[] { Spanned.SPAN_EXCLUSIVE_EXCLUSIVE, Spanned.SPAN_EXCLUSIVE_INCLUSIVE,
+                        Spanned.SPAN_PARAGRAPH, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE });
+
+        assertEquals(9, builder.getSpanStart(added));
+        assertEquals(11, builder.getSpanEnd(added));
+        assertEquals(2, builder.getSpanStart(moved));
+        assertEquals(5, builder.getSpanEnd(moved));
+        assertEquals(Spanned.SPAN_EXCLUSIVE_INCLUSIVE, builder.getSpanFlags(moved));
+        assertEquals(7, builder.getSpanStart(paragraph));
+        // Zero length SPAN_EXCLUSIVE_EXCLUSIVE spans are ignored, as with setSpan.
+        assertEquals(-1, builder.getSpanStart(ignored));
+
+        assertArrayEquals(new Object[] { moved, added, paragraph },
+                builder.getSpans(0, text.length(), Object.class));
+    }
+
+    @Test
+    public void testGetSpans_afterSpanTypesChange() {
+        SpannableStringBuilder builder = new SpannableStringBuilder("p_in_s");
+        builder.setSpan(new ForegroundColorSpan(0), 0, 6, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        assertEquals(0, builder.getSpans(0, 6, MetricAffectingSpan.class).length);
+        assertEquals(6, builder.nextSpanTransition(0, 6, MetricAffectingSpan.class));
+        assertEquals(1, builder.getSpans(0, 6, CharacterStyle.class).length);
+
+        Object style = new StyleSpan(0);
+        builder.setSpan(style, 2, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        assertArrayEquals(new Object[] { style },
+                builder.getSpans(0, 6, MetricAffectingSpan.class));
+        assertEquals(2, builder.nextSpanTransition(0, 6, MetricAffectingSpan.class));
+
+        builder.removeSpan(style);
+        assertEquals(0, builder.getSpans(0, 6, MetricAffectingSpan.class).length);
+
+        builder.setSpan(style, 2, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.clearSpans();
+        assertEquals(0, builder.getSpans(0, 6, MetricAffectingSpan.class).length);
+        builder.setSpan(style, 2, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        assertEquals(1, builder.getSpans(0, 6, MetricAffectingSpan.class).length);
+    }
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.AttributeSet;
+
+import com.android.frameworks.coretests.R;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class AsyncLayoutInflaterTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private RecordingContext mContext;
+
+    @Before
+    public void setUp() {
+        mContext = new RecordingContext(InstrumentationRegistry.getTargetContext());
+    }
+
+    @Test
+    public void testInflate_inflatesInBackgroundAndDeliversOnUiThread() throws Exception {
+        final Result result = inflate(R.layout.layout_one);
+
+        assertNotNull(result.view);
+        assertEquals(R.id.viewOne, result.view.getId());
+        assertSame(Looper.getMainLooper(), result.looper);
+        assertEquals(1, mContext.inflateLoopers.size());
+        assertTrue(mContext.inflateLoopers.get(0) != Looper.getMainLooper());
+    }
+
+    @Test
+    public void testInflate_retriesOnUiThreadWhenBackgroundInflationFails() throws Exception {
+        mContext.failInBackground = true;
+
+        final Result result = inflate(R.layout.layout_one);
+
+        assertNotNull(result.view);
+        assertEquals(R.id.viewOne, result.view.getId());
+        assertSame(Looper.getMainLooper(), result.looper);
+        assertEquals(2, mContext.inflateLoopers.size());
+        assertTrue(mContext.inflateLoopers.get(0) != Looper.getMainLooper());
+        assertSame(Looper.getMainLooper(), mContext.inflateLoopers.get(1));
+    }
+
+    private Result inflate(int resid) throws InterruptedException {
+        final Result result = new Result();
+        final CountDownLatch latch = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            new AsyncLayoutInflater(mContext).inflate(resid, null, (view, id, parent) -> {
+                result.view = view;
+                result.looper = Looper.myLooper();
+                latch.countDown();
+            });
+        });
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return result;
+    }
+
+    private static class Result {
+        View view;
+        Looper looper;
+    }
+
+    /**
+     * Hands out a LayoutInflater whose factory records the thread each inflation runs on, and
+     * optionally fails inflation off the main thread.
+     */
+    private static class RecordingContext extends ContextWrapper {
+        final List<Looper> inflateLoopers = new ArrayList<>();
+        volatile boolean failInBackground;
+        private LayoutInflater mInflater;
+
+        RecordingContext(Context base) {
+            super(base);
+        }
+
+        @Override
+        public Object getSystemService(String name) {
+            if (!LAYOUT_INFLATER_SERVICE.equals(name)) {
+                return super.getSystemService(name);
+            }
+            if (mInflater == null) {
+                mInflater = LayoutInflater.from(getBaseContext()).cloneInContext(this);
+                mInflater.setFactory2(new LayoutInflater.Factory2() {
+                    @Override
+                    public View onCreateView(View parent, String name, Context context,
+                            AttributeSet attrs) {
+                        final Looper looper = Looper.myLooper();
+                        synchronized (inflateLoopers) {
+                            inflateLoopers.add(looper);
+                        }
+                        if (failInBackground && looper != Looper.getMainLooper()) {
+                            throw new IllegalStateException("Can't inflate off the main thread");
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public View onCreateView(String name, Context context, AttributeSet attrs) {
+                        return onCreateView(null, name, context, attrs);
+                    }
+                });
+            }
+            return mInflater;
+        }
+    }
+}
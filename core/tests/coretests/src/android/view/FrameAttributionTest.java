@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.TextView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class FrameAttributionTest {
+
+    private static String dump(FrameAttribution attribution) {
+        final StringWriter out = new StringWriter();
+        final PrintWriter pw = new PrintWriter(out);
+        attribution.dump("", pw);
+        pw.flush();
+        return out.toString();
+    }
+
+    @Test
+    public void testJankyFrame_chargesNestedSectionsTheirOwnTime() {
+        final FrameAttribution attribution = new FrameAttribution();
+        attribution.beginFrame();
+        attribution.beginSection();
+        attribution.beginSection();
+        SystemClock.sleep(20);
+        attribution.endSection(FrameAttribution.SECTION_MEASURE, TextView.class);
+        attribution.endSection(Choreographer.CALLBACK_TRAVERSAL, Runnable.class);
+        attribution.endFrame(0, 20000000, 0);
+
+        final String dump = dump(attribution);
+        assertTrue(dump, dump.contains("Janky frames: 1 of 1"));
+        final int measure = dump.indexOf("measure " + TextView.class.getName());
+        final int traversal = dump.indexOf("traversal " + Runnable.class.getName());
+        assertTrue(dump, measure >= 0);
+        // The traversal's own time is far below the 20ms spent measuring, so it sorts after.
+        assertTrue(dump, traversal > measure);
+    }
+
+    @Test
+    public void testSmoothFrame_isNotRecorded() {
+        final FrameAttribution attribution = new FrameAttribution();
+        attribution.beginFrame();
+        attribution.beginSection();
+        attribution.endSection(FrameAttribution.SECTION_LAYOUT, TextView.class);
+        attribution.endFrame(0, 1000000, 16000000);
+
+        final String dump = dump(attribution);
+        assertTrue(dump, dump.contains("Janky frames: 0 of 1"));
+        assertFalse(dump, dump.contains(TextView.class.getName()));
+    }
+
+    @Test
+    public void testSmoothFrame_leavesNothingToNextFrame() {
+        final FrameAttribution attribution = new FrameAttribution();
+        attribution.beginFrame();
+        attribution.beginSection();
+        attribution.endSection(FrameAttribution.SECTION_LAYOUT, TextView.class);
+        // A section left open, as by a callback that threw.
+        attribution.beginSection();
+        attribution.endFrame(0, 1000000, 16000000);
+
+        attribution.beginFrame();
+        attribution.beginSection();
+        attribution.endSection(FrameAttribution.SECTION_DRAW, Runnable.class);
+        attribution.endFrame(0, 20000000, 0);
+
+        final String dump = dump(attribution);
+        assertTrue(dump, dump.contains("draw " + Runnable.class.getName()));
+        assertFalse(dump, dump.contains(TextView.class.getName()));
+    }
+
+    @Test
+    public void testSectionsOutsideFrame_areIgnored() {
+        final FrameAttribution attribution = new FrameAttribution();
+        attribution.beginSection();
+        attribution.endSection(FrameAttribution.SECTION_DRAW, TextView.class);
+        attribution.beginFrame();
+        attribution.endFrame(0, 20000000, 0);
+
+        assertFalse(dump(attribution).contains(TextView.class.getName()));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.app.Activity;
+import android.app.assist.AssistStructure;
+import android.app.assist.AssistStructure.ViewNode;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.FrameLayout;
+
+import com.android.compatibility.common.util.WidgetTestUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests reuse of the autofill structure of unchanged view subtrees.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class ViewAutofillStructureCacheTest {
+    @Rule
+    public ActivityTestRule<Activity> mActivityRule = new ActivityTestRule<>(Activity.class);
+
+    private FrameLayout mRoot;
+    private FrameLayout mMiddle;
+    private CountingView mLeaf;
+    private CountingView mSibling;
+
+    @Before
+    public void setup() throws Throwable {
+        mActivityRule.runOnUiThread(() -> {
+            final Context context = InstrumentationRegistry.getTargetContext();
+            // mRoot is not important for autofill, so its children are flattened into the
+            // structure of its parent.
+            mRoot = new FrameLayout(context);
+            mMiddle = new FrameLayout(context);
+            mMiddle.setImportantForAutofill(View.IMPORTANT_FOR_AUTOFILL_YES);
+            mLeaf = new CountingView(context);
+            mSibling = new CountingView(context);
+        });
+
+        WidgetTestUtils.runOnMainAndDrawSync(mActivityRule, mRoot, () -> {
+            mMiddle.addView(mLeaf);
+            mRoot.addView(mMiddle);
+            mRoot.addView(mSibling);
+            mActivityRule.getActivity().setContentView(mRoot);
+        });
+    }
+
+    @UiThreadTest
+    @Test
+    public void testUnchangedSubtree_isReused() {
+        provideAutofillStructure();
+        assertNotNull(mMiddle.mCachedAutofillStructure);
+        assertNotNull(mLeaf.mCachedAutofillStructure);
+        assertNotNull(mSibling.mCachedAutofillStructure);
+
+        provideAutofillStructure();
+        assertEquals(1, mLeaf.mProvideCount);
+        assertEquals(1, mSibling.mProvideCount);
+    }
+
+    @UiThreadTest
+    @Test
+    public void testInvalidate_dropsCacheOfEveryAncestor() {
+        provideAutofillStructure();
+
+        mLeaf.invalidate();
+        assertNull(mLeaf.mCachedAutofillStructure);
+        assertNull(mMiddle.mCachedAutofillStructure);
+        assertNotNull(mSibling.mCachedAutofillStructure);
+
+        provideAutofillStructure();
+        assertEquals(2, mLeaf.mProvideCount);
+        assertEquals(1, mSibling.mProvideCount);
+        assertNotNull(mMiddle.mCachedAutofillStructure);
+
+        // Once the caches are dropped, another change to the leaf is found as quickly and
+        // still leaves the sibling's cache alone.
+        mLeaf.invalidate();
+        mLeaf.invalidate();
+        assertNull(mMiddle.mCachedAutofillStructure);
+        assertNotNull(mSibling.mCachedAutofillStructure);
+    }
+
+    @UiThreadTest
+    @Test
+    public void testMovingFlattenedParent_dropsCacheOfFlattenedChildren() {
+        provideAutofillStructure();
+        final int siblingLeft = getNode(mSibling).getLeft();
+        final int middleLeft = getNode(mMiddle).getLeft();
+
+        mRoot.offsetLeftAndRight(10);
+        assertNull(mSibling.mCachedAutofillStructure);
+        assertNull(mMiddle.mCachedAutofillStructure);
+        // The node of the leaf is relative to mMiddle, which is important for autofill.
+        assertNotNull(mLeaf.mCachedAutofillStructure);
+
+        provideAutofillStructure();
+        assertEquals(siblingLeft + 10, getNode(mSibling).getLeft());
+        assertEquals(middleLeft + 10, getNode(mMiddle).getLeft());
+        assertEquals(1, mLeaf.mProvideCount);
+    }
+
+    @UiThreadTest
+    @Test
+    public void testSetId_dropsCache() {
+        provideAutofillStructure();
+
+        mSibling.setId(42);
+        assertNull(mSibling.mCachedAutofillStructure);
+
+        provideAutofillStructure();
+        assertEquals(42, getNode(mSibling).getId());
+    }
+
+    private static ViewNode getNode(View view) {
+        assertNotNull(view.mCachedAutofillStructure);
+        return (ViewNode) view.mCachedAutofillStructure;
+    }
+
+    private void provideAutofillStructure() {
+        new AssistStructure(mActivityRule.getActivity(), true /* forAutoFill */, 0 /* flags */);
+    }
+
+    private static class CountingView extends View {
+        int mProvideCount;
+
+        CountingView(Context context) {
+            super(context);
+            setImportantForAutofill(IMPORTANT_FOR_AUTOFILL_YES);
+        }
+
+        @Override
+        public void onProvideAutofillStructure(ViewStructure structure, int flags) {
+            super.onProvideAutofillStructure(structure, flags);
+            mProvideCount++;
+        }
+    }
+}
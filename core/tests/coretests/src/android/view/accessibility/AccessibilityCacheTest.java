@@ -30,6 +30,7 @@ import static org.mockito.Mockito.when;
 
 import android.support.test.filters.LargeTest;
 import android.support.test.runner.AndroidJUnit4;
+import android.util.LongArray;
 import android.view.View;
 
 import org.junit.After;
@@ -39,6 +40,7 @@ import org.junit.runner.RunWith;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -54,6 +56,9 @@ public class AccessibilityCacheTest {
     private static final int CHILD_VIEW_ID = 0xFEED;
     private static final int OTHER_CHILD_VIEW_ID = 0xACE2;
     private static final int MOCK_CONNECTION_ID = 1;
+    private static final int ALL_PREFETCH_FLAGS = AccessibilityNodeInfo.FLAG_PREFETCH_PREDECESSORS
+            | AccessibilityNodeInfo.FLAG_PREFETCH_SIBLINGS
+            | AccessibilityNodeInfo.FLAG_PREFETCH_DESCENDANTS;
 
     AccessibilityCache mAccessibilityCache;
     AccessibilityCache.AccessibilityNodeRefresher mAccessibilityNodeRefresher;
@@ -558,6 +563,90 @@ public class AccessibilityCacheTest {
         }
     }
 
+    @Test
+    public void overBudget_evictsLeastRecentlyUsedWindow() {
+        mAccessibilityCache.setMaxBytes(1);
+        AccessibilityNodeInfo node1 = getNodeWithA11yAndWindowId(SINGLE_VIEW_ID, WINDOW_ID_1);
+        AccessibilityNodeInfo node2 = getNodeWithA11yAndWindowId(OTHER_VIEW_ID, WINDOW_ID_2);
+        AccessibilityNodeInfo nodeFromCache = null;
+        try {
+            mAccessibilityCache.add(node1);
+            mAccessibilityCache.add(node2);
+            assertNull(mAccessibilityCache.getNode(WINDOW_ID_1, node1.getSourceNodeId()));
+            nodeFromCache = mAccessibilityCache.getNode(WINDOW_ID_2, node2.getSourceNodeId());
+            assertNotNull(nodeFromCache);
+        } finally {
+            node1.recycle();
+            node2.recycle();
+            if (nodeFromCache != null) {
+                nodeFromCache.recycle();
+            }
+        }
+    }
+
+    @Test
+    public void unusedPrefetchedDescendants_stopDescendantPrefetchExceptForProbes() {
+        assertEquals(ALL_PREFETCH_FLAGS, mAccessibilityCache.getPrefetchFlags(ALL_PREFETCH_FLAGS));
+        prefetchChildren(PARENT_VIEW_ID, 64);
+
+        assertEquals(1, countDescendantPrefetches(8));
+    }
+
+    @Test
+    public void prefetchedNonDescendantsAndCachedNodes_areNotSampled() {
+        // Siblings of the requested node.
+        final List<AccessibilityNodeInfo> infos = new ArrayList<>();
+        for (int i = 0; i <= 64; i++) {
+            infos.add(getNodeWithA11yAndWindowId(i + 1, WINDOW_ID_1));
+        }
+        addPrefetched(infos);
+        // Descendants that were cached already.
+        prefetchChildren(PARENT_VIEW_ID, 32);
+        prefetchChildren(PARENT_VIEW_ID, 32);
+
+        assertEquals(8, countDescendantPrefetches(8));
+    }
+
+    @Test
+    public void clearedPrefetchedDescendants_areDroppedFromSample() {
+        prefetchChildren(PARENT_VIEW_ID, 64);
+        mAccessibilityCache.clear();
+
+        assertEquals(8, countDescendantPrefetches(8));
+    }
+
+    /** Caches a node and its children as if they were prefetched when it was requested. */
+    private void prefetchChildren(int parentId, int childCount) {
+        final List<AccessibilityNodeInfo> infos = new ArrayList<>();
+        final AccessibilityNodeInfo parent = getNodeWithA11yAndWindowId(parentId, WINDOW_ID_1);
+        infos.add(parent);
+        for (int i = 0; i < childCount; i++) {
+            parent.addChild(getMockViewWithA11yAndWindowIds(parentId + i + 1, WINDOW_ID_1));
+            infos.add(getNodeWithA11yAndWindowId(parentId + i + 1, WINDOW_ID_1));
+        }
+        addPrefetched(infos);
+    }
+
+    private void addPrefetched(List<AccessibilityNodeInfo> infos) {
+        final LongArray descendantIds = mAccessibilityCache.getUncachedPrefetchedDescendants(infos);
+        for (AccessibilityNodeInfo info : infos) {
+            mAccessibilityCache.add(info);
+            info.recycle();
+        }
+        mAccessibilityCache.notePrefetchedDescendants(WINDOW_ID_1, descendantIds);
+    }
+
+    private int countDescendantPrefetches(int requestCount) {
+        int descendantPrefetches = 0;
+        for (int i = 0; i < requestCount; i++) {
+            if ((mAccessibilityCache.getPrefetchFlags(ALL_PREFETCH_FLAGS)
+                    & AccessibilityNodeInfo.FLAG_PREFETCH_DESCENDANTS) != 0) {
+                descendantPrefetches++;
+            }
+        }
+        return descendantPrefetches;
+    }
+
     private void putWindowWithIdInCache(int id) {
         AccessibilityWindowInfo windowInfo = AccessibilityWindowInfo.obtain();
         windowInfo.setId(id);
@@ -17,6 +17,7 @@
 package android.widget;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -444,4 +445,124 @@ public class RemoteViewsTest {
         }
         return found[0];
     }
+
+    @Test
+    public void reapply_withPrevious_onlyAppliesChangedViews() {
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        RemoteViews previous = new RemoteViews(mPackage, R.layout.remote_views_test);
+        previous.setTextViewText(R.id.text, "text");
+        previous.setImageViewBitmap(R.id.image, bitmap);
+        View view = previous.apply(mContext, mContainer);
+        TextView textView = view.findViewById(R.id.text);
+        textView.setText("changed by host");
+
+        Bitmap newBitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        newBitmap.eraseColor(0xff00ff00);
+        RemoteViews views = new RemoteViews(mPackage, R.layout.remote_views_test);
+        views.setTextViewText(R.id.text, "text");
+        views.setImageViewBitmap(R.id.image, newBitmap);
+        views.reapply(mContext, view, null, previous);
+
+        // The unchanged text was not set again.
+        assertEquals("changed by host", textView.getText().toString());
+        Drawable drawable = ((ImageView) view.findViewById(R.id.image)).getDrawable();
+        assertSame(newBitmap, ((BitmapDrawable) drawable).getBitmap());
+    }
+
+    @Test
+    public void reapply_withPrevious_differentActions_appliesAll() {
+        RemoteViews previous = new RemoteViews(mPackage, R.layout.remote_views_test);
+        previous.setTextViewText(R.id.text, "text");
+        View view = previous.apply(mContext, mContainer);
+        TextView textView = view.findViewById(R.id.text);
+        textView.setText("changed by host");
+
+        RemoteViews views = new RemoteViews(mPackage, R.layout.remote_views_test);
+        views.setTextViewText(R.id.text, "text");
+        views.setViewVisibility(R.id.image, View.GONE);
+        views.reapply(mContext, view, null, previous);
+
+        assertEquals("text", textView.getText().toString());
+    }
+
+    @Test
+    public void reapply_withPrevious_reappliesDisplayedChild() {
+        RemoteViews previous = new RemoteViews(mPackage, R.layout.remote_views_flipper);
+        previous.setDisplayedChild(R.id.flipper, 0);
+        View view = previous.apply(mContext, mContainer);
+        ViewFlipper flipper = view.findViewById(R.id.flipper);
+        // As if the user flipped to the next child.
+        flipper.setDisplayedChild(1);
+
+        RemoteViews views = new RemoteViews(mPackage, R.layout.remote_views_flipper);
+        views.setDisplayedChild(R.id.flipper, 0);
+        views.reapply(mContext, view, null, previous);
+
+        assertEquals(0, flipper.getDisplayedChild());
+    }
+
+    @Test
+    public void reapply_withPrevious_usesNewClickHandler() {
+        PendingIntent pi = PendingIntent.getBroadcast(mContext, 0,
+                new Intent("android.widget.RemoteViewsTest"), 0);
+        RemoteViews previous = new RemoteViews(mPackage, R.layout.remote_views_test);
+        previous.setOnClickPendingIntent(R.id.text, pi);
+        RecordingOnClickHandler oldHandler = new RecordingOnClickHandler();
+        View view = previous.apply(mContext, mContainer, oldHandler);
+
+        RemoteViews views = new RemoteViews(mPackage, R.layout.remote_views_test);
+        views.setOnClickPendingIntent(R.id.text, pi);
+        RecordingOnClickHandler newHandler = new RecordingOnClickHandler();
+        views.reapply(mContext, view, newHandler, previous);
+        view.findViewById(R.id.text).performClick();
+
+        assertEquals(0, oldHandler.mClicks);
+        assertEquals(1, newHandler.mClicks);
+    }
+
+    @Test
+    public void isSameAs_withBitmaps_isFalse() {
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        RemoteViews views = new RemoteViews(mPackage, R.layout.remote_views_test);
+        views.setImageViewBitmap(R.id.image, bitmap);
+        RemoteViews same = new RemoteViews(mPackage, R.layout.remote_views_test);
+        same.setImageViewBitmap(R.id.image, bitmap);
+
+        assertFalse(views.isSameAs(same));
+    }
+
+    @Test
+    public void isSameAs() {
+        RemoteViews views = new RemoteViews(mPackage, R.layout.remote_views_test);
+        views.setTextViewText(R.id.text, "text");
+        RemoteViews same = new RemoteViews(mPackage, R.layout.remote_views_test);
+        same.setTextViewText(R.id.text, "text");
+        RemoteViews other = new RemoteViews(mPackage, R.layout.remote_views_test);
+        other.setTextViewText(R.id.text, "other");
+
+        assertTrue(views.isSameAs(same));
+        assertFalse(views.isSameAs(other));
+    }
+
+    @Test
+    public void bitmapCache_sharesBitmapsWithSameContent() {
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        Bitmap copy = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+        RemoteViews views = new RemoteViews(mPackage, R.layout.remote_views_test);
+        views.setImageViewBitmap(R.id.image, bitmap);
+        views.setImageViewBitmap(R.id.image, copy);
+
+        assertEquals(bitmap.getAllocationByteCount(), views.estimateMemoryUsage());
+    }
+
+    private static class RecordingOnClickHandler extends RemoteViews.OnClickHandler {
+        int mClicks;
+
+        @Override
+        public boolean onClickHandler(View view, PendingIntent pendingIntent,
+                Intent fillInIntent, int windowingMode) {
+            mClicks++;
+            return true;
+        }
+    }
 }
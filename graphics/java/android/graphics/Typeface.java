@@ -28,6 +28,7 @@ import android.annotation.Nullable;
 import android.content.res.AssetManager;
 import android.graphics.fonts.FontVariationAxis;
 import android.net.Uri;
+import android.os.SystemProperties;
 import android.provider.FontRequest;
 import android.provider.FontsContract;
 import android.text.FontConfig;
@@ -112,11 +113,16 @@ public class Typeface {
             new LongSparseArray<>(3);
     private static final Object sWeightCacheLock = new Object();
 
+    private static final int DEFAULT_DYNAMIC_CACHE_SIZE = 32;
+
     /**
-     * Cache for Typeface objects dynamically loaded from assets. Currently max size is 16.
+     * Cache for Typeface objects dynamically loaded from assets and font files. The max size
+     * is {@value #DEFAULT_DYNAMIC_CACHE_SIZE} unless overridden by a system property.
      */
     @GuardedBy("sDynamicCacheLock")
-    private static final LruCache<String, Typeface> sDynamicTypefaceCache = new LruCache<>(16);
+    private static final LruCache<String, Typeface> sDynamicTypefaceCache = new LruCache<>(
+            Math.max(1, SystemProperties.getInt("debug.typeface.dynamic_cache_size",
+                    DEFAULT_DYNAMIC_CACHE_SIZE)));
     private static final Object sDynamicCacheLock = new Object();
 
     static Typeface sDefaultTypeface;
@@ -544,6 +550,36 @@ public class Typeface {
                 builder.append("-");
             }
             builder.append(path);
+            return appendFontParams(builder, ttcIndex, axes, weight, italic, fallback);
+        }
+
+        /**
+         * Creates a unique id for a given version of a font file.
+         *
+         * @param file The font file.
+         * @param ttcIndex The TTC index for the font.
+         * @param axes The font variation settings.
+         * @return Unique id for the file's current size and modification time, or null if the
+         *     file does not exist.
+         */
+        private static String createFileUid(File file, int ttcIndex,
+                @Nullable FontVariationAxis[] axes, int weight, int italic, String fallback) {
+            final long lastModified = file.lastModified();
+            if (lastModified == 0) {
+                return null;
+            }
+            final StringBuilder builder = new StringBuilder();
+            builder.append("file:");
+            builder.append(file.getAbsolutePath());
+            builder.append("-");
+            builder.append(Long.toString(file.length()));
+            builder.append("-");
+            builder.append(Long.toString(lastModified));
+            return appendFontParams(builder, ttcIndex, axes, weight, italic, fallback);
+        }
+
+        private static String appendFontParams(StringBuilder builder, int ttcIndex,
+                @Nullable FontVariationAxis[] axes, int weight, int italic, String fallback) {
             builder.append("-");
             builder.append(Integer.toString(ttcIndex));
             builder.append("-");
@@ -634,6 +670,16 @@ public class Typeface {
                     return typeface;
                 }
             } else if (mPath != null) {  // Builder is created with file path.
+                // Reuse the typeface while the file is unchanged, so that creating the same
+                // font again neither maps nor parses it again.
+                final String key = createFileUid(new File(mPath), mTtcIndex, mAxes, mWeight,
+                        mItalic, mFallbackFamilyName);
+                if (key != null) {
+                    synchronized (sDynamicCacheLock) {
+                        final Typeface typeface = sDynamicTypefaceCache.get(key);
+                        if (typeface != null) return typeface;
+                    }
+                }
                 final FontFamily fontFamily = new FontFamily();
                 if (!fontFamily.addFont(mPath, mTtcIndex, mAxes, mWeight, mItalic)) {
                     fontFamily.abortCreation();
@@ -643,8 +689,14 @@ public class Typeface {
                     return resolveFallbackTypeface();
                 }
                 FontFamily[] families = { fontFamily };
-                return createFromFamiliesWithDefault(families, mFallbackFamilyName, mWeight,
-                        mItalic);
+                final Typeface typeface = createFromFamiliesWithDefault(families,
+                        mFallbackFamilyName, mWeight, mItalic);
+                if (key != null) {
+                    synchronized (sDynamicCacheLock) {
+                        sDynamicTypefaceCache.put(key, typeface);
+                    }
+                }
+                return typeface;
             } else if (mFonts != null) {
                 final FontFamily fontFamily = new FontFamily();
                 boolean atLeastOneFont = false;
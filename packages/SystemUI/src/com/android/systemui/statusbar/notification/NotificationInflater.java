@@ -144,7 +144,9 @@ public class NotificationInflater {
         if (mCallback != null && mCallback.doInflateSynchronous()) {
             task.onPostExecute(task.doInBackground());
         } else {
-            task.execute();
+            // Not AsyncTask's serial executor: a burst of notifications would queue up behind
+            // one another and behind every other AsyncTask in the process.
+            task.executeOnExecutor(EXECUTOR);
         }
     }
 
@@ -163,6 +165,8 @@ public class NotificationInflater {
             boolean usesIncreasedHeight, boolean usesIncreasedHeadsUpHeight, boolean redactAmbient,
             Context packageContext) {
         InflationProgress result = new InflationProgress();
+        // Low priority notifications never peek, regardless of whether they are in a group.
+        final boolean canHeadsUp = !isLowPriority;
         isLowPriority = isLowPriority && !isChildInGroup;
         if ((reInflateFlags & FLAG_REINFLATE_CONTENT_VIEW) != 0) {
             result.newContentView = createContentView(builder, isLowPriority, usesIncreasedHeight);
@@ -172,7 +176,9 @@ public class NotificationInflater {
             result.newExpandedView = createExpandedView(builder, isLowPriority);
         }
 
-        if ((reInflateFlags & FLAG_REINFLATE_HEADS_UP_VIEW) != 0) {
+        if ((reInflateFlags & FLAG_REINFLATE_HEADS_UP_VIEW) != 0 && canHeadsUp) {
+            // Left null otherwise, which removes any heads up view inflated before the
+            // notification became low priority.
             result.newHeadsUpView = builder.createHeadsUpContentView(usesIncreasedHeadsUpHeight);
         }
 
@@ -19,6 +19,8 @@ package com.android.systemui.statusbar.notification;
 import static com.android.systemui.statusbar.notification.NotificationInflater.FLAG_REINFLATE_ALL;
 
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -94,6 +96,14 @@ public class NotificationInflaterTest extends SysuiTestCase {
         verify(builder).createHeadsUpContentView(true);
     }
 
+    @Test
+    public void testLowPriorityHeadsUpNotCreated() {
+        mNotificationInflater.setIsLowPriority(true);
+        Notification.Builder builder = spy(mBuilder);
+        mNotificationInflater.inflateNotificationViews(FLAG_REINFLATE_ALL, builder, mContext);
+        verify(builder, never()).createHeadsUpContentView(anyBoolean());
+    }
+
     @Test
     public void testIncreasedHeightBeingUsed() {
         mNotificationInflater.setUsesIncreasedHeight(true);
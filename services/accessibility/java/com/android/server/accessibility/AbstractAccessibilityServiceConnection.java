@@ -41,6 +41,8 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemProperties;
+import android.util.LongSparseArray;
 import android.util.Slog;
 import android.util.SparseArray;
 import android.view.KeyEvent;
@@ -77,6 +79,13 @@ abstract class AbstractAccessibilityServiceConnection extends IAccessibilityServ
     private static final boolean DEBUG = false;
     private static final String LOG_TAG = "AbstractAccessibilityServiceConnection";
 
+    /**
+     * Minimum time content changes of the same node are held back to be merged into one event.
+     * Services with a longer notification timeout hold them back for that long instead.
+     */
+    private static final long CONTENT_CHANGE_COALESCING_MILLIS =
+            SystemProperties.getLong("persist.sys.a11y.content_change_coalescing_ms", 0);
+
     protected final Context mContext;
     protected final SystemSupport mSystemSupport;
     private final WindowManagerInternal mWindowManagerService;
@@ -131,9 +140,25 @@ abstract class AbstractAccessibilityServiceConnection extends IAccessibilityServ
     // the events pending events to be dispatched to this service
     final SparseArray<AccessibilityEvent> mPendingEvents = new SparseArray<>();
 
+    // Content change events pending dispatch to this service, by window and source node.
+    // Later changes of the same node are merged into these until they are dispatched.
+    final SparseArray<LongSparseArray<AccessibilityEvent>> mPendingContentChanges =
+            new SparseArray<>();
+
+    // Events dispatched to this service, replaced by a later event of the same type while
+    // pending, and merged into a pending content change of the same node, for dumpsys.
+    private long mDispatchedEventCount;
+    private long mReplacedEventCount;
+    private long mMergedEventCount;
+
     /** Whether this service relies on its {@link AccessibilityCache} being up to date */
     boolean mUsesAccessibilityCache = false;
 
+    // Node lookups that missed the service's cache, and how many of them prefetched
+    // descendants, for dumpsys.
+    private long mNodeLookupCount;
+    private long mDescendantPrefetchCount;
+
     // Handler only for dispatching accessibility events since we use event
     // types as message types allowing us to remove messages per event type.
     public Handler mEventDispatchHandler;
@@ -547,6 +572,10 @@ abstract class AbstractAccessibilityServiceConnection extends IAccessibilityServ
         MagnificationSpec spec;
         synchronized (mLock) {
             mUsesAccessibilityCache = true;
+            mNodeLookupCount++;
+            if ((flags & AccessibilityNodeInfo.FLAG_PREFETCH_DESCENDANTS) != 0) {
+                mDescendantPrefetchCount++;
+            }
             if (!isCalledForCurrentUserLocked()) {
                 return null;
             }
@@ -917,6 +946,11 @@ abstract class AbstractAccessibilityServiceConnection extends IAccessibilityServ
             pw.append(", eventTypes="
                     + AccessibilityEvent.eventTypeToString(mEventTypes));
             pw.append(", notificationTimeout=" + mNotificationTimeout);
+            pw.append(", nodeLookups=" + mNodeLookupCount);
+            pw.append(", descendantPrefetches=" + mDescendantPrefetchCount);
+            pw.append(", dispatchedEvents=" + mDispatchedEventCount);
+            pw.append(", replacedEvents=" + mReplacedEventCount);
+            pw.append(", mergedContentChanges=" + mMergedEventCount);
             pw.append("]");
         }
     }
@@ -975,11 +1009,17 @@ abstract class AbstractAccessibilityServiceConnection extends IAccessibilityServ
                 return;
             }
 
+            if (eventType == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+                    && mergePendingContentChangeLocked(event, serviceWantsEvent)) {
+                return;
+            }
+
             // Make a copy since during dispatch it is possible the event to
             // be modified to remove its source if the receiving service does
             // not have permission to access the window content.
             AccessibilityEvent newEvent = AccessibilityEvent.obtain(event);
             Message message;
+            long delayMillis = mNotificationTimeout;
             if ((mNotificationTimeout > 0)
                     && (eventType != AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED)) {
                 // Allow at most one pending event
@@ -988,15 +1028,73 @@ abstract class AbstractAccessibilityServiceConnection extends IAccessibilityServ
                 if (oldEvent != null) {
                     mEventDispatchHandler.removeMessages(eventType);
                     oldEvent.recycle();
+                    mReplacedEventCount++;
                 }
                 message = mEventDispatchHandler.obtainMessage(eventType);
             } else {
                 // Send all messages, bypassing mPendingEvents
                 message = mEventDispatchHandler.obtainMessage(eventType, newEvent);
+                if (eventType == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) {
+                    addPendingContentChangeLocked(newEvent);
+                    delayMillis = Math.max(delayMillis, CONTENT_CHANGE_COALESCING_MILLIS);
+                }
             }
             message.arg1 = serviceWantsEvent ? 1 : 0;
 
-            mEventDispatchHandler.sendMessageDelayed(message, mNotificationTimeout);
+            mEventDispatchHandler.sendMessageDelayed(message, delayMillis);
+        }
+    }
+
+    /**
+     * Merges a content change into a pending content change of the same node, so that a storm
+     * of changes to a node while its first change waits for dispatch costs one binder call.
+     *
+     * @return Whether the event was merged and must not be dispatched on its own.
+     */
+    private boolean mergePendingContentChangeLocked(AccessibilityEvent event,
+            boolean serviceWantsEvent) {
+        final LongSparseArray<AccessibilityEvent> pending =
+                mPendingContentChanges.get(event.getWindowId());
+        final AccessibilityEvent pendingEvent =
+                pending != null ? pending.get(event.getSourceNodeId()) : null;
+        if (pendingEvent == null || wantsEventLocked(pendingEvent) != serviceWantsEvent) {
+            return false;
+        }
+        final int pendingTypes = pendingEvent.getContentChangeTypes();
+        final int types = event.getContentChangeTypes();
+        // An undefined change type stands for any change, so it absorbs the others.
+        pendingEvent.setContentChangeTypes(
+                (pendingTypes == AccessibilityEvent.CONTENT_CHANGE_TYPE_UNDEFINED
+                        || types == AccessibilityEvent.CONTENT_CHANGE_TYPE_UNDEFINED)
+                        ? AccessibilityEvent.CONTENT_CHANGE_TYPE_UNDEFINED
+                        : pendingTypes | types);
+        pendingEvent.setEventTime(event.getEventTime());
+        mMergedEventCount++;
+        return true;
+    }
+
+    private void addPendingContentChangeLocked(AccessibilityEvent event) {
+        LongSparseArray<AccessibilityEvent> pending =
+                mPendingContentChanges.get(event.getWindowId());
+        if (pending == null) {
+            pending = new LongSparseArray<>();
+            mPendingContentChanges.put(event.getWindowId(), pending);
+        }
+        pending.put(event.getSourceNodeId(), event);
+    }
+
+    private void removePendingContentChangeLocked(AccessibilityEvent event) {
+        final LongSparseArray<AccessibilityEvent> pending =
+                mPendingContentChanges.get(event.getWindowId());
+        if (pending == null) {
+            return;
+        }
+        final int index = pending.indexOfKey(event.getSourceNodeId());
+        if (index >= 0 && pending.valueAt(index) == event) {
+            pending.removeAt(index);
+            if (pending.size() == 0) {
+                mPendingContentChanges.remove(event.getWindowId());
+            }
         }
     }
 
@@ -1044,6 +1142,10 @@ abstract class AbstractAccessibilityServiceConnection extends IAccessibilityServ
         IAccessibilityServiceClient listener;
 
         synchronized (mLock) {
+            if (event != null && eventType == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) {
+                // No more changes may be merged into the event once it is being sent.
+                removePendingContentChangeLocked(event);
+            }
             listener = mServiceInterface;
 
             // If the service died/was disabled while the message for dispatching
@@ -1078,6 +1180,7 @@ abstract class AbstractAccessibilityServiceConnection extends IAccessibilityServ
                 }
                 mPendingEvents.remove(eventType);
             }
+            mDispatchedEventCount++;
             if (mSecurityPolicy.canRetrieveWindowContentLocked(this)) {
                 event.setConnectionId(mId);
             } else {
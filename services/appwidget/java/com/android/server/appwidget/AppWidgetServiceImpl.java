@@ -1934,6 +1934,12 @@ class AppWidgetServiceImpl extends IAppWidgetService.Stub implements WidgetBacku
                 // For a partial update, we merge the new RemoteViews with the old.
                 widget.views.mergeRemoteViews(views);
             } else {
+                if (widget.views != null && widget.views.isSameAs(views)) {
+                    // Providers updating on a timer often send the same views again; the hosts
+                    // already have them. Views that differ in shape or hold bitmaps are told
+                    // apart without parceling them.
+                    return;
+                }
                 // For a full update we replace the RemoteViews completely.
                 widget.views = views;
             }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Random;
+
+/**
+ * Interval tree over the delivery windows of alarm batches, used by {@link AlarmManagerService}
+ * to find a batch that can hold a new alarm without scanning every batch.
+ *
+ * <p>Items are ordered by window start (ties broken by insertion order) in a treap whose nodes
+ * also track the largest window end in their subtree, so the earliest-starting item whose window
+ * overlaps a query window is found in O(log n). Insertion, removal and bound updates are
+ * O(log n) as well.
+ *
+ * <p>Not thread safe; {@link AlarmManagerService} only uses it with its lock held.
+ *
+ * @param <T> Type of the indexed items, compared by identity.
+ */
+@VisibleForTesting
+class AlarmBatchIndex<T> {
+    private static final class Node<T> {
+        final T item;
+        long start;
+        long end;
+        boolean coalescable;
+        long seq;
+        int priority;
+        /** Largest end of any coalescable node in this subtree, or Long.MIN_VALUE if none. */
+        long maxEnd;
+        Node<T> left;
+        Node<T> right;
+
+        Node(T item) {
+            this.item = item;
+        }
+
+        int compareTo(long otherStart, long otherSeq) {
+            if (start != otherStart) {
+                return start < otherStart ? -1 : 1;
+            }
+            return Long.compare(seq, otherSeq);
+        }
+    }
+
+    private final ArrayMap<T, Node<T>> mNodes = new ArrayMap<>();
+    private final Random mRandom = new Random();
+    private Node<T> mRoot;
+    private long mNextSeq;
+
+    /** @return The number of indexed items. */
+    int size() {
+        return mNodes.size();
+    }
+
+    void clear() {
+        mNodes.clear();
+        mRoot = null;
+    }
+
+    /**
+     * Adds an item, or updates its window if it is already indexed.
+     *
+     * @param start Start of the item's window.
+     * @param end End of the item's window.
+     * @param coalescable Whether {@link #findFirstOverlapping} may return this item.
+     */
+    void put(T item, long start, long end, boolean coalescable) {
+        Node<T> node = mNodes.get(item);
+        if (node != null) {
+            mRoot = remove(mRoot, node);
+        } else {
+            node = new Node<>(item);
+            mNodes.put(item, node);
+        }
+        node.start = start;
+        node.end = end;
+        node.coalescable = coalescable;
+        node.seq = mNextSeq++;
+        node.priority = mRandom.nextInt();
+        node.left = node.right = null;
+        updateMaxEnd(node);
+        mRoot = insert(mRoot, node);
+    }
+
+    /**
+     * Removes an item from the index.
+     * @return Whether the item was indexed.
+     */
+    boolean remove(T item) {
+        final Node<T> node = mNodes.remove(item);
+        if (node == null) {
+            return false;
+        }
+        mRoot = remove(mRoot, node);
+        return true;
+    }
+
+    /**
+     * @return The coalescable item with the earliest start whose window overlaps
+     * [{@code start}, {@code end}], or null if there is none.
+     */
+    T findFirstOverlapping(long start, long end) {
+        final Node<T> node = findFirstOverlapping(mRoot, start, end);
+        return node != null ? node.item : null;
+    }
+
+    private static <T> Node<T> findFirstOverlapping(Node<T> node, long start, long end) {
+        while (node != null && node.maxEnd >= start) {
+            if (node.left != null && node.left.maxEnd >= start) {
+                final Node<T> found = findFirstOverlapping(node.left, start, end);
+                if (found != null) {
+                    return found;
+                }
+                // The left subtree does overlap in end, so its candidates all start after
+                // the query end; so do this node and everything to its right.
+                return null;
+            }
+            if (node.start > end) {
+                return null;
+            }
+            if (node.coalescable && node.end >= start) {
+                return node;
+            }
+            node = node.right;
+        }
+        return null;
+    }
+
+    private static <T> Node<T> insert(Node<T> root, Node<T> node) {
+        if (root == null) {
+            return node;
+        }
+        if (node.compareTo(root.start, root.seq) < 0) {
+            root.left = insert(root.left, node);
+            if (root.left.priority > root.priority) {
+                root = rotateRight(root);
+            }
+        } else {
+            root.right = insert(root.right, node);
+            if (root.right.priority > root.priority) {
+                root = rotateLeft(root);
+            }
+        }
+        updateMaxEnd(root);
+        return root;
+    }
+
+    private static <T> Node<T> remove(Node<T> root, Node<T> node) {
+        if (root == null) {
+            return null;
+        }
+        if (root == node) {
+            return merge(root.left, root.right);
+        }
+        if (node.compareTo(root.start, root.seq) < 0) {
+            root.left = remove(root.left, node);
+        } else {
+            root.right = remove(root.right, node);
+        }
+        updateMaxEnd(root);
+        return root;
+    }
+
+    private static <T> Node<T> merge(Node<T> left, Node<T> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            updateMaxEnd(left);
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            updateMaxEnd(right);
+            return right;
+        }
+    }
+
+    private static <T> Node<T> rotateRight(Node<T> root) {
+        final Node<T> pivot = root.left;
+        root.left = pivot.right;
+        pivot.right = root;
+        updateMaxEnd(root);
+        updateMaxEnd(pivot);
+        return pivot;
+    }
+
+    private static <T> Node<T> rotateLeft(Node<T> root) {
+        final Node<T> pivot = root.right;
+        root.right = pivot.left;
+        pivot.left = root;
+        updateMaxEnd(root);
+        updateMaxEnd(pivot);
+        return pivot;
+    }
+
+    private static <T> void updateMaxEnd(Node<T> node) {
+        long maxEnd = node.coalescable ? node.end : Long.MIN_VALUE;
+        if (node.left != null && node.left.maxEnd > maxEnd) {
+            maxEnd = node.left.maxEnd;
+        }
+        if (node.right != null && node.right.maxEnd > maxEnd) {
+            maxEnd = node.right.maxEnd;
+        }
+        node.maxEnd = maxEnd;
+    }
+}
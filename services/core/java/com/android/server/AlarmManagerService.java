@@ -250,11 +250,13 @@ class AlarmManagerService extends SystemService {
     interface Stats {
         int REBATCH_ALL_ALARMS = 0;
         int REORDER_ALARMS_FOR_STANDBY = 1;
+        int REBATCH_AFTER_REMOVE = 2;
     }
 
     private final StatLogger mStatLogger = new StatLogger(new String[] {
             "REBATCH_ALL_ALARMS",
             "REORDER_ALARMS_FOR_STANDBY",
+            "REBATCH_AFTER_REMOVE",
     });
 
     /**
@@ -748,6 +750,9 @@ class AlarmManagerService extends SystemService {
     static final long MIN_FUZZABLE_INTERVAL = 10000;
     static final BatchTimeOrder sBatchOrder = new BatchTimeOrder();
     final ArrayList<Batch> mAlarmBatches = new ArrayList<>();
+    // Index over the windows of mAlarmBatches used to find a batch that can hold a new alarm.
+    // Must be updated whenever a batch is added, removed, or has its bounds changed.
+    final AlarmBatchIndex<Batch> mBatchIndex = new AlarmBatchIndex<>();
 
     // set to non-null if in idle mode; while in this mode, any alarms we don't want
     // to run during this time are placed in mPendingWhileIdleAlarms
@@ -797,32 +802,69 @@ class AlarmManagerService extends SystemService {
     }
 
     private void insertAndBatchAlarmLocked(Alarm alarm) {
-        final int whichBatch = ((alarm.flags & AlarmManager.FLAG_STANDALONE) != 0) ? -1
+        final Batch batch = ((alarm.flags & AlarmManager.FLAG_STANDALONE) != 0) ? null
                 : attemptCoalesceLocked(alarm.whenElapsed, alarm.maxWhenElapsed);
 
-        if (whichBatch < 0) {
-            addBatchLocked(mAlarmBatches, new Batch(alarm));
+        if (batch == null) {
+            addBatchLocked(new Batch(alarm));
         } else {
-            final Batch batch = mAlarmBatches.get(whichBatch);
+            final long oldStart = batch.start;
             if (batch.add(alarm)) {
                 // The start time of this batch advanced, so batch ordering may
                 // have just been broken.  Move it to where it now belongs.
-                mAlarmBatches.remove(whichBatch);
+                mAlarmBatches.remove(indexOfBatchLocked(batch, oldStart));
                 addBatchLocked(mAlarmBatches, batch);
             }
+            indexBatchLocked(batch);
         }
     }
 
-    // Return the index of the matching batch, or -1 if none found.
-    int attemptCoalesceLocked(long whenElapsed, long maxWhen) {
+    // Return the earliest batch that can hold the given window, or null if none found.
+    Batch attemptCoalesceLocked(long whenElapsed, long maxWhen) {
+        return mBatchIndex.findFirstOverlapping(whenElapsed, maxWhen);
+    }
+
+    private void addBatchLocked(Batch batch) {
+        addBatchLocked(mAlarmBatches, batch);
+        indexBatchLocked(batch);
+    }
+
+    // Must be called whenever the bounds or flags of a batch in mAlarmBatches change.
+    private void indexBatchLocked(Batch batch) {
+        mBatchIndex.put(batch, batch.start, batch.end,
+                (batch.flags & AlarmManager.FLAG_STANDALONE) == 0);
+    }
+
+    private Batch removeBatchLocked(int index) {
+        final Batch batch = mAlarmBatches.remove(index);
+        mBatchIndex.remove(batch);
+        return batch;
+    }
+
+    /**
+     * @param start The start time the batch had when it was last positioned in
+     *              {@link #mAlarmBatches}.
+     * @return The index of the batch in {@link #mAlarmBatches}.
+     */
+    private int indexOfBatchLocked(Batch batch, long start) {
         final int N = mAlarmBatches.size();
-        for (int i = 0; i < N; i++) {
-            Batch b = mAlarmBatches.get(i);
-            if ((b.flags&AlarmManager.FLAG_STANDALONE) == 0 && b.canHold(whenElapsed, maxWhen)) {
+        int lo = 0;
+        int hi = N;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (mAlarmBatches.get(mid).start < start) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < N && mAlarmBatches.get(i).start == start; i++) {
+            if (mAlarmBatches.get(i) == batch) {
                 return i;
             }
         }
-        return -1;
+        // A removal changed some batch's bounds without repositioning it.
+        return mAlarmBatches.indexOf(batch);
     }
     /** @return total count of the alarms in a set of alarm batches. */
     static int getAlarmCount(ArrayList<Batch> batches) {
@@ -874,6 +916,7 @@ class AlarmManagerService extends SystemService {
 
         ArrayList<Batch> oldSet = (ArrayList<Batch>) mAlarmBatches.clone();
         mAlarmBatches.clear();
+        mBatchIndex.clear();
         Alarm oldPendingIdleUntil = mPendingIdleUntil;
         final long nowElapsed = SystemClock.elapsedRealtime();
         final int oldBatches = oldSet.size();
@@ -909,6 +952,37 @@ class AlarmManagerService extends SystemService {
         mStatLogger.logDurationStat(Stats.REBATCH_ALL_ALARMS, start);
     }
 
+    /**
+     * Removes the alarms matching the predicate from all scheduled batches. Rather than
+     * rebatching every alarm, only the alarms left in batches that lost some are re-inserted,
+     * since the bounds of all other batches are unchanged. The caller is responsible for
+     * rescheduling the kernel alarms.
+     *
+     * @return Whether any scheduled alarm was removed.
+     */
+    boolean removeFromBatchesLocked(Predicate<Alarm> whichAlarms) {
+        final long start = mStatLogger.getTime();
+        final ArrayList<Alarm> toReinsert = new ArrayList<>();
+        boolean didRemove = false;
+        for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
+            final Batch b = mAlarmBatches.get(i);
+            if (b.remove(whichAlarms)) {
+                didRemove = true;
+                // The bounds of the batch may have widened, so its remaining alarms may now
+                // fit in other batches.
+                removeBatchLocked(i);
+                toReinsert.addAll(b.alarms);
+            }
+        }
+        for (int i = 0; i < toReinsert.size(); i++) {
+            insertAndBatchAlarmLocked(toReinsert.get(i));
+        }
+        if (didRemove) {
+            mStatLogger.logDurationStat(Stats.REBATCH_AFTER_REMOVE, start);
+        }
+        return didRemove;
+    }
+
     /**
      * Re-orders the alarm batches based on newly evaluated send times based on the current
      * app-standby buckets
@@ -922,6 +996,7 @@ class AlarmManagerService extends SystemService {
 
         for (int batchIndex = mAlarmBatches.size() - 1; batchIndex >= 0; batchIndex--) {
             final Batch batch = mAlarmBatches.get(batchIndex);
+            boolean removed = false;
             for (int alarmIndex = batch.size() - 1; alarmIndex >= 0; alarmIndex--) {
                 final Alarm alarm = batch.get(alarmIndex);
                 final Pair<String, Integer> packageUser =
@@ -932,10 +1007,13 @@ class AlarmManagerService extends SystemService {
                 if (adjustDeliveryTimeBasedOnStandbyBucketLocked(alarm)) {
                     batch.remove(alarm);
                     rescheduledAlarms.add(alarm);
+                    removed = true;
                 }
             }
             if (batch.size() == 0) {
-                mAlarmBatches.remove(batchIndex);
+                removeBatchLocked(batchIndex);
+            } else if (removed) {
+                indexBatchLocked(batch);
             }
         }
         for (int i = 0; i < rescheduledAlarms.size(); i++) {
@@ -2788,15 +2866,8 @@ class AlarmManagerService extends SystemService {
             return;
         }
 
-        boolean didRemove = false;
         final Predicate<Alarm> whichAlarms = (Alarm a) -> a.matches(operation, directReceiver);
-        for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
-            Batch b = mAlarmBatches.get(i);
-            didRemove |= b.remove(whichAlarms);
-            if (b.size() == 0) {
-                mAlarmBatches.remove(i);
-            }
-        }
+        final boolean didRemove = removeFromBatchesLocked(whichAlarms);
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
             if (mPendingWhileIdleAlarms.get(i).matches(operation, directReceiver)) {
                 // Don't set didRemove, since this doesn't impact the scheduled alarms.
@@ -2820,14 +2891,23 @@ class AlarmManagerService extends SystemService {
                 Slog.v(TAG, "remove(operation) changed bounds; rebatching");
             }
             boolean restorePending = false;
+            boolean idleAlarmRemoved = false;
             if (mPendingIdleUntil != null && mPendingIdleUntil.matches(operation, directReceiver)) {
                 mPendingIdleUntil = null;
                 restorePending = true;
+                idleAlarmRemoved = true;
             }
             if (mNextWakeFromIdle != null && mNextWakeFromIdle.matches(operation, directReceiver)) {
                 mNextWakeFromIdle = null;
+                idleAlarmRemoved = true;
+            }
+            if (idleAlarmRemoved) {
+                // Which alarms may run, and when we come out of idle, depended on the removed
+                // alarm, so everything needs to be re-evaluated.
+                rebatchAllAlarmsLocked(true);
+            } else {
+                rescheduleKernelAlarmsLocked();
             }
-            rebatchAllAlarmsLocked(true);
             if (restorePending) {
                 restorePendingWhileIdleAlarmsLocked();
             }
@@ -2840,15 +2920,8 @@ class AlarmManagerService extends SystemService {
             Slog.wtf(TAG, "removeLocked: Shouldn't for UID=" + uid);
             return;
         }
-        boolean didRemove = false;
         final Predicate<Alarm> whichAlarms = (Alarm a) -> a.uid == uid;
-        for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
-            Batch b = mAlarmBatches.get(i);
-            didRemove |= b.remove(whichAlarms);
-            if (b.size() == 0) {
-                mAlarmBatches.remove(i);
-            }
-        }
+        final boolean didRemove = removeFromBatchesLocked(whichAlarms);
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
             final Alarm a = mPendingWhileIdleAlarms.get(i);
             if (a.uid == uid) {
@@ -2871,7 +2944,6 @@ class AlarmManagerService extends SystemService {
             if (DEBUG_BATCH) {
                 Slog.v(TAG, "remove(uid) changed bounds; rebatching");
             }
-            rebatchAllAlarmsLocked(true);
             rescheduleKernelAlarmsLocked();
             updateNextAlarmClockLocked();
         }
@@ -2886,16 +2958,9 @@ class AlarmManagerService extends SystemService {
             return;
         }
 
-        boolean didRemove = false;
         final Predicate<Alarm> whichAlarms = (Alarm a) -> a.matches(packageName);
         final boolean oldHasTick = haveBatchesTimeTickAlarm(mAlarmBatches);
-        for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
-            Batch b = mAlarmBatches.get(i);
-            didRemove |= b.remove(whichAlarms);
-            if (b.size() == 0) {
-                mAlarmBatches.remove(i);
-            }
-        }
+        final boolean didRemove = removeFromBatchesLocked(whichAlarms);
         final boolean newHasTick = haveBatchesTimeTickAlarm(mAlarmBatches);
         if (oldHasTick != newHasTick) {
             Slog.wtf(TAG, "removeLocked: hasTick changed from " + oldHasTick + " to " + newHasTick);
@@ -2923,7 +2988,6 @@ class AlarmManagerService extends SystemService {
             if (DEBUG_BATCH) {
                 Slog.v(TAG, "remove(package) changed bounds; rebatching");
             }
-            rebatchAllAlarmsLocked(true);
             rescheduleKernelAlarmsLocked();
             updateNextAlarmClockLocked();
         }
@@ -2934,7 +2998,6 @@ class AlarmManagerService extends SystemService {
             Slog.wtf(TAG, "removeForStoppedLocked: Shouldn't for UID=" + uid);
             return;
         }
-        boolean didRemove = false;
         final Predicate<Alarm> whichAlarms = (Alarm a) -> {
             try {
                 if (a.uid == uid && ActivityManager.getService().isAppStartModeDisabled(
@@ -2944,13 +3007,7 @@ class AlarmManagerService extends SystemService {
             } catch (RemoteException e) { /* fall through */}
             return false;
         };
-        for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
-            Batch b = mAlarmBatches.get(i);
-            didRemove |= b.remove(whichAlarms);
-            if (b.size() == 0) {
-                mAlarmBatches.remove(i);
-            }
-        }
+        final boolean didRemove = removeFromBatchesLocked(whichAlarms);
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
             final Alarm a = mPendingWhileIdleAlarms.get(i);
             if (a.uid == uid) {
@@ -2967,7 +3024,6 @@ class AlarmManagerService extends SystemService {
             if (DEBUG_BATCH) {
                 Slog.v(TAG, "remove(package) changed bounds; rebatching");
             }
-            rebatchAllAlarmsLocked(true);
             rescheduleKernelAlarmsLocked();
             updateNextAlarmClockLocked();
         }
@@ -2978,16 +3034,9 @@ class AlarmManagerService extends SystemService {
             Slog.wtf(TAG, "removeForStoppedLocked: Shouldn't for user=" + userHandle);
             return;
         }
-        boolean didRemove = false;
         final Predicate<Alarm> whichAlarms =
                 (Alarm a) -> UserHandle.getUserId(a.creatorUid) == userHandle;
-        for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
-            Batch b = mAlarmBatches.get(i);
-            didRemove |= b.remove(whichAlarms);
-            if (b.size() == 0) {
-                mAlarmBatches.remove(i);
-            }
-        }
+        final boolean didRemove = removeFromBatchesLocked(whichAlarms);
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
             if (UserHandle.getUserId(mPendingWhileIdleAlarms.get(i).creatorUid)
                     == userHandle) {
@@ -3010,7 +3059,6 @@ class AlarmManagerService extends SystemService {
             if (DEBUG_BATCH) {
                 Slog.v(TAG, "remove(user) changed bounds; rebatching");
             }
-            rebatchAllAlarmsLocked(true);
             rescheduleKernelAlarmsLocked();
             updateNextAlarmClockLocked();
         }
@@ -3182,7 +3230,7 @@ class AlarmManagerService extends SystemService {
 
             // We will (re)schedule some alarms now; don't let that interfere
             // with delivery of this current batch
-            mAlarmBatches.remove(0);
+            removeBatchLocked(0);
 
             final int N = batch.size();
             for (int i = 0; i < N; i++) {
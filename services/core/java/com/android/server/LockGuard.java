@@ -81,6 +81,24 @@ public class LockGuard {
 
     private static ArrayMap<Object, LockInfo> sKnown = new ArrayMap<>(0, true);
 
+    /** Locked sections longer than a frame at 60Hz are counted as slow. */
+    private static final long SLOW_SECTION_NANOS = 16 * 1000000L;
+
+    private static final HoldStats[] sFixedHoldStats = new HoldStats[INDEX_DPMS + 1];
+
+    static {
+        for (int i = 0; i < sFixedHoldStats.length; i++) {
+            sFixedHoldStats[i] = new HoldStats();
+        }
+    }
+
+    private static class HoldStats {
+        long count;
+        long totalNanos;
+        long maxNanos;
+        long slowCount;
+    }
+
     private static class LockInfo {
         /** Friendly label to describe this lock */
         public String label;
@@ -162,6 +180,26 @@ public class LockGuard {
         }
     }
 
+    /**
+     * Record the time a thread spent in the outermost locked section of a lock with a
+     * well-known index.  The section starts before the lock is requested, so the time includes
+     * waiting for the lock as well as holding it: a long section is either a long hold or a
+     * thread stuck behind one.
+     */
+    public static void noteLockedSection(int index, long sectionNanos) {
+        final HoldStats stats = sFixedHoldStats[index];
+        synchronized (stats) {
+            stats.count++;
+            stats.totalNanos += sectionNanos;
+            if (sectionNanos > stats.maxNanos) {
+                stats.maxNanos = sectionNanos;
+            }
+            if (sectionNanos >= SLOW_SECTION_NANOS) {
+                stats.slowCount++;
+            }
+        }
+    }
+
     private static void doLog(@Nullable Object lock, String message) {
         if (lock != null && findOrCreateLockInfo(lock).doWtf) {
 
@@ -245,5 +283,15 @@ public class LockGuard {
             }
             pw.println();
         }
+        for (int i = 0; i < sFixedHoldStats.length; i++) {
+            final HoldStats stats = sFixedHoldStats[i];
+            synchronized (stats) {
+                if (stats.count == 0) continue;
+                pw.println("Wait+hold times " + lockToString(i) + ": count=" + stats.count
+                        + " total=" + stats.totalNanos / 1000000 + "ms"
+                        + " max=" + stats.maxNanos / 1000000 + "ms"
+                        + " slow=" + stats.slowCount);
+            }
+        }
     }
 }
@@ -20,6 +20,8 @@ import static android.os.Process.getThreadPriority;
 import static android.os.Process.myTid;
 import static android.os.Process.setThreadPriority;
 
+import android.os.SystemProperties;
+
 /**
  * Utility class to boost threads in sections where important locks are held.
  */
@@ -27,6 +29,14 @@ public class ThreadPriorityBooster {
 
     private static final boolean ENABLE_LOCK_GUARD = false;
 
+    /**
+     * Whether to report the time spent in each outermost locked section to
+     * {@link LockGuard#noteLockedSection}.  {@link #boost} runs before the lock is requested, so
+     * this is the time spent waiting for the lock plus the time it was held.
+     */
+    private static final boolean TRACK_HOLD_TIMES =
+            SystemProperties.getBoolean("debug.lockguard.hold_times", false);
+
     private volatile int mBoostToPriority;
     private final int mLockGuardIndex;
 
@@ -50,6 +60,9 @@ public class ThreadPriorityBooster {
             if (prevPriority > mBoostToPriority) {
                 setThreadPriority(tid, mBoostToPriority);
             }
+            if (TRACK_HOLD_TIMES) {
+                state.regionStartNanos = System.nanoTime();
+            }
         }
         state.regionCounter++;
         if (ENABLE_LOCK_GUARD) {
@@ -64,6 +77,10 @@ public class ThreadPriorityBooster {
         if (state.regionCounter == 0 && state.prevPriority != currentPriority) {
             setThreadPriority(myTid(), state.prevPriority);
         }
+        if (TRACK_HOLD_TIMES && state.regionCounter == 0) {
+            LockGuard.noteLockedSection(mLockGuardIndex,
+                    System.nanoTime() - state.regionStartNanos);
+        }
     }
 
     /**
@@ -96,5 +113,11 @@ public class ThreadPriorityBooster {
          * The thread's previous priority before boosting.
          */
         int prevPriority;
+
+        /**
+         * When the outermost synchronized region was entered, before the lock was requested, if
+         * section times are tracked.
+         */
+        long regionStartNanos;
     }
 }
\ No newline at end of file
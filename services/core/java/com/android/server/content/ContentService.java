@@ -63,6 +63,7 @@ import android.util.SparseArray;
 import android.util.SparseIntArray;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.os.BackgroundThread;
 import com.android.internal.util.ArrayUtils;
 import com.android.internal.util.DumpUtils;
 import com.android.internal.util.IndentingPrintWriter;
@@ -132,6 +133,8 @@ public final class ContentService extends IContentService.Stub {
 
     private final ObserverNode mRootNode = new ObserverNode("");
 
+    private final ObserverChangeBatcher mChangeBatcher;
+
     private SyncManager mSyncManager = null;
     private final Object mSyncManagerLock = new Object();
 
@@ -237,6 +240,8 @@ public final class ContentService extends IContentService.Stub {
                 pw.print(" Total number of nodes: "); pw.println(counts[0]);
                 pw.print(" Total number of observers: "); pw.println(counts[1]);
             }
+            pw.println();
+            mChangeBatcher.dump(pw);
 
             synchronized (mCache) {
                 pw.println();
@@ -274,6 +279,17 @@ public final class ContentService extends IContentService.Stub {
         mContext = context;
         mFactoryTest = factoryTest;
 
+        mChangeBatcher = new ObserverChangeBatcher(BackgroundThread.getHandler(),
+                (observer) -> {
+                    synchronized (mRootNode) {
+                        mRootNode.removeObserverLocked(observer);
+                    }
+                },
+                context.getResources().getStringArray(
+                        com.android.internal.R.array.config_contentObserverCoalesceAuthorities),
+                context.getResources().getInteger(
+                        com.android.internal.R.integer.config_contentObserverCoalesceWindowMillis));
+
         // Let the package manager query for the sync adapters for a given authority
         // as we grant default permissions to sync adapters for specific authorities.
         PackageManagerInternal packageManagerInternal = LocalServices.getService(
@@ -425,9 +441,14 @@ public final class ContentService extends IContentService.Stub {
                 mRootNode.collectObserversLocked(uri, 0, observer, observerWantsSelfNotifications,
                         flags, userHandle, calls);
             }
+            final boolean coalesce = mChangeBatcher.shouldCoalesce(uri);
             final int numCalls = calls.size();
             for (int i=0; i<numCalls; i++) {
                 ObserverCall oc = calls.get(i);
+                if (coalesce) {
+                    mChangeBatcher.enqueue(oc.mObserver, oc.mSelfChange, uri, userHandle);
+                    continue;
+                }
                 try {
                     oc.mObserver.onChange(oc.mSelfChange, uri, userHandle);
                     if (DEBUG) Slog.d(TAG, "Notified " + oc.mObserver + " of " + "update at "
@@ -1371,7 +1392,9 @@ public final class ContentService extends IContentService.Stub {
         public static final int DELETE_TYPE = 2;
 
         private String mName;
-        private ArrayList<ObserverNode> mChildren = new ArrayList<ObserverNode>();
+        // Keyed by segment name so that notifications and registrations find the child for
+        // each Uri segment without comparing against every sibling.
+        private final ArrayMap<String, ObserverNode> mChildren = new ArrayMap<>();
         private ArrayList<ObserverEntry> mObservers = new ArrayList<ObserverEntry>();
 
         public ObserverNode(String name) {
@@ -1403,7 +1426,7 @@ public final class ContentService extends IContentService.Stub {
                 }
                 for (int i=0; i<mChildren.size(); i++) {
                     counts[0]++;
-                    mChildren.get(i).dumpLocked(fd, pw, args, innerName, prefix,
+                    mChildren.valueAt(i).dumpLocked(fd, pw, args, innerName, prefix,
                             counts, pidCounts);
                 }
             }
@@ -1451,19 +1474,12 @@ public final class ContentService extends IContentService.Stub {
             if (segment == null) {
                 throw new IllegalArgumentException("Invalid Uri (" + uri + ") used for observer");
             }
-            int N = mChildren.size();
-            for (int i = 0; i < N; i++) {
-                ObserverNode node = mChildren.get(i);
-                if (node.mName.equals(segment)) {
-                    node.addObserverLocked(uri, index + 1, observer, notifyForDescendants,
-                            observersLock, uid, pid, userHandle);
-                    return;
-                }
+            ObserverNode node = mChildren.get(segment);
+            if (node == null) {
+                // No child found, create one
+                node = new ObserverNode(segment);
+                mChildren.put(segment, node);
             }
-
-            // No child found, create one
-            ObserverNode node = new ObserverNode(segment);
-            mChildren.add(node);
             node.addObserverLocked(uri, index + 1, observer, notifyForDescendants,
                     observersLock, uid, pid, userHandle);
         }
@@ -1471,9 +1487,9 @@ public final class ContentService extends IContentService.Stub {
         public boolean removeObserverLocked(IContentObserver observer) {
             int size = mChildren.size();
             for (int i = 0; i < size; i++) {
-                boolean empty = mChildren.get(i).removeObserverLocked(observer);
+                boolean empty = mChildren.valueAt(i).removeObserverLocked(observer);
                 if (empty) {
-                    mChildren.remove(i);
+                    mChildren.removeAt(i);
                     i--;
                     size--;
                 }
@@ -1567,16 +1583,18 @@ public final class ContentService extends IContentService.Stub {
                         flags, targetUserHandle, calls);
             }
 
-            int N = mChildren.size();
-            for (int i = 0; i < N; i++) {
-                ObserverNode node = mChildren.get(i);
-                if (segment == null || node.mName.equals(segment)) {
+            if (segment != null) {
+                final ObserverNode node = mChildren.get(segment);
+                if (node != null) {
                     // We found the child,
                     node.collectObserversLocked(uri, index + 1, observer,
                             observerWantsSelfNotifications, flags, targetUserHandle, calls);
-                    if (segment != null) {
-                        break;
-                    }
+                }
+            } else {
+                final int N = mChildren.size();
+                for (int i = 0; i < N; i++) {
+                    mChildren.valueAt(i).collectObserversLocked(uri, index + 1, observer,
+                            observerWantsSelfNotifications, flags, targetUserHandle, calls);
                 }
             }
         }
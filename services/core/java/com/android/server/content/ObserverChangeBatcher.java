@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.database.IContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Slog;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Coalesces content change notifications for authorities that change at a high rate, so that
+ * a bulk insert results in one callback per observer instead of one per changed row.
+ *
+ * <p>Changes are held for at most the coalescing window, then delivered to each observer as a
+ * single {@link IContentObserver#onChangeEtc} call per (selfChange, user) pair.  Uris are
+ * delivered in the order they first changed; repeated changes to the same Uri within a window
+ * are delivered once.
+ */
+class ObserverChangeBatcher {
+    private static final String TAG = ContentService.TAG;
+
+    /** Called when a pending notification could not be delivered. */
+    interface DeadObserverCallback {
+        void onObserverDied(IContentObserver observer);
+    }
+
+    /** Changed Uris in the order they first changed, without duplicates. */
+    private static final class UriList {
+        final ArrayList<Uri> uris = new ArrayList<>();
+        private final ArraySet<Uri> mSeen = new ArraySet<>();
+
+        void add(Uri uri) {
+            if (mSeen.add(uri)) {
+                uris.add(uri);
+            }
+        }
+    }
+
+    private static final class PendingChanges {
+        final IContentObserver observer;
+        /** Changed Uris, keyed by {@link #makeKey}. */
+        final SparseArray<UriList> uris = new SparseArray<>();
+
+        PendingChanges(IContentObserver observer) {
+            this.observer = observer;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final Handler mHandler;
+    private final DeadObserverCallback mDeadObserverCallback;
+    private final long mWindowMillis;
+    private final ArraySet<String> mAuthorities = new ArraySet<>();
+
+    @GuardedBy("mLock")
+    private final ArrayMap<IBinder, PendingChanges> mPending = new ArrayMap<>();
+
+    @GuardedBy("mLock")
+    private boolean mFlushScheduled;
+
+    @GuardedBy("mLock")
+    private long mNotifyCount;
+
+    @GuardedBy("mLock")
+    private long mCallbackCount;
+
+    private final Runnable mFlushRunnable = this::flush;
+
+    ObserverChangeBatcher(Handler handler, DeadObserverCallback deadObserverCallback,
+            String[] authorities, long windowMillis) {
+        mHandler = handler;
+        mDeadObserverCallback = deadObserverCallback;
+        mWindowMillis = windowMillis;
+        if (authorities != null) {
+            for (String authority : authorities) {
+                mAuthorities.add(authority);
+            }
+        }
+    }
+
+    /** @return Whether notifications for {@code uri} should go through {@link #enqueue}. */
+    boolean shouldCoalesce(Uri uri) {
+        return mWindowMillis > 0 && mAuthorities.contains(uri.getAuthority());
+    }
+
+    /**
+     * Queues a change for delivery to {@code observer} within the coalescing window.
+     */
+    void enqueue(IContentObserver observer, boolean selfChange, Uri uri, int userId) {
+        synchronized (mLock) {
+            final IBinder binder = observer.asBinder();
+            PendingChanges pending = mPending.get(binder);
+            if (pending == null) {
+                pending = new PendingChanges(observer);
+                mPending.put(binder, pending);
+            }
+            final int key = makeKey(selfChange, userId);
+            UriList uris = pending.uris.get(key);
+            if (uris == null) {
+                uris = new UriList();
+                pending.uris.put(key, uris);
+            }
+            uris.add(uri);
+            mNotifyCount++;
+
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postAtTime(mFlushRunnable, SystemClock.uptimeMillis() + mWindowMillis);
+            }
+        }
+    }
+
+    /**
+     * Delivers all pending changes now.
+     */
+    @VisibleForTesting
+    void flush() {
+        final ArrayMap<IBinder, PendingChanges> pending;
+        synchronized (mLock) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = false;
+            if (mPending.isEmpty()) {
+                return;
+            }
+            pending = new ArrayMap<>(mPending);
+            mPending.clear();
+        }
+
+        int callbacks = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            final PendingChanges changes = pending.valueAt(i);
+            try {
+                for (int j = 0; j < changes.uris.size(); j++) {
+                    final int key = changes.uris.keyAt(j);
+                    final ArrayList<Uri> uris = changes.uris.valueAt(j).uris;
+                    if (uris.size() == 1) {
+                        changes.observer.onChange(isSelfChange(key), uris.get(0),
+                                getUserId(key));
+                    } else {
+                        changes.observer.onChangeEtc(isSelfChange(key),
+                                uris.toArray(new Uri[uris.size()]), getUserId(key));
+                    }
+                    callbacks++;
+                }
+            } catch (RemoteException e) {
+                Slog.w(TAG, "Found dead observer, removing");
+                mDeadObserverCallback.onObserverDied(changes.observer);
+            }
+        }
+        synchronized (mLock) {
+            mCallbackCount += callbacks;
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.print("Coalesced notifications: window=");
+            pw.print(mWindowMillis);
+            pw.print("ms authorities=");
+            pw.println(mAuthorities);
+            pw.print("  notifications=");
+            pw.print(mNotifyCount);
+            pw.print(" callbacks=");
+            pw.print(mCallbackCount);
+            pw.print(" pending observers=");
+            pw.println(mPending.size());
+        }
+    }
+
+    private static int makeKey(boolean selfChange, int userId) {
+        return (userId << 1) | (selfChange ? 1 : 0);
+    }
+
+    private static boolean isSelfChange(int key) {
+        return (key & 1) != 0;
+    }
+
+    private static int getUserId(int key) {
+        return key >> 1;
+    }
+}
@@ -60,6 +60,7 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -153,6 +154,8 @@ public class SyncStorageEngine {
     private static final int MSG_WRITE_STATISTICS = 2;
     private static final long WRITE_STATISTICS_DELAY = 1000*60*30; // 1/2 hour
 
+    private static final int MSG_WRITE_ACCOUNT_INFO = 3;
+
     private static final boolean SYNC_ENABLED_DEFAULT = false;
 
     // the version of the accounts xml file format
@@ -421,6 +424,10 @@ public class SyncStorageEngine {
     private final SparseArray<AuthorityInfo> mAuthorities =
             new SparseArray<AuthorityInfo>();
 
+    // Serializes writes of the state files.  Always taken before mAuthorities, which is only
+    // held while the state is serialized, so that file I/O happens outside of the global lock.
+    private final Object mFileLock = new Object();
+
     private final HashMap<AccountAndUser, AccountInfo> mAccounts
             = new HashMap<AccountAndUser, AccountInfo>();
 
@@ -569,13 +576,11 @@ public class SyncStorageEngine {
         @Override
         public void handleMessage(Message msg) {
             if (msg.what == MSG_WRITE_STATUS) {
-                synchronized (mAuthorities) {
-                    writeStatusLocked();
-                }
+                writeStatus();
             } else if (msg.what == MSG_WRITE_STATISTICS) {
-                synchronized (mAuthorities) {
-                    writeStatisticsLocked();
-                }
+                writeStatistics();
+            } else if (msg.what == MSG_WRITE_ACCOUNT_INFO) {
+                writeAccountInfo();
             }
         }
     }
@@ -1046,14 +1051,8 @@ public class SyncStorageEngine {
                         mAuthorityRemovedListener.onAuthorityRemoved(auth.target);
                     }
                     mAuthorities.remove(ident);
-                    int j = mSyncStatus.size();
-                    while (j > 0) {
-                        j--;
-                        if (mSyncStatus.keyAt(j) == ident) {
-                            mSyncStatus.remove(mSyncStatus.keyAt(j));
-                        }
-                    }
-                    j = mSyncHistory.size();
+                    mSyncStatus.remove(ident);
+                    int j = mSyncHistory.size();
                     while (j > 0) {
                         j--;
                         if (mSyncHistory.get(j).authorityId == ident) {
@@ -1366,6 +1365,9 @@ public class SyncStorageEngine {
             return null;
         }
         synchronized (mAuthorities) {
+            if (info.userId != UserHandle.USER_ALL) {
+                return getSyncStatusLocked(info);
+            }
             final int N = mSyncStatus.size();
             for (int i = 0; i < N; i++) {
                 SyncStatusInfo cur = mSyncStatus.valueAt(i);
@@ -1382,6 +1384,11 @@ public class SyncStorageEngine {
     /** Return true if the pending status is true of any matching authorities. */
     public boolean isSyncPending(EndPoint info) {
         synchronized (mAuthorities) {
+            if (info.account != null && info.provider != null
+                    && info.userId != UserHandle.USER_ALL) {
+                final SyncStatusInfo status = getSyncStatusLocked(info);
+                return status != null && status.pending;
+            }
             final int N = mSyncStatus.size();
             for (int i = 0; i < N; i++) {
                 SyncStatusInfo cur = mSyncStatus.valueAt(i);
@@ -1546,6 +1553,18 @@ public class SyncStorageEngine {
         }
     }
 
+    /**
+     * Looks up the status of a fully specified target through the (account, user) and provider
+     * maps instead of scanning every status.
+     *
+     * @param info A target with a non-null account and provider and a specific user.
+     * @return The status of the target, or null if it has none.
+     */
+    private SyncStatusInfo getSyncStatusLocked(EndPoint info) {
+        final AuthorityInfo authority = getAuthorityLocked(info, null /* tag */);
+        return authority != null ? mSyncStatus.get(authority.ident) : null;
+    }
+
     private SyncStatusInfo getOrCreateSyncStatusLocked(int authorityId) {
         SyncStatusInfo status = mSyncStatus.get(authorityId);
         if (status == null) {
@@ -1556,11 +1575,10 @@ public class SyncStorageEngine {
     }
 
     public void writeAllState() {
-        synchronized (mAuthorities) {
-            // Account info is always written so no need to do it here.
-            writeStatusLocked();
-            writeStatisticsLocked();
-        }
+        // Account info writes may still be pending, so flush everything.
+        writeAccountInfo();
+        writeStatus();
+        writeStatistics();
     }
 
     public boolean shouldGrantSyncAdaptersAccountAccess() {
@@ -1942,18 +1960,36 @@ public class SyncStorageEngine {
     }
 
     /**
-     * Write all account information to the account file.
+     * Schedule a write of all account information to the account file.  Changes made before
+     * the write runs are persisted by the same write.
      */
     private void writeAccountInfoLocked() {
-        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
-            Slog.v(TAG_FILE, "Writing new " + mAccountInfoFile.getBaseFile());
+        if (!mHandler.hasMessages(MSG_WRITE_ACCOUNT_INFO)) {
+            mHandler.sendEmptyMessage(MSG_WRITE_ACCOUNT_INFO);
         }
-        FileOutputStream fos = null;
+    }
 
+    /**
+     * Write all account information to the account file.
+     */
+    private void writeAccountInfo() {
+        synchronized (mFileLock) {
+            final byte[] data;
+            synchronized (mAuthorities) {
+                mHandler.removeMessages(MSG_WRITE_ACCOUNT_INFO);
+                data = serializeAccountInfoLocked();
+            }
+            if (data != null) {
+                writeStateFile(mAccountInfoFile, data);
+            }
+        }
+    }
+
+    private byte[] serializeAccountInfoLocked() {
         try {
-            fos = mAccountInfoFile.startWrite();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
             XmlSerializer out = new FastXmlSerializer();
-            out.setOutput(fos, StandardCharsets.UTF_8.name());
+            out.setOutput(bos, StandardCharsets.UTF_8.name());
             out.startDocument(null, true);
             out.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
 
@@ -1989,11 +2025,30 @@ public class SyncStorageEngine {
             }
             out.endTag(null, "accounts");
             out.endDocument();
-            mAccountInfoFile.finishWrite(fos);
+            return bos.toByteArray();
         } catch (java.io.IOException e1) {
             Slog.w(TAG, "Error writing accounts", e1);
+            return null;
+        }
+    }
+
+    /**
+     * Replace the contents of a state file.  Must be called with {@link #mFileLock} held and
+     * without holding {@link #mAuthorities}.
+     */
+    private static void writeStateFile(AtomicFile file, byte[] data) {
+        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
+            Slog.v(TAG_FILE, "Writing new " + file.getBaseFile());
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            fos.write(data);
+            file.finishWrite(fos);
+        } catch (java.io.IOException e1) {
+            Slog.w(TAG, "Error writing " + file.getBaseFile(), e1);
             if (fos != null) {
-                mAccountInfoFile.failWrite(fos);
+                file.failWrite(fos);
             }
         }
     }
@@ -2176,37 +2231,36 @@ public class SyncStorageEngine {
     }
 
     /**
-     * Write all sync status to the sync status file.
+     * Schedule an immediate write of all sync status, replacing any delayed write.
      */
     private void writeStatusLocked() {
-        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
-            Slog.v(TAG_FILE, "Writing new " + mStatusFile.getBaseFile());
-        }
-
-        // The file is being written, so we don't need to have a scheduled
-        // write until the next change.
         mHandler.removeMessages(MSG_WRITE_STATUS);
+        mHandler.sendEmptyMessage(MSG_WRITE_STATUS);
+    }
 
-        FileOutputStream fos = null;
-        try {
-            fos = mStatusFile.startWrite();
-            Parcel out = Parcel.obtain();
-            final int N = mSyncStatus.size();
-            for (int i=0; i<N; i++) {
-                SyncStatusInfo status = mSyncStatus.valueAt(i);
-                out.writeInt(STATUS_FILE_ITEM);
-                status.writeToParcel(out, 0);
-            }
-            out.writeInt(STATUS_FILE_END);
-            fos.write(out.marshall());
-            out.recycle();
-
-            mStatusFile.finishWrite(fos);
-        } catch (java.io.IOException e1) {
-            Slog.w(TAG, "Error writing status", e1);
-            if (fos != null) {
-                mStatusFile.failWrite(fos);
+    /**
+     * Write all sync status to the sync status file.
+     */
+    private void writeStatus() {
+        synchronized (mFileLock) {
+            final byte[] data;
+            synchronized (mAuthorities) {
+                // The file is being written, so we don't need to have a scheduled
+                // write until the next change.
+                mHandler.removeMessages(MSG_WRITE_STATUS);
+
+                Parcel out = Parcel.obtain();
+                final int N = mSyncStatus.size();
+                for (int i=0; i<N; i++) {
+                    SyncStatusInfo status = mSyncStatus.valueAt(i);
+                    out.writeInt(STATUS_FILE_ITEM);
+                    status.writeToParcel(out, 0);
+                }
+                out.writeInt(STATUS_FILE_END);
+                data = out.marshall();
+                out.recycle();
             }
+            writeStateFile(mStatusFile, data);
         }
     }
 
@@ -2285,44 +2339,43 @@ public class SyncStorageEngine {
     }
 
     /**
-     * Write all sync statistics to the sync status file.
+     * Schedule an immediate write of all sync statistics, replacing any delayed write.
      */
     private void writeStatisticsLocked() {
-        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
-            Slog.v(TAG, "Writing new " + mStatisticsFile.getBaseFile());
-        }
-
-        // The file is being written, so we don't need to have a scheduled
-        // write until the next change.
         mHandler.removeMessages(MSG_WRITE_STATISTICS);
+        mHandler.sendEmptyMessage(MSG_WRITE_STATISTICS);
+    }
 
-        FileOutputStream fos = null;
-        try {
-            fos = mStatisticsFile.startWrite();
-            Parcel out = Parcel.obtain();
-            final int N = mDayStats.length;
-            for (int i=0; i<N; i++) {
-                DayStats ds = mDayStats[i];
-                if (ds == null) {
-                    break;
+    /**
+     * Write all sync statistics to the sync status file.
+     */
+    private void writeStatistics() {
+        synchronized (mFileLock) {
+            final byte[] data;
+            synchronized (mAuthorities) {
+                // The file is being written, so we don't need to have a scheduled
+                // write until the next change.
+                mHandler.removeMessages(MSG_WRITE_STATISTICS);
+
+                Parcel out = Parcel.obtain();
+                final int N = mDayStats.length;
+                for (int i=0; i<N; i++) {
+                    DayStats ds = mDayStats[i];
+                    if (ds == null) {
+                        break;
+                    }
+                    out.writeInt(STATISTICS_FILE_ITEM);
+                    out.writeInt(ds.day);
+                    out.writeInt(ds.successCount);
+                    out.writeLong(ds.successTime);
+                    out.writeInt(ds.failureCount);
+                    out.writeLong(ds.failureTime);
                 }
-                out.writeInt(STATISTICS_FILE_ITEM);
-                out.writeInt(ds.day);
-                out.writeInt(ds.successCount);
-                out.writeLong(ds.successTime);
-                out.writeInt(ds.failureCount);
-                out.writeLong(ds.failureTime);
-            }
-            out.writeInt(STATISTICS_FILE_END);
-            fos.write(out.marshall());
-            out.recycle();
-
-            mStatisticsFile.finishWrite(fos);
-        } catch (java.io.IOException e1) {
-            Slog.w(TAG, "Error writing stats", e1);
-            if (fos != null) {
-                mStatisticsFile.failWrite(fos);
+                out.writeInt(STATISTICS_FILE_END);
+                data = out.marshall();
+                out.recycle();
             }
+            writeStateFile(mStatisticsFile, data);
         }
     }
 
@@ -19,6 +19,7 @@ package com.android.server.job;
 import android.annotation.UserIdInt;
 import android.app.job.JobInfo;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -80,9 +81,13 @@ public interface JobSchedulerInternal {
     JobStorePersistStats getPersistStats();
 
     /**
-     * Stats about the first load after boot and the most recent save.
+     * Stats about the first load after boot and the most recent save, plus cumulative write
+     * volume and latency since boot.
      */
     public class JobStorePersistStats {
+        /** Upper bounds, in milliseconds, of all but the last bucket of the latency histogram. */
+        public static final long[] WRITE_LATENCY_BUCKETS_MS = {1, 5, 10, 50, 100, 500};
+
         public int countAllJobsLoaded = -1;
         public int countSystemServerJobsLoaded = -1;
         public int countSystemSyncManagerJobsLoaded = -1;
@@ -91,6 +96,11 @@ public interface JobSchedulerInternal {
         public int countSystemServerJobsSaved = -1;
         public int countSystemSyncManagerJobsSaved = -1;
 
+        public int countWrites;
+        public int countFilesWritten;
+        public long bytesWritten;
+        public final int[] writeLatencyHistogram = new int[WRITE_LATENCY_BUCKETS_MS.length + 1];
+
         public JobStorePersistStats() {
         }
 
@@ -102,6 +112,30 @@ public interface JobSchedulerInternal {
             countAllJobsSaved = source.countAllJobsSaved;
             countSystemServerJobsSaved = source.countSystemServerJobsSaved;
             countSystemSyncManagerJobsSaved = source.countSystemSyncManagerJobsSaved;
+
+            countWrites = source.countWrites;
+            countFilesWritten = source.countFilesWritten;
+            bytesWritten = source.bytesWritten;
+            System.arraycopy(source.writeLatencyHistogram, 0, writeLatencyHistogram, 0,
+                    writeLatencyHistogram.length);
+        }
+
+        /**
+         * Records a completed write pass.
+         * @param files Number of per-uid files written or deleted.
+         * @param bytes Number of bytes written.
+         * @param latencyMs Duration of the pass, including serialization.
+         */
+        public void noteWrite(int files, long bytes, long latencyMs) {
+            countWrites++;
+            countFilesWritten += files;
+            bytesWritten += bytes;
+            int bucket = 0;
+            while (bucket < WRITE_LATENCY_BUCKETS_MS.length
+                    && latencyMs > WRITE_LATENCY_BUCKETS_MS[bucket]) {
+                bucket++;
+            }
+            writeLatencyHistogram[bucket]++;
         }
 
         @Override
@@ -113,7 +147,13 @@ public interface JobSchedulerInternal {
                     + " LastSave: "
                     + countAllJobsSaved + "/"
                     + countSystemServerJobsSaved + "/"
-                    + countSystemSyncManagerJobsSaved;
+                    + countSystemSyncManagerJobsSaved
+                    + " Writes: "
+                    + countWrites + "/"
+                    + countFilesWritten + "/"
+                    + bytesWritten
+                    + " WriteLatency: "
+                    + Arrays.toString(writeLatencyHistogram);
         }
     }
 }
@@ -38,6 +38,7 @@ import android.util.AtomicFile;
 import android.util.Pair;
 import android.util.Slog;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.util.Xml;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -69,7 +70,8 @@ import java.util.function.Predicate;
 /**
  * Maintains the master list of jobs that the job scheduler is tracking. These jobs are compared by
  * reference, so none of the functions in this class should make a copy.
- * Also handles read/write of persisted jobs.
+ * Also handles read/write of persisted jobs. Persisted jobs are stored in one file per calling
+ * uid, so that a change to one app's jobs only rewrites that app's file.
  *
  * Note on locking:
  *      All callers to this class must <strong>lock on the class object they are calling</strong>.
@@ -98,7 +100,19 @@ public final class JobStore {
     private int mDirtyOperations;
 
     private static final Object sSingletonLock = new Object();
+    /** Legacy single file holding every persisted job; only read to migrate to per-uid files. */
     private final AtomicFile mJobsFile;
+    /** Directory holding one persisted jobs file per calling uid. */
+    private final File mUidJobsDir;
+    /** Uids whose persisted jobs changed since the last write. Guarded by {@link #mLock}. */
+    private final SparseBooleanArray mDirtyUids = new SparseBooleanArray();
+    /** Set when every per-uid file needs to be rewritten. Guarded by {@link #mLock}. */
+    private boolean mRewriteAllUids;
+    /**
+     * Set once the legacy jobs file has been read and should be deleted after migration.
+     * Guarded by {@link #mLock}.
+     */
+    private boolean mLegacyFileMigrationPending;
     /** Handler backed by IoThread for writing to disk. */
     private final Handler mIoHandler = IoThread.getHandler();
     private static JobStore sSingleton;
@@ -138,6 +152,8 @@ public final class JobStore {
         File jobDir = new File(systemDir, "job");
         jobDir.mkdirs();
         mJobsFile = new AtomicFile(new File(jobDir, "jobs.xml"), "jobs");
+        mUidJobsDir = new File(jobDir, "uids");
+        mUidJobsDir.mkdirs();
 
         mJobSet = new JobSet();
 
@@ -152,7 +168,7 @@ public final class JobStore {
         // an incorrect historical timestamp.  That's fine; at worst we'll reboot with
         // a *correct* timestamp, see a bunch of overdue jobs, and run them; then
         // settle into normal operation.
-        mXmlTimestamp = mJobsFile.getLastModifiedTime();
+        mXmlTimestamp = getLastModifiedTime();
         mRtcGood = (sSystemClock.millis() > mXmlTimestamp);
 
         readJobMapFromDisk(mJobSet, mRtcGood);
@@ -200,7 +216,7 @@ public final class JobStore {
         boolean replaced = mJobSet.remove(jobStatus);
         mJobSet.add(jobStatus);
         if (jobStatus.isPersisted()) {
-            maybeWriteStatusToDiskAsync();
+            maybeWriteStatusToDiskAsync(jobStatus.getUid());
         }
         if (DEBUG) {
             Slog.d(TAG, "Added job status to store: " + jobStatus);
@@ -238,7 +254,7 @@ public final class JobStore {
             return false;
         }
         if (writeBack && jobStatus.isPersisted()) {
-            maybeWriteStatusToDiskAsync();
+            maybeWriteStatusToDiskAsync(jobStatus.getUid());
         }
         return removed;
     }
@@ -254,6 +270,7 @@ public final class JobStore {
     @VisibleForTesting
     public void clear() {
         mJobSet.clear();
+        mRewriteAllUids = true;
         maybeWriteStatusToDiskAsync();
     }
 
@@ -314,9 +331,22 @@ public final class JobStore {
     private static final String XML_TAG_ONEOFF = "one-off";
     private static final String XML_TAG_EXTRAS = "extras";
 
+    private static final String UID_FILE_PREFIX = "jobs-";
+    private static final String UID_FILE_SUFFIX = ".xml";
+    private static final String BACKUP_FILE_SUFFIX = ".bak";
+
     /**
-     * Every time the state changes we write all the jobs in one swath, instead of trying to
-     * track incremental changes.
+     * Marks the persisted jobs of the given uid as changed and schedules a write. Only the files
+     * of uids marked this way are rewritten by the next write.
+     */
+    private void maybeWriteStatusToDiskAsync(int uid) {
+        mDirtyUids.put(uid, true);
+        maybeWriteStatusToDiskAsync();
+    }
+
+    /**
+     * Schedules a write of all per-uid files that have been marked dirty since the last write.
+     * Back-to-back changes are coalesced into a single pass on the io thread.
      */
     private void maybeWriteStatusToDiskAsync() {
         mDirtyOperations++;
@@ -334,34 +364,165 @@ public final class JobStore {
         new ReadJobMapFromDiskRunnable(jobSet, rtcGood).run();
     }
 
+    @VisibleForTesting
+    File getJobsFileForUid(int uid) {
+        return new File(mUidJobsDir, UID_FILE_PREFIX + uid + UID_FILE_SUFFIX);
+    }
+
     /**
-     * Runnable that writes {@link #mJobSet} out to xml.
+     * @return The uids that currently have a jobs file on disk, including files for which only
+     * a backup survived an interrupted write.
+     */
+    private SparseBooleanArray getPersistedUids() {
+        final SparseBooleanArray uids = new SparseBooleanArray();
+        final File[] files = mUidJobsDir.listFiles();
+        if (files == null) {
+            return uids;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(BACKUP_FILE_SUFFIX)) {
+                name = name.substring(0, name.length() - BACKUP_FILE_SUFFIX.length());
+            }
+            if (!name.startsWith(UID_FILE_PREFIX) || !name.endsWith(UID_FILE_SUFFIX)) {
+                continue;
+            }
+            try {
+                uids.put(Integer.parseInt(name.substring(UID_FILE_PREFIX.length(),
+                        name.length() - UID_FILE_SUFFIX.length())), true);
+            } catch (NumberFormatException e) {
+                Slog.w(TAG, "Ignoring unexpected file in jobs directory: " + file);
+            }
+        }
+        return uids;
+    }
+
+    /**
+     * @return The most recent modification time of any persisted jobs file, or 0 if there are
+     * none.
+     */
+    private long getLastModifiedTime() {
+        long lastModified = mJobsFile.getLastModifiedTime();
+        final SparseBooleanArray uids = getPersistedUids();
+        for (int i = 0; i < uids.size(); i++) {
+            lastModified = Math.max(lastModified,
+                    new AtomicFile(getJobsFileForUid(uids.keyAt(i))).getLastModifiedTime());
+        }
+        return lastModified;
+    }
+
+    /**
+     * Runnable that writes the persisted jobs of every dirty uid in {@link #mJobSet} out to xml.
      * NOTE: This Runnable locks on mLock
      */
     private final Runnable mWriteRunnable = new Runnable() {
         @Override
         public void run() {
             final long startElapsed = sElapsedRealtimeClock.millis();
-            final List<JobStatus> storeCopy = new ArrayList<JobStatus>();
+            final SparseArray<List<JobStatus>> dirtyJobs = new SparseArray<>();
+            final boolean rewriteAll;
+            final boolean deleteLegacyFile;
             synchronized (mLock) {
-                // Clone the jobs so we can release the lock before writing.
+                rewriteAll = mRewriteAllUids;
+                mRewriteAllUids = false;
+                deleteLegacyFile = rewriteAll && mLegacyFileMigrationPending;
+                for (int i = 0; i < mDirtyUids.size(); i++) {
+                    dirtyJobs.put(mDirtyUids.keyAt(i), new ArrayList<>());
+                }
+                mDirtyUids.clear();
+
+                mPersistInfo.countAllJobsSaved = 0;
+                mPersistInfo.countSystemServerJobsSaved = 0;
+                mPersistInfo.countSystemSyncManagerJobsSaved = 0;
+                // Clone the jobs of dirty uids so we can release the lock before writing.
                 mJobSet.forEachJob(null, (job) -> {
-                    if (job.isPersisted()) {
-                        storeCopy.add(new JobStatus(job));
+                    if (!job.isPersisted()) {
+                        return;
+                    }
+                    mPersistInfo.countAllJobsSaved++;
+                    if (job.getUid() == Process.SYSTEM_UID) {
+                        mPersistInfo.countSystemServerJobsSaved++;
+                        if (isSyncJob(job)) {
+                            mPersistInfo.countSystemSyncManagerJobsSaved++;
+                        }
+                    }
+                    List<JobStatus> uidJobs = dirtyJobs.get(job.getUid());
+                    if (uidJobs == null && rewriteAll) {
+                        uidJobs = new ArrayList<>();
+                        dirtyJobs.put(job.getUid(), uidJobs);
+                    }
+                    if (uidJobs != null) {
+                        uidJobs.add(new JobStatus(job));
                     }
                 });
             }
-            writeJobsMapImpl(storeCopy);
+            if (rewriteAll) {
+                // Files of uids that no longer have any persisted job are stale; writing an
+                // empty list deletes them. Only this thread writes the files, so listing them
+                // outside of the lock is safe.
+                final SparseBooleanArray persistedUids = getPersistedUids();
+                for (int i = 0; i < persistedUids.size(); i++) {
+                    if (dirtyJobs.get(persistedUids.keyAt(i)) == null) {
+                        dirtyJobs.put(persistedUids.keyAt(i), new ArrayList<>());
+                    }
+                }
+            }
+
+            long bytesWritten = 0;
+            final SparseBooleanArray failedUids = new SparseBooleanArray();
+            for (int i = 0; i < dirtyJobs.size(); i++) {
+                final long written = writeJobsMapImpl(dirtyJobs.keyAt(i), dirtyJobs.valueAt(i));
+                if (written < 0) {
+                    failedUids.put(dirtyJobs.keyAt(i), true);
+                } else {
+                    bytesWritten += written;
+                }
+            }
+            final boolean success = failedUids.size() == 0;
+            if (deleteLegacyFile && success) {
+                // Every job from the legacy file now lives in a per-uid file.
+                mJobsFile.delete();
+            }
+            mDirtyOperations = 0;
+
+            final long elapsed = sElapsedRealtimeClock.millis() - startElapsed;
+            synchronized (mLock) {
+                // Keep failed uids dirty so that they are retried with the next write.
+                for (int i = 0; i < failedUids.size(); i++) {
+                    mDirtyUids.put(failedUids.keyAt(i), true);
+                }
+                if (deleteLegacyFile) {
+                    if (success) {
+                        mLegacyFileMigrationPending = false;
+                    } else {
+                        // The legacy file is still read on boot; retry the full migration with
+                        // the next write rather than diverging from it.
+                        mRewriteAllUids = true;
+                    }
+                }
+                mPersistInfo.noteWrite(dirtyJobs.size(), bytesWritten, elapsed);
+            }
             if (DEBUG) {
-                Slog.v(TAG, "Finished writing, took " + (sElapsedRealtimeClock.millis()
-                        - startElapsed) + "ms");
+                Slog.v(TAG, "Finished writing " + dirtyJobs.size() + " uid files ("
+                        + bytesWritten + " bytes), took " + elapsed + "ms");
             }
         }
 
-        private void writeJobsMapImpl(List<JobStatus> jobList) {
-            int numJobs = 0;
-            int numSystemJobs = 0;
-            int numSyncJobs = 0;
+        /**
+         * Writes the given jobs to the file of their calling uid, deleting the file if there are
+         * no jobs left.
+         * @return The number of bytes written, or -1 if the write failed.
+         */
+        private long writeJobsMapImpl(int uid, List<JobStatus> jobList) {
+            final AtomicFile uidFile = new AtomicFile(getJobsFileForUid(uid), "jobs");
+            if (jobList.isEmpty()) {
+                if (DEBUG) {
+                    Slog.d(TAG, "No persisted jobs left for uid " + uid);
+                }
+                uidFile.delete();
+                return 0;
+            }
+            FileOutputStream fos = null;
             try {
                 final long startTime = SystemClock.uptimeMillis();
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -383,36 +544,29 @@ public final class JobStore {
                     writeExecutionCriteriaToXml(out, jobStatus);
                     writeBundleToXml(jobStatus.getJob().getExtras(), out);
                     out.endTag(null, "job");
-
-                    numJobs++;
-                    if (jobStatus.getUid() == Process.SYSTEM_UID) {
-                        numSystemJobs++;
-                        if (isSyncJob(jobStatus)) {
-                            numSyncJobs++;
-                        }
-                    }
                 }
                 out.endTag(null, "job-info");
                 out.endDocument();
 
                 // Write out to disk in one fell swoop.
-                FileOutputStream fos = mJobsFile.startWrite(startTime);
-                fos.write(baos.toByteArray());
-                mJobsFile.finishWrite(fos);
-                mDirtyOperations = 0;
+                final byte[] bytes = baos.toByteArray();
+                fos = uidFile.startWrite(startTime);
+                fos.write(bytes);
+                uidFile.finishWrite(fos);
+                return bytes.length;
             } catch (IOException e) {
                 if (DEBUG) {
                     Slog.v(TAG, "Error writing out job data.", e);
                 }
+                if (fos != null) {
+                    uidFile.failWrite(fos);
+                }
             } catch (XmlPullParserException e) {
                 if (DEBUG) {
                     Slog.d(TAG, "Error persisting bundle.", e);
                 }
-            } finally {
-                mPersistInfo.countAllJobsSaved = numJobs;
-                mPersistInfo.countSystemServerJobsSaved = numSystemJobs;
-                mPersistInfo.countSystemSyncManagerJobsSaved = numSyncJobs;
             }
+            return -1;
         }
 
         /** Write out a tag with data comprising the required fields and priority of this job and
@@ -592,37 +746,43 @@ public final class JobStore {
             int numJobs = 0;
             int numSystemJobs = 0;
             int numSyncJobs = 0;
+            final boolean migrateLegacyFile = mJobsFile.exists();
             try {
-                List<JobStatus> jobs;
-                FileInputStream fis = mJobsFile.openRead();
                 synchronized (mLock) {
-                    jobs = readJobMapImpl(fis, rtcGood);
-                    if (jobs != null) {
-                        long now = sElapsedRealtimeClock.millis();
-                        IActivityManager am = ActivityManager.getService();
-                        for (int i=0; i<jobs.size(); i++) {
-                            JobStatus js = jobs.get(i);
-                            js.prepareLocked(am);
-                            js.enqueueTime = now;
-                            this.jobSet.add(js);
-
-                            numJobs++;
-                            if (js.getUid() == Process.SYSTEM_UID) {
-                                numSystemJobs++;
-                                if (isSyncJob(js)) {
-                                    numSyncJobs++;
-                                }
+                    final List<JobStatus> jobs = new ArrayList<>();
+                    if (migrateLegacyFile) {
+                        // The legacy file stays authoritative until every job in it has been
+                        // written to a per-uid file, so ignore any per-uid files left behind by
+                        // an interrupted migration.
+                        readJobsFile(mJobsFile, jobs);
+                    } else {
+                        final SparseBooleanArray uids = getPersistedUids();
+                        for (int i = 0; i < uids.size(); i++) {
+                            readJobsFile(new AtomicFile(getJobsFileForUid(uids.keyAt(i))), jobs);
+                        }
+                    }
+                    long now = sElapsedRealtimeClock.millis();
+                    IActivityManager am = ActivityManager.getService();
+                    for (int i=0; i<jobs.size(); i++) {
+                        JobStatus js = jobs.get(i);
+                        js.prepareLocked(am);
+                        js.enqueueTime = now;
+                        this.jobSet.add(js);
+
+                        numJobs++;
+                        if (js.getUid() == Process.SYSTEM_UID) {
+                            numSystemJobs++;
+                            if (isSyncJob(js)) {
+                                numSyncJobs++;
                             }
                         }
                     }
+                    if (migrateLegacyFile) {
+                        mLegacyFileMigrationPending = true;
+                        mRewriteAllUids = true;
+                        maybeWriteStatusToDiskAsync();
+                    }
                 }
-                fis.close();
-            } catch (FileNotFoundException e) {
-                if (DEBUG) {
-                    Slog.d(TAG, "Could not find jobs file, probably there was nothing to load.");
-                }
-            } catch (XmlPullParserException | IOException e) {
-                Slog.wtf(TAG, "Error jobstore xml.", e);
             } finally {
                 if (mPersistInfo.countAllJobsLoaded < 0) { // Only set them once.
                     mPersistInfo.countAllJobsLoaded = numJobs;
@@ -633,6 +793,25 @@ public final class JobStore {
             Slog.i(TAG, "Read " + numJobs + " jobs");
         }
 
+        /**
+         * Reads the jobs persisted in a single file into {@code outJobs}. A corrupt file only
+         * loses the jobs it contains.
+         */
+        private void readJobsFile(AtomicFile file, List<JobStatus> outJobs) {
+            try (FileInputStream fis = file.openRead()) {
+                final List<JobStatus> jobs = readJobMapImpl(fis, rtcGood);
+                if (jobs != null) {
+                    outJobs.addAll(jobs);
+                }
+            } catch (FileNotFoundException e) {
+                if (DEBUG) {
+                    Slog.d(TAG, "Could not find jobs file, probably there was nothing to load.");
+                }
+            } catch (XmlPullParserException | IOException e) {
+                Slog.wtf(TAG, "Error jobstore xml " + file.getBaseFile(), e);
+            }
+        }
+
         private List<JobStatus> readJobMapImpl(FileInputStream fis, boolean rtcIsGood)
                 throws XmlPullParserException, IOException {
             XmlPullParser parser = Xml.newPullParser();
@@ -35,6 +35,7 @@ import static com.android.server.wm.WindowManagerDebugConfig.TAG_WM;
 
 import android.app.ActivityManager;
 import android.graphics.Rect;
+import android.graphics.Region;
 import android.os.Debug;
 import android.os.IBinder;
 import android.os.Looper;
@@ -56,7 +57,9 @@ import com.android.server.input.InputWindowHandle;
 import com.android.server.policy.WindowManagerPolicy;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Objects;
 import java.util.Set;
 import java.util.function.Consumer;
 
@@ -85,6 +88,19 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
     private int mInputWindowHandleCount;
     private InputWindowHandle mFocusedInputWindowHandle;
 
+    // The window handles as they were last sent to the input dispatcher, so that a list that
+    // did not change since is not sent again.
+    private final ArrayList<SentInputWindow> mSentInputWindows = new ArrayList<>();
+    private int mSentInputWindowCount;
+    private InputWindowHandle mSentFocusedInputWindowHandle;
+
+    // Statistics of the lists sent to the input dispatcher, for dumpsys.
+    private long mInputWindowsUnchangedCount;
+    private long mInputWindowsPartialChangeCount;
+    private long mInputWindowsFullChangeCount;
+    private long mInputWindowsChangedHandleCount;
+    private long mInputWindowsSentHandleCount;
+
     private boolean mAddInputConsumerHandle;
     private boolean mAddPipInputConsumerHandle;
     private boolean mAddWallpaperInputConsumerHandle;
@@ -351,6 +367,48 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         }
     }
 
+    /**
+     * Sends the input window handles to the input dispatcher, unless neither the handles nor
+     * their fields changed since they were last sent.
+     */
+    private void sendInputWindowHandlesLw() {
+        final int count = mInputWindowHandleCount;
+        int changed = 0;
+        for (int i = 0; i < count; i++) {
+            if (i >= mSentInputWindowCount
+                    || !mSentInputWindows.get(i).matches(mInputWindowHandles[i])) {
+                changed++;
+            }
+        }
+        final boolean sameList = count == mSentInputWindowCount
+                && mFocusedInputWindowHandle == mSentFocusedInputWindowHandle;
+        if (sameList && changed == 0) {
+            mInputWindowsUnchangedCount++;
+            return;
+        }
+        if (sameList && changed < count) {
+            mInputWindowsPartialChangeCount++;
+        } else {
+            mInputWindowsFullChangeCount++;
+        }
+        mInputWindowsChangedHandleCount += changed;
+        mInputWindowsSentHandleCount += count;
+
+        mService.mInputManager.setInputWindows(mInputWindowHandles, mFocusedInputWindowHandle);
+
+        for (int i = 0; i < count; i++) {
+            if (i == mSentInputWindows.size()) {
+                mSentInputWindows.add(new SentInputWindow());
+            }
+            mSentInputWindows.get(i).set(mInputWindowHandles[i]);
+        }
+        for (int i = count; i < mSentInputWindowCount; i++) {
+            mSentInputWindows.get(i).clear();
+        }
+        mSentInputWindowCount = count;
+        mSentFocusedInputWindowHandle = mFocusedInputWindowHandle;
+    }
+
     private void clearInputWindowHandlesLw() {
         while (mInputWindowHandleCount != 0) {
             mInputWindowHandles[--mInputWindowHandleCount] = null;
@@ -601,6 +659,11 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         if (mInputFreezeReason != null) {
             pw.println(prefix + "mInputFreezeReason=" + mInputFreezeReason);
         }
+        pw.println(prefix + "Input window updates: unchanged=" + mInputWindowsUnchangedCount
+                + " partialChange=" + mInputWindowsPartialChangeCount
+                + " fullChange=" + mInputWindowsFullChangeCount
+                + " changedHandles=" + mInputWindowsChangedHandleCount
+                + "/" + mInputWindowsSentHandleCount);
         final Set<String> inputConsumerKeys = mInputConsumers.keySet();
         if (!inputConsumerKeys.isEmpty()) {
             pw.println(prefix + "InputConsumers:");
@@ -610,6 +673,101 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         }
     }
 
+    /**
+     * The fields of an input window handle that the input dispatcher reads, as they were when
+     * the handle was last sent to it.
+     */
+    private static final class SentInputWindow {
+        private InputWindowHandle mHandle;
+        private InputChannel mInputChannel;
+        private String mApplicationName;
+        private long mApplicationDispatchingTimeoutNanos;
+        private String mName;
+        private int mLayoutParamsFlags;
+        private int mLayoutParamsType;
+        private long mDispatchingTimeoutNanos;
+        private int mFrameLeft;
+        private int mFrameTop;
+        private int mFrameRight;
+        private int mFrameBottom;
+        private float mScaleFactor;
+        private final Region mTouchableRegion = new Region();
+        private boolean mVisible;
+        private boolean mCanReceiveKeys;
+        private boolean mHasFocus;
+        private boolean mHasWallpaper;
+        private boolean mPaused;
+        private int mLayer;
+        private int mOwnerPid;
+        private int mOwnerUid;
+        private int mInputFeatures;
+        private int mDisplayId;
+
+        void set(InputWindowHandle handle) {
+            mHandle = handle;
+            mInputChannel = handle.inputChannel;
+            final InputApplicationHandle app = handle.inputApplicationHandle;
+            mApplicationName = app != null ? app.name : null;
+            mApplicationDispatchingTimeoutNanos = app != null ? app.dispatchingTimeoutNanos : 0;
+            mName = handle.name;
+            mLayoutParamsFlags = handle.layoutParamsFlags;
+            mLayoutParamsType = handle.layoutParamsType;
+            mDispatchingTimeoutNanos = handle.dispatchingTimeoutNanos;
+            mFrameLeft = handle.frameLeft;
+            mFrameTop = handle.frameTop;
+            mFrameRight = handle.frameRight;
+            mFrameBottom = handle.frameBottom;
+            mScaleFactor = handle.scaleFactor;
+            mTouchableRegion.set(handle.touchableRegion);
+            mVisible = handle.visible;
+            mCanReceiveKeys = handle.canReceiveKeys;
+            mHasFocus = handle.hasFocus;
+            mHasWallpaper = handle.hasWallpaper;
+            mPaused = handle.paused;
+            mLayer = handle.layer;
+            mOwnerPid = handle.ownerPid;
+            mOwnerUid = handle.ownerUid;
+            mInputFeatures = handle.inputFeatures;
+            mDisplayId = handle.displayId;
+        }
+
+        boolean matches(InputWindowHandle handle) {
+            final InputApplicationHandle app = handle.inputApplicationHandle;
+            return mHandle == handle
+                    && mInputChannel == handle.inputChannel
+                    && Objects.equals(mApplicationName, app != null ? app.name : null)
+                    && mApplicationDispatchingTimeoutNanos
+                            == (app != null ? app.dispatchingTimeoutNanos : 0)
+                    && Objects.equals(mName, handle.name)
+                    && mLayoutParamsFlags == handle.layoutParamsFlags
+                    && mLayoutParamsType == handle.layoutParamsType
+                    && mDispatchingTimeoutNanos == handle.dispatchingTimeoutNanos
+                    && mFrameLeft == handle.frameLeft
+                    && mFrameTop == handle.frameTop
+                    && mFrameRight == handle.frameRight
+                    && mFrameBottom == handle.frameBottom
+                    && mScaleFactor == handle.scaleFactor
+                    && mTouchableRegion.equals(handle.touchableRegion)
+                    && mVisible == handle.visible
+                    && mCanReceiveKeys == handle.canReceiveKeys
+                    && mHasFocus == handle.hasFocus
+                    && mHasWallpaper == handle.hasWallpaper
+                    && mPaused == handle.paused
+                    && mLayer == handle.layer
+                    && mOwnerPid == handle.ownerPid
+                    && mOwnerUid == handle.ownerUid
+                    && mInputFeatures == handle.inputFeatures
+                    && mDisplayId == handle.displayId;
+        }
+
+        void clear() {
+            mHandle = null;
+            mInputChannel = null;
+            mApplicationName = null;
+            mName = null;
+        }
+    }
+
     private final class UpdateInputForAllWindowsConsumer implements Consumer<WindowState> {
 
         InputConsumerImpl navInputConsumer;
@@ -645,7 +803,7 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
             }
 
             // Send windows to native code.
-            mService.mInputManager.setInputWindows(mInputWindowHandles, mFocusedInputWindowHandle);
+            sendInputWindowHandlesLw();
 
             clearInputWindowHandlesLw();
 
@@ -666,10 +666,15 @@ class RootWindowContainer extends WindowContainer<DisplayContent> {
             }
         }
 
-        if (isLayoutNeeded()) {
-            defaultDisplay.pendingLayoutChanges |= FINISH_LAYOUT_REDO_LAYOUT;
-            if (DEBUG_LAYOUT_REPEATS) surfacePlacer.debugLayoutRepeats("mLayoutNeeded",
-                    defaultDisplay.pendingLayoutChanges);
+        // Only redo the layout of the displays that need it, so that a change on a secondary
+        // display doesn't lay out every window of the default display again.
+        for (int displayNdx = 0; displayNdx < numDisplays; ++displayNdx) {
+            final DisplayContent displayContent = mChildren.get(displayNdx);
+            if (displayContent.isLayoutNeeded()) {
+                displayContent.pendingLayoutChanges |= FINISH_LAYOUT_REDO_LAYOUT;
+                if (DEBUG_LAYOUT_REPEATS) surfacePlacer.debugLayoutRepeats("mLayoutNeeded",
+                        displayContent.pendingLayoutChanges);
+            }
         }
 
         final ArraySet<DisplayContent> touchExcludeRegionUpdateDisplays = handleResizingWindows();
@@ -105,6 +105,7 @@ import static com.android.server.wm.WindowManagerServiceDumpProto.LAST_ORIENTATI
 import static com.android.server.wm.WindowManagerServiceDumpProto.POLICY;
 import static com.android.server.wm.WindowManagerServiceDumpProto.ROOT_WINDOW_CONTAINER;
 import static com.android.server.wm.WindowManagerServiceDumpProto.ROTATION;
+import static com.android.server.wm.WindowManagerServiceDumpProto.SURFACE_PLACEMENT;
 
 import android.Manifest;
 import android.Manifest.permission;
@@ -271,6 +272,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 /** {@hide} */
 public class WindowManagerService extends IWindowManager.Stub
         implements Watchdog.Monitor, WindowManagerPolicy.WindowManagerFuncs, IOneHandedAnimatorProxy.IWindowManagerFuncs {
@@ -642,6 +644,14 @@ public class WindowManagerService extends IWindowManager.Stub
     WindowState mCurrentFocus = null;
     WindowState mLastFocus = null;
 
+    /**
+     * State for read-only queries that are answered without taking {@link #mWindowMap}; see
+     * {@link #publishStateSnapshotLocked}.
+     */
+    private volatile WindowManagerStateSnapshot mStateSnapshot = WindowManagerStateSnapshot.EMPTY;
+    private final AtomicLong mSnapshotQueryCount = new AtomicLong();
+    private final AtomicLong mSnapshotFallbackCount = new AtomicLong();
+
     /** Windows added since {@link #mCurrentFocus} was set to null. Used for ANR blaming. */
     private final ArrayList<WindowState> mWinAddedSinceNullFocus = new ArrayList<>();
     /** Windows removed since {@link #mCurrentFocus} was set to null. Used for ANR blaming. */
@@ -5167,6 +5177,14 @@ public class WindowManagerService extends IWindowManager.Stub
 
     @Override
     public void getInitialDisplaySize(int displayId, Point size) {
+        final WindowManagerStateSnapshot.DisplayState state = getSnapshotDisplay(displayId);
+        if (state != null) {
+            if (state.hasAccess(Binder.getCallingUid())) {
+                size.x = state.initialWidth;
+                size.y = state.initialHeight;
+            }
+            return;
+        }
         synchronized (mWindowMap) {
             final DisplayContent displayContent = mRoot.getDisplayContent(displayId);
             if (displayContent != null && displayContent.hasAccess(Binder.getCallingUid())) {
@@ -5178,6 +5196,14 @@ public class WindowManagerService extends IWindowManager.Stub
 
     @Override
     public void getBaseDisplaySize(int displayId, Point size) {
+        final WindowManagerStateSnapshot.DisplayState state = getSnapshotDisplay(displayId);
+        if (state != null) {
+            if (state.hasAccess(Binder.getCallingUid())) {
+                size.x = state.baseWidth;
+                size.y = state.baseHeight;
+            }
+            return;
+        }
         synchronized (mWindowMap) {
             final DisplayContent displayContent = mRoot.getDisplayContent(displayId);
             if (displayContent != null && displayContent.hasAccess(Binder.getCallingUid())) {
@@ -5333,6 +5359,10 @@ public class WindowManagerService extends IWindowManager.Stub
 
     @Override
     public int getInitialDisplayDensity(int displayId) {
+        final WindowManagerStateSnapshot.DisplayState state = getSnapshotDisplay(displayId);
+        if (state != null) {
+            return state.hasAccess(Binder.getCallingUid()) ? state.initialDensity : -1;
+        }
         synchronized (mWindowMap) {
             final DisplayContent displayContent = mRoot.getDisplayContent(displayId);
             if (displayContent != null && displayContent.hasAccess(Binder.getCallingUid())) {
@@ -5344,6 +5374,10 @@ public class WindowManagerService extends IWindowManager.Stub
 
     @Override
     public int getBaseDisplayDensity(int displayId) {
+        final WindowManagerStateSnapshot.DisplayState state = getSnapshotDisplay(displayId);
+        if (state != null) {
+            return state.hasAccess(Binder.getCallingUid()) ? state.baseDensity : -1;
+        }
         synchronized (mWindowMap) {
             final DisplayContent displayContent = mRoot.getDisplayContent(displayId);
             if (displayContent != null && displayContent.hasAccess(Binder.getCallingUid())) {
@@ -5469,6 +5503,31 @@ public class WindowManagerService extends IWindowManager.Stub
         }
 
         mWindowPlacerLocked.performSurfacePlacement();
+        // Placement may be deferred, publish the new display metrics now.
+        publishStateSnapshotLocked();
+    }
+
+    /**
+     * Publishes the state that read-only queries are answered from without the lock.  Must be
+     * called after anything the snapshot holds changes; see {@link WindowManagerStateSnapshot}.
+     */
+    void publishStateSnapshotLocked() {
+        mStateSnapshot = WindowManagerStateSnapshot.createLocked(this);
+    }
+
+    /**
+     * @return The published state of the display, or null if the caller has to take the lock
+     *     because the display is not in the snapshot.
+     */
+    private WindowManagerStateSnapshot.DisplayState getSnapshotDisplay(int displayId) {
+        final WindowManagerStateSnapshot.DisplayState state =
+                mStateSnapshot.getDisplay(displayId);
+        if (state != null) {
+            mSnapshotQueryCount.incrementAndGet();
+        } else {
+            mSnapshotFallbackCount.incrementAndGet();
+        }
+        return state;
     }
 
     /**
@@ -5773,6 +5832,8 @@ public class WindowManagerService extends IWindowManager.Stub
             // other apps' UI.
             displayContent.scheduleToastWindowsTimeoutIfNeededLocked(oldFocus, newFocus);
 
+            publishStateSnapshotLocked();
+
             Trace.traceEnd(TRACE_TAG_WINDOW_MANAGER);
             return true;
         }
@@ -6387,6 +6448,7 @@ public class WindowManagerService extends IWindowManager.Stub
         proto.write(ROTATION, defaultDisplayContent.getRotation());
         proto.write(LAST_ORIENTATION, defaultDisplayContent.getLastOrientation());
         mAppTransition.writeToProto(proto, APP_TRANSITION);
+        mWindowPlacerLocked.writeToProto(proto, SURFACE_PLACEMENT);
     }
 
     void traceStateLocked(String where) {
@@ -6539,6 +6601,9 @@ public class WindowManagerService extends IWindowManager.Stub
                 pw.print(" mLastWakeLockObscuringWindow="); pw.print(mLastWakeLockObscuringWindow);
                 pw.println();
 
+        pw.print("  Lock-free queries: "); pw.print(mSnapshotQueryCount.get());
+                pw.print(" fallbacks="); pw.println(mSnapshotFallbackCount.get());
+
         mInputMonitor.dump(pw, "  ");
         mUnknownAppVisibilityController.dump(pw, "  ");
         mTaskSnapshotController.dump(pw, "  ");
@@ -7354,13 +7419,8 @@ public class WindowManagerService extends IWindowManager.Stub
 
         @Override
         public IBinder getFocusedWindowToken() {
-            synchronized (mWindowMap) {
-                WindowState windowState = getFocusedWindowLocked();
-                if (windowState != null) {
-                    return windowState.mClient.asBinder();
-                }
-                return null;
-            }
+            mSnapshotQueryCount.incrementAndGet();
+            return mStateSnapshot.focusedWindowToken;
         }
 
         @Override
@@ -7448,11 +7508,9 @@ public class WindowManagerService extends IWindowManager.Stub
 
         @Override
         public int getInputMethodWindowVisibleHeight() {
-            synchronized (mWindowMap) {
-                // TODO(multi-display): Have caller pass in the display they are interested in.
-                final DisplayContent dc = getDefaultDisplayContentLocked();
-                return dc.mDisplayFrames.getInputMethodWindowVisibleHeight();
-            }
+            // TODO(multi-display): Have caller pass in the display they are interested in.
+            mSnapshotQueryCount.incrementAndGet();
+            return mStateSnapshot.inputMethodWindowVisibleHeight;
         }
 
         @Override
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wm;
+
+import android.os.IBinder;
+import android.util.SparseArray;
+import android.view.Display;
+
+/**
+ * Immutable copy of window manager state that is queried often but changes rarely, so that
+ * read-only binder calls can be answered without waiting for the global lock while a layout
+ * pass holds it.
+ *
+ * <p>A new snapshot is published at the end of every surface placement, when the focus changes
+ * and when a display is reconfigured, which covers every change to the state it holds.  Queries
+ * about a display missing from the snapshot, such as one added since, fall back to the lock.
+ */
+final class WindowManagerStateSnapshot {
+
+    /** State of a single display. */
+    static final class DisplayState {
+        private final Display mDisplay;
+        final int initialWidth;
+        final int initialHeight;
+        final int initialDensity;
+        final int baseWidth;
+        final int baseHeight;
+        final int baseDensity;
+
+        private DisplayState(DisplayContent displayContent) {
+            mDisplay = displayContent.getDisplay();
+            initialWidth = displayContent.mInitialDisplayWidth;
+            initialHeight = displayContent.mInitialDisplayHeight;
+            initialDensity = displayContent.mInitialDisplayDensity;
+            baseWidth = displayContent.mBaseDisplayWidth;
+            baseHeight = displayContent.mBaseDisplayHeight;
+            baseDensity = displayContent.mBaseDisplayDensity;
+        }
+
+        /** @see DisplayContent#hasAccess */
+        boolean hasAccess(int uid) {
+            return mDisplay.hasAccess(uid);
+        }
+    }
+
+    static final WindowManagerStateSnapshot EMPTY = new WindowManagerStateSnapshot();
+
+    private final SparseArray<DisplayState> mDisplays;
+    final IBinder focusedWindowToken;
+    final int inputMethodWindowVisibleHeight;
+
+    private WindowManagerStateSnapshot() {
+        mDisplays = new SparseArray<>(0);
+        focusedWindowToken = null;
+        inputMethodWindowVisibleHeight = 0;
+    }
+
+    private WindowManagerStateSnapshot(WindowManagerService service) {
+        final RootWindowContainer root = service.mRoot;
+        final int count = root.getChildCount();
+        mDisplays = new SparseArray<>(count);
+        for (int i = 0; i < count; i++) {
+            final DisplayContent displayContent = root.getChildAt(i);
+            mDisplays.put(displayContent.getDisplayId(), new DisplayState(displayContent));
+        }
+
+        final WindowState focus = service.mCurrentFocus;
+        focusedWindowToken = focus != null ? focus.mClient.asBinder() : null;
+
+        final DisplayContent defaultDisplay = service.getDefaultDisplayContentLocked();
+        inputMethodWindowVisibleHeight = defaultDisplay != null
+                ? defaultDisplay.mDisplayFrames.getInputMethodWindowVisibleHeight() : 0;
+    }
+
+    static WindowManagerStateSnapshot createLocked(WindowManagerService service) {
+        return new WindowManagerStateSnapshot(service);
+    }
+
+    /** @return The state of the display, or null if it was not there when this was taken. */
+    DisplayState getDisplay(int displayId) {
+        return mDisplays.get(displayId);
+    }
+}
@@ -54,6 +54,7 @@ class WindowManagerThreadPriorityBooster extends ThreadPriorityBooster {
 
         // Do not boost the animation threads. As the animation threads are changing priorities,
         // boosting it might mess up the priority because we reset it the the previous priority.
+        // This also means their locked sections are not reported to LockGuard.
         final int myTid = myTid();
         if (myTid == mAnimationThreadId || myTid == mSurfaceAnimationThreadId) {
             return;
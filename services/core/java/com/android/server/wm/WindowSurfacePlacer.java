@@ -45,6 +45,16 @@ import static android.view.WindowManager.TRANSIT_WALLPAPER_INTRA_OPEN;
 import static android.view.WindowManager.TRANSIT_WALLPAPER_OPEN;
 import static com.android.server.wm.AppTransition.isKeyguardGoingAwayTransit;
 import static com.android.server.wm.AppTransition.isTaskTransit;
+import static com.android.server.wm.SurfacePlacementProto.LAST_DURATION_MICROS;
+import static com.android.server.wm.SurfacePlacementProto.LAST_LOOPS;
+import static com.android.server.wm.SurfacePlacementProto.LAST_WINDOWS_LAID_OUT;
+import static com.android.server.wm.SurfacePlacementProto.LAST_WINDOWS_VISITED;
+import static com.android.server.wm.SurfacePlacementProto.LOOPS;
+import static com.android.server.wm.SurfacePlacementProto.MAX_DURATION_MICROS;
+import static com.android.server.wm.SurfacePlacementProto.PLACEMENTS;
+import static com.android.server.wm.SurfacePlacementProto.TOTAL_DURATION_MICROS;
+import static com.android.server.wm.SurfacePlacementProto.WINDOWS_LAID_OUT;
+import static com.android.server.wm.SurfacePlacementProto.WINDOWS_VISITED;
 import static com.android.server.wm.WindowManagerDebugConfig.DEBUG;
 import static com.android.server.wm.WindowManagerDebugConfig.DEBUG_APP_TRANSITIONS;
 import static com.android.server.wm.WindowManagerDebugConfig.SHOW_LIGHT_TRANSACTIONS;
@@ -57,10 +67,12 @@ import static com.android.server.wm.WindowManagerService.UPDATE_FOCUS_PLACING_SU
 
 import android.app.WindowConfiguration;
 import android.os.Debug;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.util.ArraySet;
 import android.util.Slog;
 import android.util.SparseIntArray;
+import android.util.proto.ProtoOutputStream;
 import android.view.Display;
 import android.view.RemoteAnimationAdapter;
 import android.view.RemoteAnimationDefinition;
@@ -110,6 +122,19 @@ class WindowSurfacePlacer {
 
     private final Runnable mPerformSurfacePlacement;
 
+    // Counters for dumpsys and window tracing. A placement is one call of
+    // performSurfacePlacement, which runs one or more loops.
+    private long mPlacementCount;
+    private long mLoopCount;
+    private long mWindowsVisited;
+    private long mWindowsLaidOut;
+    private long mTotalDurationMicros;
+    private long mMaxDurationMicros;
+    private int mLastLoops;
+    private int mLastWindowsVisited;
+    private int mLastWindowsLaidOut;
+    private long mLastDurationMicros;
+
     public WindowSurfacePlacer(WindowManagerService service) {
         mService = service;
         mWallpaperControllerLocked = mService.mRoot.mWallpaperController;
@@ -149,6 +174,9 @@ class WindowSurfacePlacer {
         if (mDeferDepth > 0 && !force) {
             return;
         }
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        final long windowsVisited = mWindowsVisited;
+        final long windowsLaidOut = mWindowsLaidOut;
         int loopCount = 6;
         do {
             mTraversalScheduled = false;
@@ -157,6 +185,25 @@ class WindowSurfacePlacer {
             loopCount--;
         } while (mTraversalScheduled && loopCount > 0);
         mService.mRoot.mWallpaperActionPending = false;
+
+        mPlacementCount++;
+        mLastLoops = 6 - loopCount;
+        mLoopCount += mLastLoops;
+        mLastWindowsVisited = (int) (mWindowsVisited - windowsVisited);
+        mLastWindowsLaidOut = (int) (mWindowsLaidOut - windowsLaidOut);
+        mLastDurationMicros = (SystemClock.elapsedRealtimeNanos() - startTime) / 1000;
+        mTotalDurationMicros += mLastDurationMicros;
+        mMaxDurationMicros = Math.max(mMaxDurationMicros, mLastDurationMicros);
+    }
+
+    /** Called for every window a layout or surface placement pass looks at. */
+    void noteWindowVisited() {
+        mWindowsVisited++;
+    }
+
+    /** Called for every window whose frame is computed by the policy. */
+    void noteWindowLaidOut() {
+        mWindowsLaidOut++;
     }
 
     private void performSurfacePlacementLoop() {
@@ -205,6 +252,7 @@ class WindowSurfacePlacer {
 
         try {
             mService.mRoot.performSurfacePlacement(recoveringMemory);
+            mService.publishStateSnapshotLocked();
 
             mInLayout = false;
 
@@ -807,5 +855,28 @@ class WindowSurfacePlacer {
         pw.println(prefix + "mTraversalScheduled=" + mTraversalScheduled);
         pw.println(prefix + "mHoldScreenWindow=" + mService.mRoot.mHoldScreenWindow);
         pw.println(prefix + "mObscuringWindow=" + mService.mRoot.mObscuringWindow);
+        pw.println(prefix + "Surface placements=" + mPlacementCount + " loops=" + mLoopCount
+                + " windowsVisited=" + mWindowsVisited + " windowsLaidOut=" + mWindowsLaidOut
+                + " totalDuration=" + mTotalDurationMicros + "us"
+                + " maxDuration=" + mMaxDurationMicros + "us");
+        pw.println(prefix + "  last: loops=" + mLastLoops
+                + " windowsVisited=" + mLastWindowsVisited
+                + " windowsLaidOut=" + mLastWindowsLaidOut
+                + " duration=" + mLastDurationMicros + "us");
+    }
+
+    void writeToProto(ProtoOutputStream proto, long fieldId) {
+        final long token = proto.start(fieldId);
+        proto.write(PLACEMENTS, mPlacementCount);
+        proto.write(LOOPS, mLoopCount);
+        proto.write(WINDOWS_VISITED, mWindowsVisited);
+        proto.write(WINDOWS_LAID_OUT, mWindowsLaidOut);
+        proto.write(TOTAL_DURATION_MICROS, mTotalDurationMicros);
+        proto.write(MAX_DURATION_MICROS, mMaxDurationMicros);
+        proto.write(LAST_LOOPS, mLastLoops);
+        proto.write(LAST_WINDOWS_VISITED, mLastWindowsVisited);
+        proto.write(LAST_WINDOWS_LAID_OUT, mLastWindowsLaidOut);
+        proto.write(LAST_DURATION_MICROS, mLastDurationMicros);
+        proto.end(token);
     }
 }
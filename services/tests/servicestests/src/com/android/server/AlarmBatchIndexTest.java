@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * atest $ANDROID_BUILD_TOP/frameworks/base/services/tests/servicestests/src/com/android/server/AlarmBatchIndexTest.java
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AlarmBatchIndexTest {
+    private static final String TAG = "AlarmBatchIndexTest";
+
+    /** Stand-in for an alarm batch, mirroring the bounds the index is given. */
+    private static class Window {
+        long start;
+        long end;
+        boolean standalone;
+
+        Window(long start, long end, boolean standalone) {
+            this.start = start;
+            this.end = end;
+            this.standalone = standalone;
+        }
+    }
+
+    private static void put(AlarmBatchIndex<Window> index, Window w) {
+        index.put(w, w.start, w.end, !w.standalone);
+    }
+
+    /** The linear scan AlarmManagerService used before, over windows sorted by start. */
+    private static Window findLinear(ArrayList<Window> windows, long start, long end) {
+        Window found = null;
+        for (Window w : windows) {
+            if (!w.standalone && w.end >= start && w.start <= end
+                    && (found == null || w.start < found.start)) {
+                found = w;
+            }
+        }
+        return found;
+    }
+
+    @Test
+    public void findFirstOverlapping_empty() {
+        final AlarmBatchIndex<Window> index = new AlarmBatchIndex<>();
+        assertNull(index.findFirstOverlapping(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void findFirstOverlapping_earliestStartWins() {
+        final AlarmBatchIndex<Window> index = new AlarmBatchIndex<>();
+        final Window late = new Window(300, 400, false);
+        final Window early = new Window(100, 350, false);
+        put(index, late);
+        put(index, early);
+
+        assertSame(early, index.findFirstOverlapping(320, 330));
+        assertSame(late, index.findFirstOverlapping(360, 500));
+        assertNull(index.findFirstOverlapping(401, 500));
+        assertNull(index.findFirstOverlapping(0, 99));
+    }
+
+    @Test
+    public void findFirstOverlapping_skipsStandalone() {
+        final AlarmBatchIndex<Window> index = new AlarmBatchIndex<>();
+        final Window standalone = new Window(100, 200, true);
+        put(index, standalone);
+        assertNull(index.findFirstOverlapping(150, 150));
+
+        final Window other = new Window(150, 300, false);
+        put(index, other);
+        assertSame(other, index.findFirstOverlapping(150, 150));
+    }
+
+    @Test
+    public void putAndRemove_updatesBounds() {
+        final AlarmBatchIndex<Window> index = new AlarmBatchIndex<>();
+        final Window w = new Window(100, 200, false);
+        put(index, w);
+        w.start = 150;
+        w.end = 160;
+        put(index, w);
+
+        assertEquals(1, index.size());
+        assertNull(index.findFirstOverlapping(170, 180));
+        assertSame(w, index.findFirstOverlapping(155, 155));
+
+        assertTrue(index.remove(w));
+        assertFalse(index.remove(w));
+        assertEquals(0, index.size());
+        assertNull(index.findFirstOverlapping(155, 155));
+    }
+
+    /**
+     * Reproduces a device with 10k inexact alarms: builds, queries and partially removes the
+     * batches, checking every answer against the linear scan.
+     */
+    @Test
+    public void tenThousandWindows_matchLinearScan() {
+        final int count = 10000;
+        final Random random = new Random(42);
+        final AlarmBatchIndex<Window> index = new AlarmBatchIndex<>();
+        final ArrayList<Window> windows = new ArrayList<>();
+
+        final long startInsert = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < count; i++) {
+            final long start = random.nextInt(24 * 60 * 60 * 1000);
+            final Window w = new Window(start, start + random.nextInt(60 * 60 * 1000),
+                    random.nextInt(20) == 0);
+            windows.add(w);
+            put(index, w);
+        }
+        Log.i(TAG, "Inserted " + count + " windows in "
+                + (SystemClock.elapsedRealtimeNanos() - startInsert) / 1000 + "us");
+        assertEquals(count, index.size());
+
+        for (int i = 0; i < 1000; i++) {
+            final long start = random.nextInt(25 * 60 * 60 * 1000);
+            final long end = start + random.nextInt(15 * 60 * 1000);
+            final Window expected = findLinear(windows, start, end);
+            final Window actual = index.findFirstOverlapping(start, end);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                // Ties on start may resolve to either window.
+                assertEquals(expected.start, actual.start);
+                assertTrue(actual.end >= start && !actual.standalone);
+            }
+        }
+
+        final long startRemove = SystemClock.elapsedRealtimeNanos();
+        for (int i = windows.size() - 1; i >= 0; i -= 2) {
+            assertTrue(index.remove(windows.remove(i)));
+        }
+        Log.i(TAG, "Removed " + (count / 2) + " windows in "
+                + (SystemClock.elapsedRealtimeNanos() - startRemove) / 1000 + "us");
+        assertEquals(windows.size(), index.size());
+
+        for (int i = 0; i < 1000; i++) {
+            final long start = random.nextInt(25 * 60 * 60 * 1000);
+            final Window expected = findLinear(windows, start, start);
+            final Window actual = index.findFirstOverlapping(start, start);
+            assertEquals(expected == null ? null : expected.start,
+                    actual == null ? null : actual.start);
+        }
+    }
+}
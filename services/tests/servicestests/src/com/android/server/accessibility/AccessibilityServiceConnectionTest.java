@@ -16,17 +16,25 @@
 
 package com.android.server.accessibility;
 
+import static android.view.accessibility.AccessibilityEvent.CONTENT_CHANGE_TYPE_SUBTREE;
+import static android.view.accessibility.AccessibilityEvent.CONTENT_CHANGE_TYPE_TEXT;
+import static android.view.accessibility.AccessibilityEvent.CONTENT_CHANGE_TYPE_UNDEFINED;
+
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.accessibilityservice.AccessibilityServiceInfo;
+import android.accessibilityservice.IAccessibilityServiceClient;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -38,6 +46,7 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.RemoteException;
 import android.os.UserHandle;
+import android.view.accessibility.AccessibilityEvent;
 
 import com.android.server.wm.WindowManagerInternal;
 
@@ -47,8 +56,10 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 
 
 /**
@@ -58,6 +69,8 @@ public class AccessibilityServiceConnectionTest {
     static final ComponentName COMPONENT_NAME = new ComponentName(
             "com.android.server.accessibility", "AccessibilityServiceConnectionTest");
     static final int SERVICE_ID = 42;
+    static final int WINDOW_ID = 7;
+    static final long NODE_ID = 1234L;
 
     AccessibilityServiceConnection mConnection;
 
@@ -71,8 +84,10 @@ public class AccessibilityServiceConnectionTest {
     @Mock GlobalActionPerformer mMockGlobalActionPerformer;
     @Mock KeyEventDispatcher mMockKeyEventDispatcher;
     @Mock MagnificationController mMockMagnificationController;
+    @Mock IAccessibilityServiceClient mMockServiceClient;
 
     MessageCapturingHandler mHandler = new MessageCapturingHandler(null);
+    MessageCapturingHandler mEventDispatchHandler;
 
     @BeforeClass
     public static void oneTimeInitialization() {
@@ -137,6 +152,85 @@ public class AccessibilityServiceConnectionTest {
         assertFalse(mConnection.getServiceInfo().crashed);
     }
 
+    @Test
+    public void contentChangesToSameNode_areMergedIntoOneDispatch() throws RemoteException {
+        final List<Integer> dispatchedTypes = connectAndCaptureDispatchedContentChanges();
+
+        mConnection.notifyAccessibilityEvent(createContentChange(CONTENT_CHANGE_TYPE_TEXT));
+        mConnection.notifyAccessibilityEvent(createContentChange(CONTENT_CHANGE_TYPE_SUBTREE));
+        mEventDispatchHandler.sendAllMessages();
+
+        assertEquals(Arrays.asList(CONTENT_CHANGE_TYPE_TEXT | CONTENT_CHANGE_TYPE_SUBTREE),
+                dispatchedTypes);
+    }
+
+    @Test
+    public void undefinedContentChange_absorbsOtherChangeTypes() throws RemoteException {
+        final List<Integer> dispatchedTypes = connectAndCaptureDispatchedContentChanges();
+
+        mConnection.notifyAccessibilityEvent(createContentChange(CONTENT_CHANGE_TYPE_TEXT));
+        mConnection.notifyAccessibilityEvent(createContentChange(CONTENT_CHANGE_TYPE_UNDEFINED));
+        mConnection.notifyAccessibilityEvent(createContentChange(CONTENT_CHANGE_TYPE_SUBTREE));
+        mEventDispatchHandler.sendAllMessages();
+
+        assertEquals(Arrays.asList(CONTENT_CHANGE_TYPE_UNDEFINED), dispatchedTypes);
+    }
+
+    @Test
+    public void contentChangeAfterDispatchStarted_isNotMerged() throws RemoteException {
+        final List<Integer> dispatchedTypes = connectAndCaptureDispatchedContentChanges();
+
+        mConnection.notifyAccessibilityEvent(createContentChange(CONTENT_CHANGE_TYPE_TEXT));
+        mEventDispatchHandler.sendOneMessage();
+        mConnection.notifyAccessibilityEvent(createContentChange(CONTENT_CHANGE_TYPE_SUBTREE));
+        mEventDispatchHandler.sendAllMessages();
+
+        assertEquals(Arrays.asList(CONTENT_CHANGE_TYPE_TEXT, CONTENT_CHANGE_TYPE_SUBTREE),
+                dispatchedTypes);
+    }
+
+    /**
+     * Connects the service, routes event dispatch through {@link #mEventDispatchHandler} and
+     * records the content change types of every event the service is sent.
+     */
+    private List<Integer> connectAndCaptureDispatchedContentChanges() throws RemoteException {
+        mMockServiceInfo.eventTypes = AccessibilityEvent.TYPES_ALL_MASK;
+        mMockServiceInfo.feedbackType = AccessibilityServiceInfo.FEEDBACK_GENERIC;
+        mConnection.setDynamicallyConfigurableProperties(mMockServiceInfo);
+
+        final IBinder mockBinder = mock(IBinder.class);
+        when(mockBinder.queryLocalInterface(any())).thenReturn(mMockServiceClient);
+        setServiceBinding(COMPONENT_NAME);
+        mConnection.bindLocked();
+        mConnection.onServiceConnected(COMPONENT_NAME, mockBinder);
+
+        final Handler dispatchHandler = mConnection.mEventDispatchHandler;
+        mEventDispatchHandler = new MessageCapturingHandler(message -> {
+            dispatchHandler.handleMessage(message);
+            return true;
+        });
+        mConnection.mEventDispatchHandler = mEventDispatchHandler;
+
+        // The event is recycled after dispatch, so record what it held when it was sent.
+        final List<Integer> dispatchedTypes = new ArrayList<>();
+        doAnswer(invocation -> {
+            final AccessibilityEvent event = invocation.getArgument(0);
+            dispatchedTypes.add(event.getContentChangeTypes());
+            return null;
+        }).when(mMockServiceClient).onAccessibilityEvent(any(), anyBoolean());
+        return dispatchedTypes;
+    }
+
+    private static AccessibilityEvent createContentChange(int changeTypes) {
+        final AccessibilityEvent event =
+                AccessibilityEvent.obtain(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED);
+        event.setWindowId(WINDOW_ID);
+        event.setSourceNodeId(NODE_ID);
+        event.setImportantForAccessibility(true);
+        event.setContentChangeTypes(changeTypes);
+        return event;
+    }
+
     private void setServiceBinding(ComponentName componentName) {
         when(mMockUserState.getBindingServicesLocked())
                 .thenReturn(new HashSet<>(Arrays.asList(componentName)));
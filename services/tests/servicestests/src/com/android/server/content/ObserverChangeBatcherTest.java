@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.database.IContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * atest $ANDROID_BUILD_TOP/frameworks/base/services/tests/servicestests/src/com/android/server/content/ObserverChangeBatcherTest.java
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ObserverChangeBatcherTest {
+    private static final Uri MEDIA_1 = Uri.parse("content://media/external/images/1");
+    private static final Uri MEDIA_2 = Uri.parse("content://media/external/images/2");
+
+    private static class RecordingObserver extends IContentObserver.Stub {
+        final List<List<Uri>> callbacks = new ArrayList<>();
+        final List<Integer> users = new ArrayList<>();
+
+        @Override
+        public void onChange(boolean selfUpdate, Uri uri, int userId) {
+            callbacks.add(Arrays.asList(uri));
+            users.add(userId);
+        }
+
+        @Override
+        public void onChangeEtc(boolean selfUpdate, Uri[] uris, int userId) {
+            callbacks.add(Arrays.asList(uris));
+            users.add(userId);
+        }
+    }
+
+    private ObserverChangeBatcher mBatcher;
+
+    @Before
+    public void setUp() {
+        mBatcher = new ObserverChangeBatcher(new Handler(Looper.getMainLooper()),
+                (observer) -> { }, new String[] { "media" }, 100);
+    }
+
+    @Test
+    public void testShouldCoalesce() {
+        assertTrue(mBatcher.shouldCoalesce(MEDIA_1));
+        assertFalse(mBatcher.shouldCoalesce(Uri.parse("content://settings/system")));
+
+        final ObserverChangeBatcher disabled = new ObserverChangeBatcher(
+                new Handler(Looper.getMainLooper()), (observer) -> { },
+                new String[] { "media" }, 0);
+        assertFalse(disabled.shouldCoalesce(MEDIA_1));
+    }
+
+    @Test
+    public void testChangesBatchedPerObserver() {
+        final RecordingObserver first = new RecordingObserver();
+        final RecordingObserver second = new RecordingObserver();
+
+        mBatcher.enqueue(first, false, MEDIA_1, 0);
+        mBatcher.enqueue(first, false, MEDIA_2, 0);
+        mBatcher.enqueue(first, false, MEDIA_1, 0);
+        mBatcher.enqueue(second, false, MEDIA_2, 0);
+        mBatcher.flush();
+
+        assertEquals(1, first.callbacks.size());
+        assertEquals(2, first.callbacks.get(0).size());
+        assertTrue(first.callbacks.get(0).containsAll(Arrays.asList(MEDIA_1, MEDIA_2)));
+        assertEquals(Arrays.asList(Arrays.asList(MEDIA_2)), second.callbacks);
+
+        // Nothing left to deliver.
+        mBatcher.flush();
+        assertEquals(1, first.callbacks.size());
+    }
+
+    @Test
+    public void testChangesDeliveredInOrderOfFirstChange() {
+        final RecordingObserver observer = new RecordingObserver();
+
+        mBatcher.enqueue(observer, false, MEDIA_2, 0);
+        mBatcher.enqueue(observer, false, MEDIA_1, 0);
+        mBatcher.enqueue(observer, false, MEDIA_2, 0);
+        mBatcher.flush();
+
+        assertEquals(Arrays.asList(Arrays.asList(MEDIA_2, MEDIA_1)), observer.callbacks);
+    }
+
+    @Test
+    public void testChangesSplitByUser() {
+        final RecordingObserver observer = new RecordingObserver();
+
+        mBatcher.enqueue(observer, false, MEDIA_1, 0);
+        mBatcher.enqueue(observer, false, MEDIA_2, 10);
+        mBatcher.flush();
+
+        assertEquals(2, observer.callbacks.size());
+        assertTrue(observer.users.containsAll(Arrays.asList(0, 10)));
+    }
+}
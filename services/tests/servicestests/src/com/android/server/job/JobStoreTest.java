@@ -5,6 +5,7 @@ import static android.net.NetworkCapabilities.NET_CAPABILITY_OEM_PAID;
 import static android.net.NetworkCapabilities.TRANSPORT_WIFI;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -338,6 +339,41 @@ public class JobStoreTest {
         assertEquals("Wrong job persisted.", 43, jobStatus.getJobId());
     }
 
+    /**
+     * Test that each uid gets its own file, and that removing the last job of a uid deletes its
+     * file without touching the jobs of other uids.
+     */
+    @Test
+    public void testJobsPersistedPerUid() throws Exception {
+        final int otherUid = SOME_UID + 1;
+        JobInfo.Builder b = new Builder(1, mComponent)
+                .setOverrideDeadline(10000)
+                .setPersisted(true);
+        final JobStatus js1 = JobStatus.createFromJobInfo(b.build(), SOME_UID, null, -1, null);
+        final JobStatus js2 = JobStatus.createFromJobInfo(b.build(), otherUid, null, -1, null);
+        mTaskStoreUnderTest.add(js1);
+        mTaskStoreUnderTest.add(js2);
+        waitForPendingIo();
+
+        assertTrue("Missing file for uid.",
+                mTaskStoreUnderTest.getJobsFileForUid(SOME_UID).exists());
+        assertTrue("Missing file for uid.",
+                mTaskStoreUnderTest.getJobsFileForUid(otherUid).exists());
+
+        mTaskStoreUnderTest.remove(js2, true);
+        waitForPendingIo();
+
+        assertFalse("File of uid without jobs not deleted.",
+                mTaskStoreUnderTest.getJobsFileForUid(otherUid).exists());
+        final JobSet jobStatusSet = new JobSet();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet, true);
+        assertEquals("Job count is incorrect.", 1, jobStatusSet.size());
+        assertEquals("Wrong uid persisted.", SOME_UID,
+                jobStatusSet.getAllJobs().iterator().next().getUid());
+        assertTrue("Write stats not recorded.",
+                mTaskStoreUnderTest.getPersistStats().bytesWritten > 0);
+    }
+
     @Test
     public void testRequiredNetworkType() throws Exception {
         assertPersistedEquals(new JobInfo.Builder(0, mComponent)
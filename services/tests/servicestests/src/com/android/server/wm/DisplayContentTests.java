@@ -43,6 +43,7 @@ import org.junit.runner.RunWith;
 
 import android.annotation.SuppressLint;
 import android.content.res.Configuration;
+import android.graphics.Point;
 import android.graphics.Rect;
 import android.os.SystemClock;
 import android.platform.test.annotations.Presubmit;
@@ -379,6 +380,32 @@ public class DisplayContentTests extends WindowTestsBase {
         verifySizes(mDisplayContent, smallerWidth, smallerHeight, smallerDensity);
     }
 
+    /**
+     * Forcing the display size or density reconfigures the display, which must publish the new
+     * base metrics to the queries that read them without the lock, even while placement is
+     * deferred.
+     */
+    @Test
+    public void testForcedDisplayMetricsPublishedWithoutPlacement() throws Exception {
+        final int displayId = mDisplayContent.getDisplayId();
+        synchronized (sWm.mWindowMap) {
+            sWm.publishStateSnapshotLocked();
+            sWm.mWindowPlacerLocked.deferLayout();
+            try {
+                // What setForcedDisplaySize() and setForcedDisplayDensityForUser() do.
+                mDisplayContent.updateBaseDisplayMetrics(720, 1280, 240);
+                sWm.reconfigureDisplayLocked(mDisplayContent);
+
+                final Point size = new Point();
+                sWm.getBaseDisplaySize(displayId, size);
+                assertEquals(new Point(720, 1280), size);
+                assertEquals(240, sWm.getBaseDisplayDensity(displayId));
+            } finally {
+                sWm.mWindowPlacerLocked.continueLayout();
+            }
+        }
+    }
+
     /**
      * This test enforces that the pinned stack is always kept as the top stack.
      */